@@ -2,6 +2,9 @@ package de.org.mchahn.crypto.estreamj.ciphers.aes;
 
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+
 /**
  * AES base class, used by both the lean(=small) and the mean(=fast) class;
  * based on the work of Brian Gladman's optimizations and C code, and the
@@ -129,11 +132,86 @@ public abstract class AES {
     public static final int BLOCK_SIZE = 16;
 
     public void erase() {
-        for (int[] wk: this.workingKey)
-            Arrays.fill(wk, 0);
+        if (null != this.workingKey)
+            for (int[] wk: this.workingKey)
+                Arrays.fill(wk, 0);
         this.C0 = this.C1 = this.C2 = this.C3 = 0;
     }
 
+    /**
+     * Copies the key schedule of another instance of the same kind.
+     * @param src where to copy from
+     */
+    public void copyFrom(AES src) {
+        if (null == src.workingKey) {
+            this.workingKey = null;
+        }
+        else {
+            if (null == this.workingKey ||
+                this.workingKey.length != src.workingKey.length) {
+                this.workingKey = new int[src.workingKey.length][4];
+            }
+            for (int i = 0; i < src.workingKey.length; i++) {
+                System.arraycopy(
+                        src.workingKey[i], 0, this.workingKey[i], 0, 4);
+            }
+        }
+        this.ROUNDS = src.ROUNDS;
+        this.C0 = src.C0;
+        this.C1 = src.C1;
+        this.C2 = src.C2;
+        this.C3 = src.C3;
+        this.forEncryption = src.forEncryption;
+    }
+
+    /**
+     * Writes the complete state of the instance.
+     * @param st where to write to
+     */
+    public void exportState(CipherState st) {
+        if (null == this.workingKey) {
+            st.putInt(-1);
+        }
+        else {
+            st.putInt(this.workingKey.length);
+            for (int[] wk : this.workingKey) {
+                st.putInts(wk);
+            }
+        }
+        st.putInt(this.ROUNDS);
+        st.putInt(this.C0);
+        st.putInt(this.C1);
+        st.putInt(this.C2);
+        st.putInt(this.C3);
+        st.putBoolean(this.forEncryption);
+    }
+
+    /**
+     * Reads the complete state of the instance, as written by exportState().
+     * @param st where to read from
+     * @throws ESJException if the state is invalid
+     */
+    public void importState(CipherState st) throws ESJException {
+        int rows = st.getInt(-1, 15);
+        if (-1 == rows) {
+            this.workingKey = null;
+        }
+        else {
+            if (null == this.workingKey || this.workingKey.length != rows) {
+                this.workingKey = new int[rows][4];
+            }
+            for (int[] wk : this.workingKey) {
+                st.getInts(wk);
+            }
+        }
+        this.ROUNDS = st.getInt(0, 14);
+        this.C0 = st.getInt();
+        this.C1 = st.getInt();
+        this.C2 = st.getInt();
+        this.C3 = st.getInt();
+        this.forEncryption = st.getBoolean();
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     protected int[][] generateWorkingKey(
@@ -145,7 +223,12 @@ public abstract class AES {
         int t;
 
         this.ROUNDS = KC + 6;
-        int[][] W = new int[this.ROUNDS + 1][4];
+
+        // (re-keying with the same key size overwrites the old schedule)
+        int[][] W = this.workingKey;
+        if (null == W || this.ROUNDS + 1 != W.length) {
+            W = new int[this.ROUNDS + 1][4];
+        }
 
         t = 0;
         int i = ofs;
@@ -213,6 +296,23 @@ public abstract class AES {
         return BLOCK_SIZE;
     }
 
+    /**
+     * Processes two consecutive blocks. Implementations may interleave the
+     * rounds of both, so they can run in parallel on the CPU.
+     * @param in input buffer
+     * @param inOff where the two input blocks start
+     * @param out output buffer
+     * @param outOff where the two output blocks start
+     */
+    public void processBlocks2(
+        byte[] in,
+        int inOff,
+        byte[] out,
+        int outOff) {
+        processBlock(in, inOff, out, outOff);
+        processBlock(in, inOff + BLOCK_SIZE, out, outOff + BLOCK_SIZE);
+    }
+
     static final int unpack(byte[] bytes, int index) {
         return ( bytes[index    ] & 0xff       ) |
                ((bytes[index + 1] & 0xff) <<  8) |
@@ -229,7 +329,7 @@ public abstract class AES {
         this.C3 = unpack(bytes, off + 12);
     }
 
-    private static void pack(int val, byte[] bytes, int index) {
+    static final void pack(int val, byte[] bytes, int index) {
         bytes[index    ] = (byte) val;
         bytes[index + 1] = (byte)(val >>> 8);
         bytes[index + 2] = (byte)(val >>> 16);
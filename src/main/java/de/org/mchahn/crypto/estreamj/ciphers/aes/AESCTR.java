@@ -1,18 +1,27 @@
 package de.org.mchahn.crypto.estreamj.ciphers.aes;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.ISeekableCipher;
 import de.org.mchahn.crypto.estreamj.framework.Utils;
 
-public class AESCTR implements ICipher {
+public class AESCTR implements ISeekableCipher {
     AES aes;
     byte[] counter;
+    int counterBase;
+    boolean nonceSet;
+    int restLen;    // unused keystream at the end of cached_processBytes_reg
 
     byte[] cached_processBytes_reg = new byte[AES.BLOCK_SIZE];
+    byte[] cached_processBatch_ctrs = new byte[AES.BLOCK_SIZE << 1];
+    byte[] cached_processBatch_regs = new byte[AES.BLOCK_SIZE << 1];
 
     ///////////////////////////////////////////////////////////////////////////
 
@@ -44,26 +53,33 @@ public class AESCTR implements ICipher {
         return false;
     }
 
+    public boolean acceptsAnyLength() {
+        return true;
+    }
+
     public void process(
             byte[] inBuf,
             int inOfs,
             byte[] outBuf,
             int outOfs,
             int len) throws ESJException {
-        int i;
+        int c;
         byte[] counter = this.counter;
         byte[] reg = this.cached_processBytes_reg;
 
+        // what's left of the previous block gets used up first
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            Utils.xor(inBuf, inOfs, reg, 16 - this.restLen, outBuf, outOfs, c);
+            this.restLen -= c;
+            len -= c;
+            outOfs += c;
+            inOfs += c;
+        }
+
         while (16 <= len) {
             this.aes.processBlock(counter, 0, reg, 0);
-
-            i = 0;
-            while (i < 16) {
-                outBuf[outOfs + i] = (byte)(inBuf[inOfs + i] ^ reg[i]); i++;
-                outBuf[outOfs + i] = (byte)(inBuf[inOfs + i] ^ reg[i]); i++;
-                outBuf[outOfs + i] = (byte)(inBuf[inOfs + i] ^ reg[i]); i++;
-                outBuf[outOfs + i] = (byte)(inBuf[inOfs + i] ^ reg[i]); i++;
-            }
+            Utils.xor(inBuf, inOfs, reg, 0, outBuf, outOfs, 16);
 
             // the eSTREAM implementation is designed for 32bit counting only,
             // so we have to either stop at 4GB of data in theory or extend out
@@ -79,11 +95,161 @@ public class AESCTR implements ICipher {
             inOfs += 16;
         }
         if (0 < len) {
-            // very last round
+            // partial block, the rest of it is kept for the next call
             this.aes.processBlock(counter, 0, reg, 0);
-            for (i = 0; i < len; i++) {
-                outBuf[outOfs++] = (byte)(inBuf[inOfs++] ^ reg[i]);
+            Utils.xor(inBuf, inOfs, reg, 0, outBuf, outOfs, len);
+            Utils.writeInt32LE(
+                    Utils.readInt32LE(counter, 0) + 1,
+                    counter,
+                    0);
+            this.restLen = 16 - len;
+        }
+    }
+
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ISeekableCipher.super.process(in, out);
+            return;
+        }
+
+        byte[] counter = this.counter;
+        byte[] reg = this.cached_processBytes_reg;
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int c;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            Utils.xor(in, inPos, reg, 16 - this.restLen, out, outPos, c);
+            this.restLen -= c;
+            len -= c;
+            outPos += c;
+            inPos += c;
+        }
+
+        while (0 < len) {
+            this.aes.processBlock(counter, 0, reg, 0);
+            c = Math.min(len, 16);
+            Utils.xor(in, inPos, reg, 0, out, outPos, c);
+
+            Utils.writeInt32LE(
+                    Utils.readInt32LE(counter, 0) + 1,
+                    counter,
+                    0);
+
+            this.restLen = 16 - c;
+            len -= c;
+            outPos += c;
+            inPos += c;
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        byte[] counter = this.counter;
+        byte[] reg = this.cached_processBytes_reg;
+        int c;
+
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            System.arraycopy(reg, 16 - this.restLen, out, ofs, c);
+            this.restLen -= c;
+            len -= c;
+            ofs += c;
+        }
+
+        while (16 <= len) {
+            this.aes.processBlock(counter, 0, out, ofs);
+
+            Utils.writeInt32LE(
+                    Utils.readInt32LE(counter, 0) + 1,
+                    counter,
+                    0);
+
+            len -= 16;
+            ofs += 16;
+        }
+        if (0 < len) {
+            this.aes.processBlock(counter, 0, reg, 0);
+            System.arraycopy(reg, 0, out, ofs, len);
+            Utils.writeInt32LE(
+                    Utils.readInt32LE(counter, 0) + 1,
+                    counter,
+                    0);
+            this.restLen = 16 - len;
+        }
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        byte[] counter = this.counter;
+
+        if (n <= this.restLen) {
+            this.restLen -= (int)n;
+            return;
+        }
+        n -= this.restLen;
+        this.restLen = 0;
+
+        // (32bit counting only, same wrap-around as in process())
+        int ctr = Utils.readInt32LE(counter, 0) + (int)(n / AES.BLOCK_SIZE);
+        int rest = (int)(n % AES.BLOCK_SIZE);
+        if (0 < rest) {
+            Utils.writeInt32LE(ctr++, counter, 0);
+            this.aes.processBlock(counter, 0, this.cached_processBytes_reg, 0);
+            this.restLen = AES.BLOCK_SIZE - rest;
+        }
+        Utils.writeInt32LE(ctr, counter, 0);
+    }
+
+    public void processBatch(
+            byte[][] nonces,
+            byte[][] inputs,
+            byte[][] outputs,
+            int[] lengths) throws ESJException {
+        int count = Utils.checkBatch(
+                getNonceSize(), nonces, inputs, outputs, lengths);
+        byte[] ctrs = this.cached_processBatch_ctrs;
+        byte[] regs = this.cached_processBatch_regs;
+        int i, ofs, common;
+
+        for (i = 0; i < count; i += 2) {
+            if (i + 1 == count) {
+                setupNonce(nonces[i], 0);
+                process(inputs[i], 0, outputs[i], 0, lengths[i]);
+                return;
             }
+
+            // the counters of both messages lie next to each other, so the
+            // AES implementation can encrypt them in one go
+            System.arraycopy(nonces[i    ], 0, ctrs,  0, 16);
+            System.arraycopy(nonces[i + 1], 0, ctrs, 16, 16);
+
+            byte[] inBufA = inputs[i];
+            byte[] inBufB = inputs[i + 1];
+            byte[] outBufA = outputs[i];
+            byte[] outBufB = outputs[i + 1];
+
+            common = Math.min(lengths[i], lengths[i + 1]) & ~15;
+            for (ofs = 0; ofs < common; ofs += 16) {
+                this.aes.processBlocks2(ctrs, 0, regs, 0);
+                Utils.xor(inBufA, ofs, regs,  0, outBufA, ofs, 16);
+                Utils.xor(inBufB, ofs, regs, 16, outBufB, ofs, 16);
+                Utils.writeInt32LE(Utils.readInt32LE(ctrs,  0) + 1, ctrs,  0);
+                Utils.writeInt32LE(Utils.readInt32LE(ctrs, 16) + 1, ctrs, 16);
+            }
+
+            // whatever is left over goes the regular way
+            System.arraycopy(ctrs, 0, this.counter, 0, 16);
+            this.restLen = 0;
+            process(inBufA, common, outBufA, common, lengths[i] - common);
+            System.arraycopy(ctrs, 16, this.counter, 0, 16);
+            this.restLen = 0;
+            process(inBufB, common, outBufB, common, lengths[i + 1] - common);
         }
     }
 
@@ -95,7 +261,7 @@ public class AESCTR implements ICipher {
         this.aes.init(
                 true,       // always encrypt
                 key,
-                0,
+                ofs,
                 getKeySize());
     }
 
@@ -106,19 +272,90 @@ public class AESCTR implements ICipher {
                 this.counter,
                 0,
                 this.counter.length);
+        this.counterBase = Utils.readInt32LE(this.counter, 0);
+        this.restLen = 0;
+        this.nonceSet = true;
+    }
+
+    public void seek(long byteOffset) throws ESJException {
+        if (!this.nonceSet) {
+            throw new ESJException("AESCTR instance hasn't been set up yet");
+        }
+        if (0 > byteOffset || 0 != (byteOffset % AES.BLOCK_SIZE)) {
+            throw new ESJException("invalid seek offset " + byteOffset);
+        }
+        // (32bit counting only, same wrap-around as in process())
+        Utils.writeInt32LE(
+                this.counterBase + (int)(byteOffset / AES.BLOCK_SIZE),
+                this.counter,
+                0);
+        this.restLen = 0;
+    }
+
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        AESCTR other = (AESCTR)src;
+        if (other.aes.getClass() != this.aes.getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        this.aes.copyFrom(other.aes);
+        System.arraycopy(
+                other.counter, 0, this.counter, 0, this.counter.length);
+        this.counterBase = other.counterBase;
+        this.nonceSet = other.nonceSet;
+        System.arraycopy(other.cached_processBytes_reg, 0,
+                this.cached_processBytes_reg, 0, AES.BLOCK_SIZE);
+        this.restLen = other.restLen;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putBoolean(this.aes instanceof AESLean);
+        this.aes.exportState(st);
+        st.putBytes(this.counter);
+        st.putInt(this.counterBase);
+        st.putBytes(this.cached_processBytes_reg);
+        st.putInt(this.restLen);
+        st.putBoolean(this.nonceSet);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        if (st.getBoolean() != this.aes instanceof AESLean) {
+            throw new ESJException("state is from a different cipher flavor");
+        }
+        this.aes.importState(st);
+        st.getBytes(this.counter);
+        this.counterBase = st.getInt();
+        st.getBytes(this.cached_processBytes_reg);
+        this.restLen = st.getInt(0, AES.BLOCK_SIZE);
+        this.nonceSet = st.getBoolean();
+    }
+
+    public ICipher fork() throws ESJException {
+        AESCTR result = new AESCTR(this.aes instanceof AESLean);
+        result.copyStateFrom(this);
+        return result;
     }
 
 
     public void erase() {
         this.aes.erase();
         Arrays.fill(this.cached_processBytes_reg, (byte)0);
+        this.restLen = 0;
+        Arrays.fill(this.cached_processBatch_ctrs, (byte)0);
+        Arrays.fill(this.cached_processBatch_regs, (byte)0);
         if (null != this.counter)
             Arrays.fill(this.counter, (byte)0);
+        this.nonceSet = false;
     }
 
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                16, 16, 16, 0, true, true, 300, 1024);
+
         boolean lean;
 
         public Maker(boolean lean) {
@@ -132,6 +369,10 @@ public class AESCTR implements ICipher {
         public String getName() {
             return this.lean ? "AESCTR128_lean" : "AESCTR128_mean";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
@@ -483,6 +483,68 @@ public class AESMean extends AES {
         this.C3 = (S[r3&255]&255) ^ ((S[(r0>>8)&255]&255)<<8) ^ ((S[(r1>>16)&255]&255)<<16) ^ (S[r2>>>24]<<24) ^ KW[r][3];
     }
 
+    public void processBlocks2(
+        byte[] in,
+        int inOff,
+        byte[] out,
+        int outOff) {
+        if (!this.forEncryption) {
+            super.processBlocks2(in, inOff, out, outOff);
+            return;
+        }
+
+        // same as encryptBlock(), just with two independent states
+        int[][] KW = this.workingKey;
+        int r, r0, r1, r2, r3, q0, q1, q2, q3;
+
+        int c0 = unpack(in, inOff     ) ^ KW[0][0];
+        int c1 = unpack(in, inOff +  4) ^ KW[0][1];
+        int c2 = unpack(in, inOff +  8) ^ KW[0][2];
+        int c3 = unpack(in, inOff + 12) ^ KW[0][3];
+        int d0 = unpack(in, inOff + 16) ^ KW[0][0];
+        int d1 = unpack(in, inOff + 20) ^ KW[0][1];
+        int d2 = unpack(in, inOff + 24) ^ KW[0][2];
+        int d3 = unpack(in, inOff + 28) ^ KW[0][3];
+
+        r = 1;
+        while (r < this.ROUNDS - 1) {
+            r0 = T0[c0&255] ^ T1[(c1>>8)&255] ^ T2[(c2>>16)&255] ^ T3[c3>>>24] ^ KW[r][0];
+            q0 = T0[d0&255] ^ T1[(d1>>8)&255] ^ T2[(d2>>16)&255] ^ T3[d3>>>24] ^ KW[r][0];
+            r1 = T0[c1&255] ^ T1[(c2>>8)&255] ^ T2[(c3>>16)&255] ^ T3[c0>>>24] ^ KW[r][1];
+            q1 = T0[d1&255] ^ T1[(d2>>8)&255] ^ T2[(d3>>16)&255] ^ T3[d0>>>24] ^ KW[r][1];
+            r2 = T0[c2&255] ^ T1[(c3>>8)&255] ^ T2[(c0>>16)&255] ^ T3[c1>>>24] ^ KW[r][2];
+            q2 = T0[d2&255] ^ T1[(d3>>8)&255] ^ T2[(d0>>16)&255] ^ T3[d1>>>24] ^ KW[r][2];
+            r3 = T0[c3&255] ^ T1[(c0>>8)&255] ^ T2[(c1>>16)&255] ^ T3[c2>>>24] ^ KW[r][3];
+            q3 = T0[d3&255] ^ T1[(d0>>8)&255] ^ T2[(d1>>16)&255] ^ T3[d2>>>24] ^ KW[r++][3];
+            c0 = T0[r0&255] ^ T1[(r1>>8)&255] ^ T2[(r2>>16)&255] ^ T3[r3>>>24] ^ KW[r][0];
+            d0 = T0[q0&255] ^ T1[(q1>>8)&255] ^ T2[(q2>>16)&255] ^ T3[q3>>>24] ^ KW[r][0];
+            c1 = T0[r1&255] ^ T1[(r2>>8)&255] ^ T2[(r3>>16)&255] ^ T3[r0>>>24] ^ KW[r][1];
+            d1 = T0[q1&255] ^ T1[(q2>>8)&255] ^ T2[(q3>>16)&255] ^ T3[q0>>>24] ^ KW[r][1];
+            c2 = T0[r2&255] ^ T1[(r3>>8)&255] ^ T2[(r0>>16)&255] ^ T3[r1>>>24] ^ KW[r][2];
+            d2 = T0[q2&255] ^ T1[(q3>>8)&255] ^ T2[(q0>>16)&255] ^ T3[q1>>>24] ^ KW[r][2];
+            c3 = T0[r3&255] ^ T1[(r0>>8)&255] ^ T2[(r1>>16)&255] ^ T3[r2>>>24] ^ KW[r][3];
+            d3 = T0[q3&255] ^ T1[(q0>>8)&255] ^ T2[(q1>>16)&255] ^ T3[q2>>>24] ^ KW[r++][3];
+        }
+
+        r0 = T0[c0&255] ^ T1[(c1>>8)&255] ^ T2[(c2>>16)&255] ^ T3[c3>>>24] ^ KW[r][0];
+        q0 = T0[d0&255] ^ T1[(d1>>8)&255] ^ T2[(d2>>16)&255] ^ T3[d3>>>24] ^ KW[r][0];
+        r1 = T0[c1&255] ^ T1[(c2>>8)&255] ^ T2[(c3>>16)&255] ^ T3[c0>>>24] ^ KW[r][1];
+        q1 = T0[d1&255] ^ T1[(d2>>8)&255] ^ T2[(d3>>16)&255] ^ T3[d0>>>24] ^ KW[r][1];
+        r2 = T0[c2&255] ^ T1[(c3>>8)&255] ^ T2[(c0>>16)&255] ^ T3[c1>>>24] ^ KW[r][2];
+        q2 = T0[d2&255] ^ T1[(d3>>8)&255] ^ T2[(d0>>16)&255] ^ T3[d1>>>24] ^ KW[r][2];
+        r3 = T0[c3&255] ^ T1[(c0>>8)&255] ^ T2[(c1>>16)&255] ^ T3[c2>>>24] ^ KW[r][3];
+        q3 = T0[d3&255] ^ T1[(d0>>8)&255] ^ T2[(d1>>16)&255] ^ T3[d2>>>24] ^ KW[r++][3];
+
+        pack((S[r0&255]&255) ^ ((S[(r1>>8)&255]&255)<<8) ^ ((S[(r2>>16)&255]&255)<<16) ^ (S[r3>>>24]<<24) ^ KW[r][0], out, outOff     );
+        pack((S[r1&255]&255) ^ ((S[(r2>>8)&255]&255)<<8) ^ ((S[(r3>>16)&255]&255)<<16) ^ (S[r0>>>24]<<24) ^ KW[r][1], out, outOff +  4);
+        pack((S[r2&255]&255) ^ ((S[(r3>>8)&255]&255)<<8) ^ ((S[(r0>>16)&255]&255)<<16) ^ (S[r1>>>24]<<24) ^ KW[r][2], out, outOff +  8);
+        pack((S[r3&255]&255) ^ ((S[(r0>>8)&255]&255)<<8) ^ ((S[(r1>>16)&255]&255)<<16) ^ (S[r2>>>24]<<24) ^ KW[r][3], out, outOff + 12);
+        pack((S[q0&255]&255) ^ ((S[(q1>>8)&255]&255)<<8) ^ ((S[(q2>>16)&255]&255)<<16) ^ (S[q3>>>24]<<24) ^ KW[r][0], out, outOff + 16);
+        pack((S[q1&255]&255) ^ ((S[(q2>>8)&255]&255)<<8) ^ ((S[(q3>>16)&255]&255)<<16) ^ (S[q0>>>24]<<24) ^ KW[r][1], out, outOff + 20);
+        pack((S[q2&255]&255) ^ ((S[(q3>>8)&255]&255)<<8) ^ ((S[(q0>>16)&255]&255)<<16) ^ (S[q1>>>24]<<24) ^ KW[r][2], out, outOff + 24);
+        pack((S[q3&255]&255) ^ ((S[(q0>>8)&255]&255)<<8) ^ ((S[(q1>>16)&255]&255)<<16) ^ (S[q2>>>24]<<24) ^ KW[r][3], out, outOff + 28);
+    }
+
     protected void decryptBlock(int[][] KW) {
         int r0, r1, r2, r3;
 
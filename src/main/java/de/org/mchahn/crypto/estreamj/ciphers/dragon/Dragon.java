@@ -1,7 +1,10 @@
 package de.org.mchahn.crypto.estreamj.ciphers.dragon;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
@@ -73,7 +76,9 @@ public class Dragon implements ICipher {
         int[] nlfsr_word = this.nlfsr_word;
         long sc = this.state_counter;
 
-        loc = 0;
+        // (the NLFSR offset must survive calls, otherwise chunked processing
+        // would not match a single call on the whole data)
+        loc = this.nlfsr_offset;
 
         if (1 > len) return;
         for (;;) {
@@ -143,13 +148,142 @@ public class Dragon implements ICipher {
                 break;
             }
 
-            // prepare the next round
+            // prepare the next round (if there is any data left, otherwise
+            // we would waste keystream)
             inOfs += 8;
             outOfs += 8;
             len -= 8;
+            if (1 > len) {
+                break;
+            }
+        }
+
+        this.state_counter = sc;
+        this.nlfsr_offset = loc & 31;
+    }
+
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        int a, b, c, d, e, f, i;
+        int loc;
+        int k_lo, k_hi;
+
+        int[] nlfsr_word = this.nlfsr_word;
+        long sc = this.state_counter;
+
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        loc = this.nlfsr_offset;
+
+        while (0 < len) {
+            a = nlfsr_word[ loc       & 31];
+            b = nlfsr_word[(loc +  9) & 31] ^ a;
+            c = nlfsr_word[(loc + 16) & 31];
+            d = nlfsr_word[(loc + 19) & 31] ^ c;
+            e = nlfsr_word[(loc + 30) & 31] ^ (int)(sc >>> 32);
+            f = nlfsr_word[(loc + 31) & 31] ^ (int)(sc++) ^ e;
+            c += b;
+            e += d;
+            a += f;
+            d ^= G1(a);
+            f ^= G2(c);
+            b ^= G3(e);
+            a ^= H1(b);
+            c ^= H2(d);
+            e ^= H3(f);
+
+            loc -= 2;
+
+            nlfsr_word[ loc      & 31] = b + e;
+            nlfsr_word[(loc + 1) & 31] = c ^ (b + e);
+
+            k_lo = a ^ (f + c);
+            k_hi = e ^ (d + a);
+
+            if (8 <= len) {
+                Utils.xorInt32LE(in, inPos    , k_lo, out, outPos    );
+                Utils.xorInt32LE(in, inPos + 4, k_hi, out, outPos + 4);
+                inPos += 8;
+                outPos += 8;
+                len -= 8;
+                continue;
+            }
+            for (i = 0; i < 8 && 0 < len; i++, len--) {
+                out.put(outPos++, (byte)(in.get(inPos++) ^ k_lo));
+                k_lo >>= 8;
+                if (3 == i) {
+                    k_lo = k_hi;
+                }
+            }
+        }
+
+        this.state_counter = sc;
+        this.nlfsr_offset = loc & 31;
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int a, b, c, d, e, f, i;
+        int loc;
+        int k_lo, k_hi;
+
+        int[] nlfsr_word = this.nlfsr_word;
+        long sc = this.state_counter;
+
+        loc = this.nlfsr_offset;
+
+        while (0 < len) {
+            a = nlfsr_word[ loc       & 31];
+            b = nlfsr_word[(loc +  9) & 31] ^ a;
+            c = nlfsr_word[(loc + 16) & 31];
+            d = nlfsr_word[(loc + 19) & 31] ^ c;
+            e = nlfsr_word[(loc + 30) & 31] ^ (int)(sc >>> 32);
+            f = nlfsr_word[(loc + 31) & 31] ^ (int)(sc++) ^ e;
+            c += b;
+            e += d;
+            a += f;
+            d ^= G1(a);
+            f ^= G2(c);
+            b ^= G3(e);
+            a ^= H1(b);
+            c ^= H2(d);
+            e ^= H3(f);
+
+            loc -= 2;
+
+            nlfsr_word[ loc      & 31] = b + e;
+            nlfsr_word[(loc + 1) & 31] = c ^ (b + e);
+
+            k_lo = a ^ (f + c);
+            k_hi = e ^ (d + a);
+
+            if (8 <= len) {
+                Utils.writeInt32LE(k_lo, out, ofs);
+                Utils.writeInt32LE(k_hi, out, ofs + 4);
+                ofs += 8;
+                len -= 8;
+                continue;
+            }
+            for (i = 0; i < 8 && 0 < len; i++, len--) {
+                out[ofs++] = (byte)k_lo;
+                k_lo >>= 8;
+                if (3 == i) {
+                    k_lo = k_hi;
+                }
+            }
         }
 
         this.state_counter = sc;
+        this.nlfsr_offset = loc & 31;
     }
 
     public void reset() throws ESJException {
@@ -159,6 +293,7 @@ public class Dragon implements ICipher {
                 this.nlfsr_word,
                 0,
                 this.nlfsr_word.length);
+        this.nlfsr_offset = 0;
     }
 
     public void setupKey(
@@ -218,8 +353,16 @@ public class Dragon implements ICipher {
         int iv_word;
         int idx;
         int[] nlfsr_word = this.nlfsr_word;
-        int nofs = this.nlfsr_offset;
+        int nofs = 0;
 
+        // always start from the keyed state, so a new nonce can be set up
+        // without resetting the instance first
+        System.arraycopy(
+                this.init_state,
+                0,
+                nlfsr_word,
+                0,
+                DRAGON_NLFSR_SIZE);
 
         if (16 == this.key_size) {
             for (idx = 0; idx < 4; idx++) {
@@ -289,6 +432,7 @@ public class Dragon implements ICipher {
         }
 
         this.state_counter = ((long)e << 32) | (f & 0x0ffffffffL);
+        this.nlfsr_offset = nofs & 31;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -477,9 +621,52 @@ public class Dragon implements ICipher {
     };
 
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Dragon other = (Dragon)src;
+        if (other.key_size != this.key_size) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        System.arraycopy(
+                other.nlfsr_word, 0, this.nlfsr_word, 0, DRAGON_NLFSR_SIZE);
+        System.arraycopy(
+                other.init_state, 0, this.init_state, 0, DRAGON_NLFSR_SIZE);
+        this.state_counter = other.state_counter;
+        this.nlfsr_offset = other.nlfsr_offset;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(this.key_size);
+        st.putInts(this.nlfsr_word);
+        st.putInts(this.init_state);
+        st.putLong(this.state_counter);
+        st.putInt(this.nlfsr_offset);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.checkInt(this.key_size);
+        st.getInts(this.nlfsr_word);
+        st.getInts(this.init_state);
+        this.state_counter = st.getLong();
+        this.nlfsr_offset = st.getInt(0, DRAGON_NLFSR_SIZE - 1);
+    }
+
+    public ICipher fork() throws ESJException {
+        Dragon result = new Dragon(32 == this.key_size);
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO_256 = new CipherInfo(
+                32, 32, 8, 0, false, false, 285, 1024);
+        static final CipherInfo INFO_128 = new CipherInfo(
+                16, 16, 8, 0, false, false, 285, 1024);
+
         boolean use256bit;
 
         public Maker(boolean use256bit) {
@@ -493,6 +680,10 @@ public class Dragon implements ICipher {
         public String getName() {
             return this.use256bit ? "Dragon-256" : "Dragon-128";
         }
+
+        public CipherInfo getInfo() {
+            return this.use256bit ? INFO_256 : INFO_128;
+        }
     }
 
     public static void register() {
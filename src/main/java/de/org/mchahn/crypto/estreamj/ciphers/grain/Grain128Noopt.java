@@ -1,5 +1,6 @@
 package de.org.mchahn.crypto.estreamj.ciphers.grain;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
@@ -38,9 +39,18 @@ public class Grain128Noopt extends GrainRefNoopt {
         return result;
     }
 
+    public ICipher fork() throws ESJException {
+        Grain128Noopt result = new Grain128Noopt();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                16, 12, 1, 0, false, true, 1057, 256);
+
         public ICipher create() throws ESJException {
             return new Grain128Noopt();
         }
@@ -48,6 +58,10 @@ public class Grain128Noopt extends GrainRefNoopt {
         public String getName() {
             return "Grain-128-noopt";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
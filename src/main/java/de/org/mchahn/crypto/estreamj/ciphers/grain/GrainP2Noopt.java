@@ -1,5 +1,6 @@
 package de.org.mchahn.crypto.estreamj.ciphers.grain;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
@@ -79,9 +80,18 @@ public class GrainP2Noopt extends GrainRefNoopt {
         0,0,1,1,0,0,1,0,0,1,1,0,1,1,0,1,1,1,0,0,1,0,1,1,0,1,1,0,0,1,0,0
     };
 
+    public ICipher fork() throws ESJException {
+        GrainP2Noopt result = new GrainP2Noopt();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                10, 8, 1, 0, false, true, 667, 256);
+
         public ICipher create() throws ESJException {
             return new GrainP2Noopt();
         }
@@ -89,6 +99,10 @@ public class GrainP2Noopt extends GrainRefNoopt {
         public String getName() {
             return "Grain-noopt";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
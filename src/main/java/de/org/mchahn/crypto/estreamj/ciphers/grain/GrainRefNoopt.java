@@ -1,9 +1,12 @@
 package de.org.mchahn.crypto.estreamj.ciphers.grain;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 public abstract class GrainRefNoopt implements ICipher {
     int[] LFSR;
@@ -21,6 +24,7 @@ public abstract class GrainRefNoopt implements ICipher {
     protected GrainRefNoopt() {
         this.NFSR = new int[getKeySize() << 3];
         this.LFSR = new int[getKeySize() << 3];
+        this.key = new byte[getKeySize()];
     }
 
     public int getWordSize() {
@@ -50,11 +54,54 @@ public abstract class GrainRefNoopt implements ICipher {
         }
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int end = inPos + len;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        while (inPos < end) {
+            int outbyte = 0;
+            for (int j = 0; j < 8; j++) {
+                outbyte |= keyStream() << j;
+            }
+            out.put(outPos++, (byte)(outbyte ^ in.get(inPos++)));
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int end = ofs + len;
+        while (ofs < end) {
+            int outbyte = 0;
+            for (int j = 0; j < 8; j++) {
+                outbyte |= keyStream() << j;
+            }
+            out[ofs++] = (byte)outbyte;
+        }
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        for (; 0 < n; n--) {
+            for (int j = 0; j < 8; j++) {
+                keyStream();
+            }
+        }
+    }
+
     public void setupKey(
             int mode,
             byte[] key,
             int ofs) throws ESJException {
-        this.key = new byte[getKeySize()];
         System.arraycopy(key, ofs, this.key, 0, this.key.length);
     }
 
@@ -93,5 +140,27 @@ public abstract class GrainRefNoopt implements ICipher {
         }
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        GrainRefNoopt other = (GrainRefNoopt)src;
+        System.arraycopy(other.LFSR, 0, this.LFSR, 0, this.LFSR.length);
+        System.arraycopy(other.NFSR, 0, this.NFSR, 0, this.NFSR.length);
+        System.arraycopy(other.key, 0, this.key, 0, this.key.length);
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInts(this.LFSR);
+        st.putInts(this.NFSR);
+        st.putBytes(this.key);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.getInts(this.LFSR);
+        st.getInts(this.NFSR);
+        st.getBytes(this.key);
+    }
+
     protected abstract int keyStream();
 }
@@ -1,10 +1,15 @@
 package de.org.mchahn.crypto.estreamj.ciphers.hc256;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 public class HC256 implements ICipher {
     int[] P = new int[1024];
@@ -26,8 +31,10 @@ public class HC256 implements ICipher {
         Arrays.fill(this.Q, 0);
         Arrays.fill(this.key, 0);
         Arrays.fill(this.iv, 0);
-        Arrays.fill(this.P_bak, 0);
-        Arrays.fill(this.Q_bak, 0);
+        if (null != this.P_bak) {
+            Arrays.fill(this.P_bak, 0);
+            Arrays.fill(this.Q_bak, 0);
+        }
         Arrays.fill(this.cached_setupNonce_W, 0);
     }
 
@@ -55,27 +62,79 @@ public class HC256 implements ICipher {
             byte[] outBuf,
             int outOfs,
             int len) throws ESJException {
-        int i, j, msglen32, keystreamword;
+        int i, msglen32, keystreamword;
 
         msglen32 = len >> 2;
 
         for (i = 0; i < msglen32; i++) {
-              keystreamword = generate();
+            Utils.xorInt32LE(inBuf, inOfs, generate(), outBuf, outOfs);
+            outOfs += 4;
+            inOfs += 4;
+        }
+
+        // (only consume another keystream word if there's a rest to process)
+        if (0 != (len & 3)) {
+            keystreamword = generate();
+            for (i = 0; i < (len & 3); i++) {
+                outBuf[outOfs] = (byte)(inBuf[inOfs] ^ keystreamword);
+                outOfs++;
+                inOfs++;
+                keystreamword >>= 8;
+            }
+        }
+    }
 
-              for (j = 0; j < 4; j++) {
-                  outBuf[outOfs] = (byte)(inBuf[inOfs] ^ keystreamword);
-                  outOfs++;
-                  inOfs++;
-                  keystreamword >>= 8;
-              }
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
         }
 
-        keystreamword = generate();
-        for (i = 0; i < (len & 3); i++) {
-              outBuf[outOfs] = (byte)(inBuf[inOfs] ^ keystreamword);
-              outOfs++;
-              inOfs++;
-              keystreamword >>= 8;
+        int i, keystreamword;
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int end = inPos + (len & ~3);
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        for (; inPos < end; inPos += 4, outPos += 4) {
+            Utils.xorInt32LE(in, inPos, generate(), out, outPos);
+        }
+
+        if (0 != (len & 3)) {
+            keystreamword = generate();
+            for (i = 0; i < (len & 3); i++) {
+                out.put(outPos++, (byte)(in.get(inPos++) ^ keystreamword));
+                keystreamword >>= 8;
+            }
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int i, keystreamword;
+        int end = ofs + (len & ~3);
+
+        for (; ofs < end; ofs += 4) {
+            Utils.writeInt32LE(generate(), out, ofs);
+        }
+
+        if (0 != (len & 3)) {
+            keystreamword = generate();
+            for (i = 0; i < (len & 3); i++) {
+                out[ofs++] = (byte)keystreamword;
+                keystreamword >>= 8;
+            }
+        }
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        // (a partial word at the end consumes a whole one, as in process())
+        for (long words = (n + 3) >>> 2; 0 < words; words--) {
+            step();
         }
     }
 
@@ -137,11 +196,41 @@ public class HC256 implements ICipher {
             generate();
         }
 
-        this.P_bak = this.P.clone();
-        this.Q_bak = this.Q.clone();
+        // (allocated once, re-used for every nonce afterwards)
+        if (null == this.P_bak) {
+            this.P_bak = new int[this.P.length];
+            this.Q_bak = new int[this.Q.length];
+        }
+        System.arraycopy(this.P, 0, this.P_bak, 0, this.P.length);
+        System.arraycopy(this.Q, 0, this.Q_bak, 0, this.Q.length);
         this.counter2048_bak = this.counter2048;
     }
 
+    /**
+     * Updates the tables just like generate() does, but skips computing the
+     * output word.
+     */
+    private void step() {
+        int i, x, y;
+        int[] A, B;
+
+        if (this.counter2048 < 1024) {
+            A = this.P;
+            B = this.Q;
+        }
+        else {
+            A = this.Q;
+            B = this.P;
+        }
+
+        i = this.counter2048 & 0x3ff;
+        x = A[(i - 3) & 0x3ff];
+        y = A[(i - 1023) & 0x3ff];
+        A[i] += A[(i - 10) & 0x3ff] + B[(x ^ y) & 0x3ff] +
+                (((x >>> 10) | (x << 22)) ^ ((y >>> 23) | (y << 9)));
+        this.counter2048 = (this.counter2048 + 1) & 0x7ff;
+    }
+
     private int generate() {
         int i, i3, i10, i12, i1023;
         int tmp, x, y;
@@ -186,9 +275,77 @@ public class HC256 implements ICipher {
         return (output);
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        HC256 other = (HC256)src;
+        System.arraycopy(other.P, 0, this.P, 0, this.P.length);
+        System.arraycopy(other.Q, 0, this.Q, 0, this.Q.length);
+        System.arraycopy(other.key, 0, this.key, 0, this.key.length);
+        System.arraycopy(other.iv, 0, this.iv, 0, this.iv.length);
+        this.counter2048 = other.counter2048;
+        this.keysize = other.keysize;
+        this.ivsize = other.ivsize;
+        if (null == other.P_bak) {
+            this.P_bak = this.Q_bak = null;
+        }
+        else {
+            if (null == this.P_bak) {
+                this.P_bak = new int[this.P.length];
+                this.Q_bak = new int[this.Q.length];
+            }
+            System.arraycopy(other.P_bak, 0, this.P_bak, 0, this.P_bak.length);
+            System.arraycopy(other.Q_bak, 0, this.Q_bak, 0, this.Q_bak.length);
+        }
+        this.counter2048_bak = other.counter2048_bak;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInts(this.P);
+        st.putInts(this.Q);
+        st.putInts(this.key);
+        st.putInts(this.iv);
+        st.putInt(this.counter2048);
+        st.putInt(this.keysize);
+        st.putInt(this.ivsize);
+        st.putInts(this.P_bak);
+        st.putInts(this.Q_bak);
+        st.putInt(this.counter2048_bak);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.getInts(this.P);
+        st.getInts(this.Q);
+        st.getInts(this.key);
+        st.getInts(this.iv);
+        this.counter2048 = st.getInt(-1, 0x7ff);
+        this.keysize = st.getInt();
+        this.ivsize = st.getInt();
+        int[] P_bak = st.getIntsOrNull(this.P_bak);
+        int[] Q_bak = st.getIntsOrNull(this.Q_bak);
+        if (null == P_bak ? null != Q_bak :
+            null == Q_bak || this.P.length != P_bak.length ||
+                             this.Q.length != Q_bak.length) {
+            throw new ESJException("invalid HC-256 state");
+        }
+        this.P_bak = P_bak;
+        this.Q_bak = Q_bak;
+        this.counter2048_bak = st.getInt();
+    }
+
+    public ICipher fork() throws ESJException {
+        HC256 result = new HC256();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                32, 32, 4, 0, false, false, 16493, 1024);
+
         public ICipher create() throws ESJException {
             return new HC256();
         }
@@ -196,6 +353,10 @@ public class HC256 implements ICipher {
         public String getName() {
             return "HC-256";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
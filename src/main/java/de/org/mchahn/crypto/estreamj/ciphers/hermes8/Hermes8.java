@@ -1,11 +1,15 @@
 package de.org.mchahn.crypto.estreamj.ciphers.hermes8;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 /*
  * TODO: I'm not 100% sure, but the current implementation might be restricted
@@ -28,11 +32,13 @@ public class Hermes8 implements ICipher {
     // devices, yet Java will still convert from bytes to integers during the
     // actual processing)
     int[] k = new int[K_LENGTH];
+    int[] k_bak = new int[K_LENGTH];
     int[] state = new int[S_LENGTH];
     int[] parm = new int[P_LENGTH];
 
     public void erase() {
         Arrays.fill(this.k, 0);
+        Arrays.fill(this.k_bak, 0);
         Arrays.fill(this.state, 0);
         Arrays.fill(this.parm, 0);
     }
@@ -194,6 +200,15 @@ public class Hermes8 implements ICipher {
         parm[4] = round;
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+        // (the rounds dominate, XORing the keystream in is good enough)
+        Utils.xorKeystream(this, in, out);
+    }
+
     public void reset() throws ESJException {
         // nothing to do: parm[5], parm[6] and k won't get altered at all
     }
@@ -208,6 +223,7 @@ public class Hermes8 implements ICipher {
         while (ofs < end) {
             k[i++] = key[ofs++] & 0x0ff;
         }
+        System.arraycopy(k, 0, this.k_bak, 0, k.length);
         this.parm[5] = getKeySize();
         this.parm[6] = getNonceSize();
     }
@@ -228,6 +244,8 @@ public class Hermes8 implements ICipher {
         int[] state = this.state;
         int[] k = this.k;
 
+        // the key gets altered while running, so start over from the original
+        System.arraycopy(this.k_bak, 0, k, 0, k.length);
 
         ivb = parm[6];
         for (j = 0; j < ivb; j++ ) {
@@ -278,9 +296,50 @@ public class Hermes8 implements ICipher {
         parm[4] = MY_INIT_ROUNDS;
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Hermes8 other = (Hermes8)src;
+        if (other.keySize != this.keySize) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        System.arraycopy(other.k, 0, this.k, 0, this.k.length);
+        System.arraycopy(other.k_bak, 0, this.k_bak, 0, this.k_bak.length);
+        System.arraycopy(other.state, 0, this.state, 0, this.state.length);
+        System.arraycopy(other.parm, 0, this.parm, 0, this.parm.length);
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(this.keySize);
+        st.putInts(this.k);
+        st.putInts(this.k_bak);
+        st.putInts(this.state);
+        st.putInts(this.parm);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.checkInt(this.keySize);
+        st.getInts(this.k);
+        st.getInts(this.k_bak);
+        st.getInts(this.state);
+        st.getInts(this.parm);
+    }
+
+    public ICipher fork() throws ESJException {
+        Hermes8 result = new Hermes8(16 == this.keySize);
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO_128 = new CipherInfo(
+                16, 37, 16, 0, false, false, 461, 1024);
+        static final CipherInfo INFO_80 = new CipherInfo(
+                10, 23, 8, 0, false, false, 461, 1024);
+
         boolean use128bit;
 
         public Maker(boolean use128bit) {
@@ -294,6 +353,10 @@ public class Hermes8 implements ICipher {
         public String getName() {
             return this.use128bit ? "Hermes8-128" : "Hermes8-80";
         }
+
+        public CipherInfo getInfo() {
+            return this.use128bit ? INFO_128 : INFO_80;
+        }
     }
 
     public static void register() {
@@ -1,7 +1,10 @@
 package de.org.mchahn.crypto.estreamj.ciphers.lex;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
@@ -97,6 +100,76 @@ public class LEX implements ICipher {
         }
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        int reg, i, j, c;
+        int[] blockstate = this.blockstate;
+        int[] subkeys = this.subkeys;
+        int[] ks = this.ks;
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        while (len >= 4 * NUMWORDS) {
+            rijndaelEncryptWithLeaking(blockstate, blockstate, subkeys, ks);
+            for (i = 0; i < NUMWORDS; i++, inPos += 4, outPos += 4) {
+                Utils.xorInt32LE(in, inPos, ks[i], out, outPos);
+            }
+            len -= 4 * NUMWORDS;
+        }
+        if (len > 0) {
+            rijndaelEncryptWithLeaking(blockstate, blockstate, subkeys, ks);
+            i = 0;
+            do {
+                reg = ks[i++];
+                c = len > 4 ? 4 : len;
+                for (j = 0; j < c; j++) {
+                    out.put(outPos++, (byte)(reg ^ in.get(inPos++)));
+                    reg >>= 8;
+                }
+                len -= c;
+            }
+            while (len > 0);
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int reg, i, j, c;
+        int[] blockstate = this.blockstate;
+        int[] subkeys = this.subkeys;
+        int[] ks = this.ks;
+
+        while (len >= 4 * NUMWORDS) {
+            rijndaelEncryptWithLeaking(blockstate, blockstate, subkeys, ks);
+            for (i = 0; i < NUMWORDS; i++, ofs += 4) {
+                Utils.writeInt32LE(ks[i], out, ofs);
+            }
+            len -= 4 * NUMWORDS;
+        }
+        if (len > 0) {
+            rijndaelEncryptWithLeaking(blockstate, blockstate, subkeys, ks);
+            i = 0;
+            do {
+                reg = ks[i++];
+                c = len > 4 ? 4 : len;
+                for (j = 0; j < c; j++) {
+                    out[ofs++] = (byte)reg;
+                    reg >>= 8;
+                }
+                len -= c;
+            }
+            while (len > 0);
+        }
+    }
+
     public void reset() throws ESJException {
         // only ks needs to be restored, since the nonce resets the blockstate
         System.arraycopy(this.ks_bak, 0, this.ks, 0, this.ks.length);
@@ -560,9 +633,45 @@ public class LEX implements ICipher {
         0x1B000000, 0x36000000,
     };
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        LEX other = (LEX)src;
+        System.arraycopy(
+                other.subkeys, 0, this.subkeys, 0, this.subkeys.length);
+        System.arraycopy(other.blockstate, 0, this.blockstate, 0,
+                this.blockstate.length);
+        System.arraycopy(other.ks, 0, this.ks, 0, this.ks.length);
+        System.arraycopy(other.ks_bak, 0, this.ks_bak, 0, this.ks_bak.length);
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInts(this.subkeys);
+        st.putInts(this.blockstate);
+        st.putInts(this.ks);
+        st.putInts(this.ks_bak);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.getInts(this.subkeys);
+        st.getInts(this.blockstate);
+        st.getInts(this.ks);
+        st.getInts(this.ks_bak);
+    }
+
+    public ICipher fork() throws ESJException {
+        LEX result = new LEX();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                16, 16, 40, 0, false, false, 293, 1000);
+
         public ICipher create() throws ESJException {
             return new LEX();
         }
@@ -570,6 +679,10 @@ public class LEX implements ICipher {
         public String getName() {
             return "LEX-128";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
@@ -1,9 +1,11 @@
 package de.org.mchahn.crypto.estreamj.ciphers.mickey;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 public class MICKEY extends MICKEYBase {
     static final int R_Mask0  = 0x1d5363d5;
@@ -111,6 +113,36 @@ public class MICKEY extends MICKEYBase {
         return Keystream_bit;
     }
 
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int[] R = this.cached_setupNonce_R;
+        int[] S = this.cached_setupNonce_S;
+        int control_bit_r;
+        int control_bit_s;
+
+        R[0] = this.R0;
+        R[1] = this.R1;
+        R[2] = this.R2;
+        S[0] = this.S0;
+        S[1] = this.S1;
+        S[2] = this.S2;
+
+        // same clocking as in process(), just without any keystream bits
+        for (long bits = n << 3; 0 < bits; bits--) {
+            control_bit_r = ((S[0] >>> 27) ^ (R[1] >>> 21)) & 1;
+            control_bit_s = ((S[1] >>> 21) ^ (R[0] >>> 26)) & 1;
+            clockR(0, control_bit_r, R, S);
+            clockS(0, control_bit_s, R, S);
+        }
+
+        this.R0 = R[0];
+        this.R1 = R[1];
+        this.R2 = R[2];
+        this.S0 = S[0];
+        this.S1 = S[1];
+        this.S2 = S[2];
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     public int getKeySize() {
@@ -257,9 +289,18 @@ public class MICKEY extends MICKEYBase {
         this.S2 = S[2];
     }
 
+    public ICipher fork() throws ESJException {
+        MICKEY result = new MICKEY();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                10, 10, 1, 0, false, true, 77, 256);
+
         public ICipher create() throws ESJException {
             return new MICKEY();
         }
@@ -267,6 +308,10 @@ public class MICKEY extends MICKEYBase {
         public String getName() {
             return "MICKEY";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
@@ -1,9 +1,12 @@
 package de.org.mchahn.crypto.estreamj.ciphers.mickey;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 public class MICKEY128 extends MICKEYBase {
     static final int R_Mask0  = 0x9c80facf;
@@ -129,6 +132,40 @@ public class MICKEY128 extends MICKEYBase {
         return Keystream_bit;
     }
 
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int[] R = this.cached_setupNonce_R;
+        int[] S = this.cached_setupNonce_S;
+        int control_bit_r;
+        int control_bit_s;
+
+        R[0] = this.R0;
+        R[1] = this.R1;
+        R[2] = this.R2;
+        R[3] = this.R3;
+        S[0] = this.S0;
+        S[1] = this.S1;
+        S[2] = this.S2;
+        S[3] = this.S3;
+
+        // same clocking as in process(), just without any keystream bits
+        for (long bits = n << 3; 0 < bits; bits--) {
+            control_bit_r = ((S[1] >>> 11) ^ (R[2] >>> 21)) & 1;
+            control_bit_s = ((R[1] >>> 10) ^ (S[2] >>> 21)) & 1;
+            clockR(0, control_bit_r, R, S);
+            clockS(0, control_bit_s, R, S);
+        }
+
+        this.R0 = R[0];
+        this.R1 = R[1];
+        this.R2 = R[2];
+        this.R3 = R[3];
+        this.S0 = S[0];
+        this.S1 = S[1];
+        this.S2 = S[2];
+        this.S3 = S[3];
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     @Override
@@ -286,9 +323,36 @@ public class MICKEY128 extends MICKEYBase {
         this.S3 = S[3];
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        super.copyStateFrom(src);
+        this.R3 = ((MICKEY128)src).R3;
+        this.S3 = ((MICKEY128)src).S3;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        super.exportState(st);
+        st.putInt(this.R3);
+        st.putInt(this.S3);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        super.importState(st);
+        this.R3 = st.getInt();
+        this.S3 = st.getInt();
+    }
+
+    public ICipher fork() throws ESJException {
+        MICKEY128 result = new MICKEY128();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                16, 16, 1, 0, false, true, 109, 256);
+
         public ICipher create() throws ESJException {
             return new MICKEY128();
         }
@@ -296,6 +360,10 @@ public class MICKEY128 extends MICKEYBase {
         public String getName() {
             return "MICKEY128";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
@@ -1,9 +1,12 @@
 package de.org.mchahn.crypto.estreamj.ciphers.mickey;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 /**
  * Some general things all MICKEYs do share.
@@ -46,6 +49,52 @@ public abstract class MICKEYBase implements ICipher {
     public void reset() throws ESJException {
     }
 
+    // (bit by bit, so XORing the keystream into the buffers is good enough)
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+        Utils.xorKeystream(this, in, out);
+    }
+
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        MICKEYBase other = (MICKEYBase)src;
+        this.R0 = other.R0;
+        this.R1 = other.R1;
+        this.R2 = other.R2;
+        this.S0 = other.S0;
+        this.S1 = other.S1;
+        this.S2 = other.S2;
+        System.arraycopy(other.key, 0, this.key, 0, this.key.length);
+        this.nsize = other.nsize;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(this.R0);
+        st.putInt(this.R1);
+        st.putInt(this.R2);
+        st.putInt(this.S0);
+        st.putInt(this.S1);
+        st.putInt(this.S2);
+        st.putInts(this.key);
+        st.putInt(this.nsize);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        this.R0 = st.getInt();
+        this.R1 = st.getInt();
+        this.R2 = st.getInt();
+        this.S0 = st.getInt();
+        this.S1 = st.getInt();
+        this.S2 = st.getInt();
+        st.getInts(this.key);
+        this.nsize = st.getInt(0, getNonceSize());
+    }
+
     public void erase() {
         Arrays.fill(this.key, 0);
     }
@@ -1,11 +1,15 @@
 package de.org.mchahn.crypto.estreamj.ciphers.nil;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMAC;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 /**
  * THIS IS NOT A REAL CIPHER!
@@ -71,6 +75,7 @@ public class Nil implements ICipherMAC {
         throws ESJException {
         if (nonce != null && ofs >= 0 && (ofs + NONCE_SIZE) <= nonce.length) {
             this.gotNonce = true;
+            this.finalized = false;
             return;
         }
         throw new ESJException(
@@ -99,6 +104,34 @@ public class Nil implements ICipherMAC {
         System.arraycopy(inBuf, inOfs,  outBuf, outOfs,len);
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        int len = Utils.checkBuffers(in, out);
+        if (this.finalized) {
+            throw new ESJException(
+                "Nil.process() - called beyond explicit finalization");
+        }
+        if (0 != len % getWordSize()) {
+            this.finalized = true;
+        }
+
+        int inPos = in.position();
+        int outPos = out.position();
+        out.put(outPos, in, inPos, len);
+        in.position(inPos + len);
+        out.position(outPos + len);
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        if (this.finalized) {
+            throw new ESJException(
+                "Nil.skip() - called beyond explicit finalization");
+        }
+        if (0 != n % getWordSize()) {
+            this.finalized = true;
+        }
+    }
+
     public void processAAD(byte[] buf, int ofs, int len) throws ESJException {
         if (null == buf || 0 > ofs || (ofs + len) > buf.length) {
             throw new ESJException(
@@ -126,11 +159,43 @@ public class Nil implements ICipherMAC {
     }
 
     public void erase() {
+        reset();
+    }
+
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Nil other = (Nil)src;
+        this.gotKey = other.gotKey;
+        this.gotNonce = other.gotNonce;
+        this.finalized = other.finalized;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putBoolean(this.gotKey);
+        st.putBoolean(this.gotNonce);
+        st.putBoolean(this.finalized);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        this.gotKey = st.getBoolean();
+        this.gotNonce = st.getBoolean();
+        this.finalized = st.getBoolean();
+    }
+
+    public ICipher fork() throws ESJException {
+        Nil result = new Nil();
+        result.copyStateFrom(this);
+        return result;
     }
 
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                32, 17, 4, 64, false, false, 8, 4096);
+
         public ICipher create() throws ESJException {
             return new Nil();
         }
@@ -138,6 +203,10 @@ public class Nil implements ICipherMAC {
         public String getName() {
             return "Nil";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
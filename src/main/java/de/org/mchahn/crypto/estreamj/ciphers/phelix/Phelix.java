@@ -1,16 +1,21 @@
 package de.org.mchahn.crypto.estreamj.ciphers.phelix;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ICipherMAC;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 /**
  * The Phelix implementation, based on the original PhelixJ package.
  **/
-public class Phelix implements ICipher {
+public class Phelix implements ICipherMAC {
     public static final int PHELIX_MAC_SIZE = 128;
     public static final int PHELIX_MAC_SIZE_96 = 96;
 
@@ -378,6 +383,110 @@ public class Phelix implements ICipher {
         this.cs_i = i;
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipherMAC.super.process(in, out);
+            return;
+        }
+
+        int i, j, tmp, bidx;
+        int[] buckets = this.cache_processbytes_buckets;
+        int[] X_0, X_1, oldZ, Z;
+        int Z_0, Z_1, Z_2, Z_3, Z_4;
+        int len = Utils.checkBuffers(in, out);
+        int words = len & ~3;
+        int inPos = in.position();
+        int outPos = out.position();
+        int end = inPos + words;
+
+        if (0 == words) {
+            ICipherMAC.super.process(in, out);
+            return;
+        }
+        if (0 != (3 & this.cs_msgLen)) {
+            throw new ESJException("data misalignment, only the last data" +
+                    " junk can be off a " + PHELIX_DATA_ALIGN +
+                    "{0}-byte border");
+        }
+
+        bidx = this.bucketIdx;
+        X_0 = this.ks_X_0;
+        X_1 = this.ks_X_1;
+        Z = this.cs_Z;
+        oldZ = this.cs_oldZ;
+
+        this.cs_msgLen += words & 0x0ffffffffL;
+        i = this.cs_i;
+        this.cs_Z[1] ^= this.cs_aadXor;
+        this.cs_aadXor = 0;
+
+        Z_0 = Z[0];
+        Z_1 = Z[1];
+        Z_2 = Z[2];
+        Z_3 = Z[3];
+        Z_4 = Z[4];
+
+        in.position(inPos + words);
+        out.position(outPos + words);
+
+        for (; inPos < end; i++, inPos += 4, outPos += 4) {
+            j = i & 7;
+
+            Z_0 += Z_3; Z_3 = (Z_3 << ROT_3b) | (Z_3 >>> (32 - ROT_3b));
+            Z_1 += Z_4; Z_4 = (Z_4 << ROT_4b) | (Z_4 >>> (32 - ROT_4b));
+            Z_2 ^= Z_0; Z_0 = (Z_0 << ROT_0a) | (Z_0 >>> (32 - ROT_0a));
+            Z_3 ^= Z_1; Z_1 = (Z_1 << ROT_1a) | (Z_1 >>> (32 - ROT_1a));
+            Z_4 += Z_2; Z_2 = (Z_2 << ROT_2a) | (Z_2 >>> (32 - ROT_2a));
+
+            Z_0 ^= Z_3 + X_0[j]; Z_3 = (Z_3 << ROT_3a) | (Z_3 >>> (32 - ROT_3a));
+            Z_1 ^= Z_4;          Z_4 = (Z_4 << ROT_4a) | (Z_4 >>> (32 - ROT_4a));
+            Z_2 += Z_0;          Z_0 = (Z_0 << ROT_0b) | (Z_0 >>> (32 - ROT_0b));
+            Z_3 += Z_1;          Z_1 = (Z_1 << ROT_1b) | (Z_1 >>> (32 - ROT_1b));
+            Z_4 ^= Z_2;          Z_2 = (Z_2 << ROT_2b) | (Z_2 >>> (32 - ROT_2b));
+
+            buckets[0] = tmp = Utils.readInt32LE(in, inPos);
+
+            tmp ^= Z_4 + oldZ[i & 3];
+
+            Utils.writeInt32LE(tmp, out, outPos);
+
+            buckets[1] = tmp;
+
+            Z_0 += Z_3 ^ buckets[bidx]; Z_3 = (Z_3 << ROT_3b) | (Z_3 >>> (32 - ROT_3b));
+            Z_1 += Z_4;                 Z_4 = (Z_4 << ROT_4b) | (Z_4 >>> (32 - ROT_4b));
+            Z_2 ^= Z_0;                 Z_0 = (Z_0 << ROT_0a) | (Z_0 >>> (32 - ROT_0a));
+            Z_3 ^= Z_1;                 Z_1 = (Z_1 << ROT_1a) | (Z_1 >>> (32 - ROT_1a));
+            Z_4 += Z_2;                 Z_2 = (Z_2 << ROT_2a) | (Z_2 >>> (32 - ROT_2a));
+
+            Z_0 ^= Z_3 + X_1[j] + i; Z_3 = (Z_3 << ROT_3a) | (Z_3 >>> (32 - ROT_3a));
+            Z_1 ^= Z_4;              Z_4 = (Z_4 << ROT_4a) | (Z_4 >>> (32 - ROT_4a));
+            Z_2 += Z_0;              Z_0 = (Z_0 << ROT_0b) | (Z_0 >>> (32 - ROT_0b));
+            Z_3 += Z_1;              Z_1 = (Z_1 << ROT_1b) | (Z_1 >>> (32 - ROT_1b));
+            Z_4 ^= Z_2;              Z_2 = (Z_2 << ROT_2b) | (Z_2 >>> (32 - ROT_2b));
+
+            oldZ[i & 3] = Z_4; //Z[OLD_Z_REG];
+        }
+
+        Z[0] = Z_0;
+        Z[1] = Z_1;
+        Z[2] = Z_2;
+        Z[3] = Z_3;
+        Z[4] = Z_4;
+
+        this.cs_i = i;
+
+        // (the few trailing bytes, if any, go the common way)
+        if (words < len) {
+            ICipherMAC.super.process(in, out);
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        // the plaintext gets fed back into the state
+        throw new ESJException("Phelix keystream depends on the data");
+    }
+
     public void processAAD(
         byte[] aad,
         int aadOfs,
@@ -559,9 +668,77 @@ public class Phelix implements ICipher {
         return false;
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Phelix other = (Phelix)src;
+        if (other.ks_macSize != this.ks_macSize) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        this.ks_keySize = other.ks_keySize;
+        this.ks_X_1_bump = other.ks_X_1_bump;
+        System.arraycopy(other.ks_X_0, 0, this.ks_X_0, 0, this.ks_X_0.length);
+        System.arraycopy(other.ks_X_1, 0, this.ks_X_1, 0, this.ks_X_1.length);
+        System.arraycopy(
+                other.cs_oldZ, 0, this.cs_oldZ, 0, this.cs_oldZ.length);
+        System.arraycopy(other.cs_Z, 0, this.cs_Z, 0, this.cs_Z.length);
+        this.cs_i = other.cs_i;
+        this.cs_aadLen = other.cs_aadLen;
+        this.cs_msgLen = other.cs_msgLen;
+        this.cs_aadXor = other.cs_aadXor;
+        System.arraycopy(other.cache_processbytes_buckets, 0,
+                this.cache_processbytes_buckets, 0,
+                this.cache_processbytes_buckets.length);
+        this.bucketIdx = other.bucketIdx;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(this.ks_macSize);
+        st.putInt(this.ks_keySize);
+        st.putInt(this.ks_X_1_bump);
+        st.putInts(this.ks_X_0);
+        st.putInts(this.ks_X_1);
+        st.putInts(this.cs_oldZ);
+        st.putInts(this.cs_Z);
+        st.putInt(this.cs_i);
+        st.putLong(this.cs_aadLen);
+        st.putLong(this.cs_msgLen);
+        st.putInt(this.cs_aadXor);
+        st.putInts(this.cache_processbytes_buckets);
+        st.putInt(this.bucketIdx);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.checkInt(this.ks_macSize);
+        this.ks_keySize = st.getInt();
+        this.ks_X_1_bump = st.getInt();
+        st.getInts(this.ks_X_0);
+        st.getInts(this.ks_X_1);
+        st.getInts(this.cs_oldZ);
+        st.getInts(this.cs_Z);
+        this.cs_i = st.getInt();
+        this.cs_aadLen = st.getLong();
+        this.cs_msgLen = st.getLong();
+        this.cs_aadXor = st.getInt();
+        st.getInts(this.cache_processbytes_buckets);
+        this.bucketIdx = st.getInt(0, 1);
+    }
+
+    public ICipher fork() throws ESJException {
+        Phelix result = new Phelix(this.ks_macSize);
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO_96 = new CipherInfo(
+                32, 16, 4, 12, false, false, 173, 1024);
+        static final CipherInfo INFO = new CipherInfo(
+                32, 16, 4, 16, false, false, 173, 1024);
+
         int macSize;
 
         public Maker(int macSize) {
@@ -575,6 +752,10 @@ public class Phelix implements ICipher {
         public String getName() {
             return PHELIX_MAC_SIZE_96 == this.macSize ? "Phelix96" :  "Phelix";
         }
+
+        public CipherInfo getInfo() {
+            return PHELIX_MAC_SIZE_96 == this.macSize ? INFO_96 : INFO;
+        }
     }
 
     public static void register() {
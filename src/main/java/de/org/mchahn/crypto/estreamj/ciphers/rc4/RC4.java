@@ -1,11 +1,15 @@
 package de.org.mchahn.crypto.estreamj.ciphers.rc4;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 /**
  * RC4 implementation, 128bit keys and 128 bit nonce size. Key and nonce are
@@ -88,6 +92,79 @@ public class RC4 implements ICipher {
         this.y = y;
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int x = this.x;
+        int y = this.y;
+        int[] state = this.state;
+        int sx, sy;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        for (int end = inPos + len; inPos < end; inPos++, outPos++) {
+            x = (x + 1) & 0xff;
+            sx = state[x];
+            y = (y + sx) & 0xff;
+            sy = state[y];
+            state[y] = sx;
+            state[x] = sy;
+
+            out.put(outPos, (byte)(in.get(inPos) ^ state[(sx + sy) & 0xff]));
+        }
+
+        this.x = x;
+        this.y = y;
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int x = this.x;
+        int y = this.y;
+        int[] state = this.state;
+        int sx, sy;
+
+        for (int end = ofs + len; ofs < end; ofs++) {
+            x = (x + 1) & 0xff;
+            sx = state[x];
+            y = (y + sx) & 0xff;
+            sy = state[y];
+            state[y] = sx;
+            state[x] = sy;
+
+            out[ofs] = (byte)state[(sx + sy) & 0xff];
+        }
+
+        this.x = x;
+        this.y = y;
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int x = this.x;
+        int y = this.y;
+        int[] state = this.state;
+        int sx;
+
+        for (; 0 < n; n--) {
+            x = (x + 1) & 0xff;
+            sx = state[x];
+            y = (y + sx) & 0xff;
+            state[x] = state[y];
+            state[y] = sx;
+        }
+
+        this.x = x;
+        this.y = y;
+    }
+
     public void reset() throws ESJException {
         // nothing to do, key stays preserved
     }
@@ -137,9 +214,48 @@ public class RC4 implements ICipher {
         this.y = y;
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        RC4 other = (RC4)src;
+        if (other.initialDiscardSize != this.initialDiscardSize) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        System.arraycopy(other.state, 0, this.state, 0, this.state.length);
+        System.arraycopy(other.rkey, 0, this.rkey, 0, this.rkey.length);
+        this.x = other.x;
+        this.y = other.y;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(this.initialDiscardSize);
+        st.putInts(this.state);
+        st.putBytes(this.rkey);
+        st.putInt(this.x);
+        st.putInt(this.y);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.checkInt(this.initialDiscardSize);
+        st.getInts(this.state);
+        st.getBytes(this.rkey);
+        this.x = st.getInt(0, 255);
+        this.y = st.getInt(0, 255);
+    }
+
+    public ICipher fork() throws ESJException {
+        RC4 result = new RC4(this.initialDiscardSize);
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                16, 16, 1, 0, false, true, 1081, 1024);
+
         public ICipher create() throws ESJException {
             return new RC4(-1);
         }
@@ -147,6 +263,10 @@ public class RC4 implements ICipher {
         public String getName() {
             return "RC4";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
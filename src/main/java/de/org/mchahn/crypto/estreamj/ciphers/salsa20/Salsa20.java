@@ -1,28 +1,41 @@
 package de.org.mchahn.crypto.estreamj.ciphers.salsa20;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.ISeekableCipher;
 import de.org.mchahn.crypto.estreamj.framework.Utils;
 
-public class Salsa20 implements ICipher {
+public class Salsa20 implements ISeekableCipher {
     int[] input = new int[16];
     int[] input_bak;
+    boolean nonceSet;
+    int restLen;    // unused keystream at the end of cached_process_output
 
     byte[] cached_process_output = new byte[64];
     int[] cached_wordToByte_x = new int[16];
+    int[] cached_processBatch_input = new int[16];
+    byte[] cached_processBatch_output = new byte[64];
 
     static final byte[] sigma = "expand 32-byte k".getBytes();
     static final byte[] tau = "expand 16-byte k".getBytes();
 
     public void erase() {
         Arrays.fill(this.input, 0);
-        Arrays.fill(this.input_bak, 0);
+        if (null != this.input_bak)
+            Arrays.fill(this.input_bak, 0);
+        this.nonceSet = false;
         Arrays.fill(this.cached_process_output, (byte)0);
         Arrays.fill(this.cached_wordToByte_x, 0);
+        this.restLen = 0;
+        Arrays.fill(this.cached_processBatch_input, 0);
+        Arrays.fill(this.cached_processBatch_output, (byte)0);
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -43,7 +56,11 @@ public class Salsa20 implements ICipher {
         return false;
     }
 
-    private void wordToByte(byte[] outp, int[] inp) {
+    public boolean acceptsAnyLength() {
+        return true;
+    }
+
+    private void wordToByte(byte[] outp, int outOfs, int[] inp) {
         int[] x = this.cached_wordToByte_x;
         int i, s;
 
@@ -85,8 +102,132 @@ public class Salsa20 implements ICipher {
         }
 
         for (i = 0; i < 16; i++) {
-            Utils.writeInt32LE(x[i] + inp[i], outp, i << 2);
+            Utils.writeInt32LE(x[i] + inp[i], outp, outOfs + (i << 2));
+        }
+    }
+
+    // two blocks at once, interleaved so that both chains of dependencies can
+    // be worked on in parallel by the CPU; locals instead of arrays, otherwise
+    // the JIT could not tell that the two states are independent
+    private static void wordToByte2(
+            byte[] outA, int[] inpA, byte[] outB, int[] inpB) {
+        int x0 = inpA[0], y0 = inpB[0];
+        int x1 = inpA[1], y1 = inpB[1];
+        int x2 = inpA[2], y2 = inpB[2];
+        int x3 = inpA[3], y3 = inpB[3];
+        int x4 = inpA[4], y4 = inpB[4];
+        int x5 = inpA[5], y5 = inpB[5];
+        int x6 = inpA[6], y6 = inpB[6];
+        int x7 = inpA[7], y7 = inpB[7];
+        int x8 = inpA[8], y8 = inpB[8];
+        int x9 = inpA[9], y9 = inpB[9];
+        int x10 = inpA[10], y10 = inpB[10];
+        int x11 = inpA[11], y11 = inpB[11];
+        int x12 = inpA[12], y12 = inpB[12];
+        int x13 = inpA[13], y13 = inpB[13];
+        int x14 = inpA[14], y14 = inpB[14];
+        int x15 = inpA[15], y15 = inpB[15];
+        int i, s, t;
+
+        for (i = 20; i > 0; i -= 2) {
+            s = x0 + x12; x4 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y0 + y12; y4 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x4 + x0; x8 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y4 + y0; y8 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x8 + x4; x12 ^= (s << 13) | (s >>> (32 - 13));
+            t = y8 + y4; y12 ^= (t << 13) | (t >>> (32 - 13));
+            s = x12 + x8; x0 ^= (s << 18) | (s >>> (32 - 18));
+            t = y12 + y8; y0 ^= (t << 18) | (t >>> (32 - 18));
+            s = x5 + x1; x9 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y5 + y1; y9 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x9 + x5; x13 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y9 + y5; y13 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x13 + x9; x1 ^= (s << 13) | (s >>> (32 - 13));
+            t = y13 + y9; y1 ^= (t << 13) | (t >>> (32 - 13));
+            s = x1 + x13; x5 ^= (s << 18) | (s >>> (32 - 18));
+            t = y1 + y13; y5 ^= (t << 18) | (t >>> (32 - 18));
+            s = x10 + x6; x14 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y10 + y6; y14 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x14 + x10; x2 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y14 + y10; y2 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x2 + x14; x6 ^= (s << 13) | (s >>> (32 - 13));
+            t = y2 + y14; y6 ^= (t << 13) | (t >>> (32 - 13));
+            s = x6 + x2; x10 ^= (s << 18) | (s >>> (32 - 18));
+            t = y6 + y2; y10 ^= (t << 18) | (t >>> (32 - 18));
+            s = x15 + x11; x3 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y15 + y11; y3 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x3 + x15; x7 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y3 + y15; y7 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x7 + x3; x11 ^= (s << 13) | (s >>> (32 - 13));
+            t = y7 + y3; y11 ^= (t << 13) | (t >>> (32 - 13));
+            s = x11 + x7; x15 ^= (s << 18) | (s >>> (32 - 18));
+            t = y11 + y7; y15 ^= (t << 18) | (t >>> (32 - 18));
+            s = x0 + x3; x1 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y0 + y3; y1 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x1 + x0; x2 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y1 + y0; y2 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x2 + x1; x3 ^= (s << 13) | (s >>> (32 - 13));
+            t = y2 + y1; y3 ^= (t << 13) | (t >>> (32 - 13));
+            s = x3 + x2; x0 ^= (s << 18) | (s >>> (32 - 18));
+            t = y3 + y2; y0 ^= (t << 18) | (t >>> (32 - 18));
+            s = x5 + x4; x6 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y5 + y4; y6 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x6 + x5; x7 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y6 + y5; y7 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x7 + x6; x4 ^= (s << 13) | (s >>> (32 - 13));
+            t = y7 + y6; y4 ^= (t << 13) | (t >>> (32 - 13));
+            s = x4 + x7; x5 ^= (s << 18) | (s >>> (32 - 18));
+            t = y4 + y7; y5 ^= (t << 18) | (t >>> (32 - 18));
+            s = x10 + x9; x11 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y10 + y9; y11 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x11 + x10; x8 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y11 + y10; y8 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x8 + x11; x9 ^= (s << 13) | (s >>> (32 - 13));
+            t = y8 + y11; y9 ^= (t << 13) | (t >>> (32 - 13));
+            s = x9 + x8; x10 ^= (s << 18) | (s >>> (32 - 18));
+            t = y9 + y8; y10 ^= (t << 18) | (t >>> (32 - 18));
+            s = x15 + x14; x12 ^= (s <<  7) | (s >>> (32 -  7));
+            t = y15 + y14; y12 ^= (t <<  7) | (t >>> (32 -  7));
+            s = x12 + x15; x13 ^= (s <<  9) | (s >>> (32 -  9));
+            t = y12 + y15; y13 ^= (t <<  9) | (t >>> (32 -  9));
+            s = x13 + x12; x14 ^= (s << 13) | (s >>> (32 - 13));
+            t = y13 + y12; y14 ^= (t << 13) | (t >>> (32 - 13));
+            s = x14 + x13; x15 ^= (s << 18) | (s >>> (32 - 18));
+            t = y14 + y13; y15 ^= (t << 18) | (t >>> (32 - 18));
         }
+
+        Utils.writeInt32LE(x0 + inpA[0], outA, 0);
+        Utils.writeInt32LE(y0 + inpB[0], outB, 0);
+        Utils.writeInt32LE(x1 + inpA[1], outA, 4);
+        Utils.writeInt32LE(y1 + inpB[1], outB, 4);
+        Utils.writeInt32LE(x2 + inpA[2], outA, 8);
+        Utils.writeInt32LE(y2 + inpB[2], outB, 8);
+        Utils.writeInt32LE(x3 + inpA[3], outA, 12);
+        Utils.writeInt32LE(y3 + inpB[3], outB, 12);
+        Utils.writeInt32LE(x4 + inpA[4], outA, 16);
+        Utils.writeInt32LE(y4 + inpB[4], outB, 16);
+        Utils.writeInt32LE(x5 + inpA[5], outA, 20);
+        Utils.writeInt32LE(y5 + inpB[5], outB, 20);
+        Utils.writeInt32LE(x6 + inpA[6], outA, 24);
+        Utils.writeInt32LE(y6 + inpB[6], outB, 24);
+        Utils.writeInt32LE(x7 + inpA[7], outA, 28);
+        Utils.writeInt32LE(y7 + inpB[7], outB, 28);
+        Utils.writeInt32LE(x8 + inpA[8], outA, 32);
+        Utils.writeInt32LE(y8 + inpB[8], outB, 32);
+        Utils.writeInt32LE(x9 + inpA[9], outA, 36);
+        Utils.writeInt32LE(y9 + inpB[9], outB, 36);
+        Utils.writeInt32LE(x10 + inpA[10], outA, 40);
+        Utils.writeInt32LE(y10 + inpB[10], outB, 40);
+        Utils.writeInt32LE(x11 + inpA[11], outA, 44);
+        Utils.writeInt32LE(y11 + inpB[11], outB, 44);
+        Utils.writeInt32LE(x12 + inpA[12], outA, 48);
+        Utils.writeInt32LE(y12 + inpB[12], outB, 48);
+        Utils.writeInt32LE(x13 + inpA[13], outA, 52);
+        Utils.writeInt32LE(y13 + inpB[13], outB, 52);
+        Utils.writeInt32LE(x14 + inpA[14], outA, 56);
+        Utils.writeInt32LE(y14 + inpB[14], outB, 56);
+        Utils.writeInt32LE(x15 + inpA[15], outA, 60);
+        Utils.writeInt32LE(y15 + inpB[15], outB, 60);
     }
 
     public void process(
@@ -97,21 +238,31 @@ public class Salsa20 implements ICipher {
             int len) throws ESJException {
         byte[] output = this.cached_process_output;
         int[] input = this.input;
-        int i, c;
+        int c;
+
+        // what's left of the previous block gets used up first
+        if (0 < this.restLen) {
+            c = (len <= this.restLen) ? len : this.restLen;
+            Utils.xor(inBuf, inOfs, output, 64 - this.restLen,
+                      outBuf, outOfs, c);
+            this.restLen -= c;
+            len -= c;
+            inOfs += c;
+            outOfs += c;
+        }
 
         if (0 < len) {
             for (;;) {
-                wordToByte(output, input);
+                wordToByte(output, 0, input);
                 if (0 == ++input[8]) {
                     input[9]++; // we don't stop at 2^70+ bytes for now
                 }
 
                 c = (len <= 64) ? len : 64;
-                for (i = 0; i < c; i++) {
-                    outBuf[outOfs + i] = (byte)(inBuf[inOfs + i] ^ output[i]);
-                }
+                Utils.xor(inBuf, inOfs, output, 0, outBuf, outOfs, c);
                 len -= 64;
                 if (1 > len) {
+                    this.restLen = -len;
                     return;
                 }
                 inOfs += 64;
@@ -120,11 +271,158 @@ public class Salsa20 implements ICipher {
         }
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ISeekableCipher.super.process(in, out);
+            return;
+        }
+
+        byte[] output = this.cached_process_output;
+        int[] input = this.input;
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int c;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        if (0 < this.restLen) {
+            c = (len <= this.restLen) ? len : this.restLen;
+            Utils.xor(in, inPos, output, 64 - this.restLen, out, outPos, c);
+            this.restLen -= c;
+            len -= c;
+            inPos += c;
+            outPos += c;
+        }
+
+        while (0 < len) {
+            wordToByte(output, 0, input);
+            if (0 == ++input[8]) {
+                input[9]++;
+            }
+
+            c = (len <= 64) ? len : 64;
+            Utils.xor(in, inPos, output, 0, out, outPos, c);
+            this.restLen = 64 - c;
+            len -= 64;
+            inPos += 64;
+            outPos += 64;
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        byte[] output = this.cached_process_output;
+        int[] input = this.input;
+        int c;
+
+        if (0 < this.restLen) {
+            c = (len <= this.restLen) ? len : this.restLen;
+            System.arraycopy(output, 64 - this.restLen, out, ofs, c);
+            this.restLen -= c;
+            len -= c;
+            ofs += c;
+        }
+
+        for (; 0 < len; len -= 64, ofs += 64) {
+            if (64 <= len) {
+                wordToByte(out, ofs, input);
+            }
+            else {
+                wordToByte(output, 0, input);
+                System.arraycopy(output, 0, out, ofs, len);
+                this.restLen = 64 - len;
+            }
+            if (0 == ++input[8]) {
+                input[9]++;
+            }
+        }
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int[] input = this.input;
+
+        if (n <= this.restLen) {
+            this.restLen -= (int)n;
+            return;
+        }
+        n -= this.restLen;
+        this.restLen = 0;
+
+        // the block counter is all that matters, only a partial block at the
+        // end needs to be computed
+        long block = ((long)input[9] << 32 | (input[8] & 0xffffffffL)) +
+                     (n >>> 6);
+        input[8] = (int)block;
+        input[9] = (int)(block >>> 32);
+        if (0 != (n & 63)) {
+            wordToByte(this.cached_process_output, 0, input);
+            if (0 == ++input[8]) {
+                input[9]++;
+            }
+            this.restLen = 64 - (int)(n & 63);
+        }
+    }
+
+    public void processBatch(
+            byte[][] nonces,
+            byte[][] inputs,
+            byte[][] outputs,
+            int[] lengths) throws ESJException {
+        int count = Utils.checkBatch(
+                getNonceSize(), nonces, inputs, outputs, lengths);
+        int[] inpA = this.input;
+        int[] inpB = this.cached_processBatch_input;
+        byte[] outA = this.cached_process_output;
+        byte[] outB = this.cached_processBatch_output;
+        int i, ofs, common;
+
+        for (i = 0; i < count; i += 2) {
+            if (i + 1 == count) {
+                setupNonce(nonces[i], 0);
+                process(inputs[i], 0, outputs[i], 0, lengths[i]);
+                return;
+            }
+
+            // (the key words are the same for both messages)
+            System.arraycopy(inpA, 0, inpB, 0, inpB.length);
+            inpA[6] = Utils.readInt32LE(nonces[i], 0);
+            inpA[7] = Utils.readInt32LE(nonces[i], 4);
+            inpB[6] = Utils.readInt32LE(nonces[i + 1], 0);
+            inpB[7] = Utils.readInt32LE(nonces[i + 1], 4);
+            inpA[8] = inpA[9] = inpB[8] = inpB[9] = 0;
+
+            byte[] inBufA = inputs[i];
+            byte[] inBufB = inputs[i + 1];
+            byte[] outBufA = outputs[i];
+            byte[] outBufB = outputs[i + 1];
+
+            common = Math.min(lengths[i], lengths[i + 1]) & ~63;
+            for (ofs = 0; ofs < common; ofs += 64) {
+                wordToByte2(outA, inpA, outB, inpB);
+                inpA[8]++;
+                inpB[8]++;
+                Utils.xor(inBufA, ofs, outA, 0, outBufA, ofs, 64);
+                Utils.xor(inBufB, ofs, outB, 0, outBufB, ofs, 64);
+            }
+
+            // whatever is left over goes the regular way
+            this.restLen = 0;
+            process(inBufA, common, outBufA, common, lengths[i] - common);
+            System.arraycopy(inpB, 0, inpA, 0, inpA.length);
+            this.restLen = 0;
+            process(inBufB, common, outBufB, common, lengths[i + 1] - common);
+        }
+    }
+
     public void reset() throws ESJException {
-        if (null == this.input_bak) {
+        if (!this.nonceSet) {
             throw new ESJException("Salsa20 instance hasn't been set up yet");
         }
         System.arraycopy(this.input_bak, 0, this.input, 0, this.input.length);
+        this.restLen = 0;
     }
 
     public void setupKey(int mode, byte[] key, int ofs) throws ESJException {
@@ -159,13 +457,86 @@ public class Salsa20 implements ICipher {
         this.input[7] = Utils.readInt32LE(nonce, ofs + 4);
         this.input[8] = 0;
         this.input[9] = 0;
+        this.restLen = 0;
 
-        this.input_bak = this.input.clone();
+        if (null == this.input_bak) {
+            this.input_bak = new int[this.input.length];
+        }
+        System.arraycopy(this.input, 0, this.input_bak, 0, this.input.length);
+        this.nonceSet = true;
+    }
+
+    public void seek(long byteOffset) throws ESJException {
+        if (!this.nonceSet) {
+            throw new ESJException("Salsa20 instance hasn't been set up yet");
+        }
+        if (0 > byteOffset || 0 != (byteOffset & 63)) {
+            throw new ESJException("invalid seek offset " + byteOffset);
+        }
+        long block = byteOffset >>> 6;
+        this.input[8] = (int)block;
+        this.input[9] = (int)(block >>> 32);
+        this.restLen = 0;
+    }
+
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Salsa20 other = (Salsa20)src;
+        System.arraycopy(other.input, 0, this.input, 0, this.input.length);
+        System.arraycopy(other.cached_process_output, 0,
+                this.cached_process_output, 0, 64);
+        this.restLen = other.restLen;
+        if (null == other.input_bak) {
+            this.input_bak = null;
+        }
+        else {
+            if (null == this.input_bak) {
+                this.input_bak = new int[this.input.length];
+            }
+            System.arraycopy(other.input_bak, 0, this.input_bak, 0,
+                    this.input_bak.length);
+        }
+        this.nonceSet = other.nonceSet;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInts(this.input);
+        st.putBytes(this.cached_process_output);
+        st.putInt(this.restLen);
+        st.putInts(this.input_bak);
+        st.putBoolean(this.nonceSet);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.getInts(this.input);
+        st.getBytes(this.cached_process_output);
+        this.restLen = st.getInt(0, 64);
+        int[] input_bak = st.getIntsOrNull(this.input_bak);
+        if (null != input_bak && this.input.length != input_bak.length) {
+            throw new ESJException("invalid Salsa20 state");
+        }
+        boolean nonceSet = st.getBoolean();
+        if (nonceSet && null == input_bak) {
+            throw new ESJException("invalid Salsa20 state");
+        }
+        this.input_bak = input_bak;
+        this.nonceSet = nonceSet;
+    }
+
+    public ICipher fork() throws ESJException {
+        Salsa20 result = new Salsa20();
+        result.copyStateFrom(this);
+        return result;
     }
 
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                32, 8, 64, 0, true, true, 214, 1024);
+
         public ICipher create() throws ESJException {
             return new Salsa20();
         }
@@ -173,6 +544,10 @@ public class Salsa20 implements ICipher {
         public String getName() {
             return "Salsa20";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
@@ -1,9 +1,15 @@
 package de.org.mchahn.crypto.estreamj.ciphers.sosemanuk;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
 import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 /**
  * SOSEMANUK 128bit implementation. Based on the original Java source code (fast
@@ -19,6 +25,9 @@ public class Sosemanuk implements ICipher {
         this.lfsr0 = this.lfsr1 = this.lfsr2 = this.lfsr3 = this.lfsr4 =
         this.lfsr5 = this.lfsr6 = this.lfsr7 = this.lfsr8 = this.lfsr9 =
         this.fsmR1 = this.fsmR2 = 0;
+        Arrays.fill(this.restBuf, (byte)0);
+        Arrays.fill(this.cached_setupKey_lkey, (byte)0);
+        this.restLen = 0;
     }
 
     private static final int decode32le(byte[] buf, int off) {
@@ -40,14 +49,14 @@ public class Sosemanuk implements ICipher {
     }
 
     private final int[] serpent24SubKeys = new int[100];
+    private final byte[] cached_setupKey_lkey = new byte[32];
 
     public void setupKey(int mode, byte[] key, int ofs) throws ESJException {
-        byte[] lkey = new byte[32];
-        System.arraycopy(key, 0, lkey, 0, key.length);
-        lkey[key.length] = 0x01;
-        for (int i = key.length + 1; i < lkey.length; i ++) {
-            lkey[i] = 0x00;
-        }
+        byte[] lkey = this.cached_setupKey_lkey;
+        int klen = getKeySize();
+        System.arraycopy(key, ofs, lkey, 0, klen);
+        lkey[klen] = 0x01;
+        Arrays.fill(lkey, klen + 1, lkey.length, (byte)0);
 
         int w0, w1, w2, w3, w4, w5, w6, w7;
         int r0, r1, r2, r3, r4, tt;
@@ -1730,6 +1739,7 @@ public class Sosemanuk implements ICipher {
         this.lfsr2 = r1;
         this.lfsr1 = r2;
         this.lfsr0 = r3;
+        this.restLen = 0;
     }
 
     private static final int[] mulAlpha = new int[256];
@@ -2066,6 +2076,7 @@ public class Sosemanuk implements ICipher {
 
     private static final int BLOCK_SIZE = 80;
     private final byte[] restBuf = new byte[BLOCK_SIZE];
+    private int restLen;    // unused keystream at the end of restBuf
 
     public int getKeySize() {
         return 16;
@@ -2083,34 +2094,170 @@ public class Sosemanuk implements ICipher {
         return false;
     }
 
+    public boolean acceptsAnyLength() {
+        return true;
+    }
+
     public void process(
         byte[] inBuf, int inOfs, byte[] outBuf, int outOfs, int len)
         throws ESJException {
-        int i, j, rest = len % BLOCK_SIZE;
-        len -= rest;
+        int i, rest;
         byte[] streamBuf = this.restBuf;
+        if (0 < this.restLen) {
+            rest = Math.min(len, this.restLen);
+            Utils.xor(inBuf, inOfs, streamBuf, BLOCK_SIZE - this.restLen,
+                      outBuf, outOfs, rest);
+            this.restLen -= rest;
+            outOfs += rest;
+            inOfs += rest;
+            len -= rest;
+        }
+        rest = len % BLOCK_SIZE;
+        len -= rest;
         for (i = 0; i < len; i+=BLOCK_SIZE) {
             makeStreamBlock(streamBuf, 0);
-            for (j = 0; j < BLOCK_SIZE; j++) {
-                outBuf[outOfs + j] = (byte)(inBuf[inOfs + j] ^ streamBuf[j]);
-            }
+            Utils.xor(inBuf, inOfs, streamBuf, 0, outBuf, outOfs, BLOCK_SIZE);
             outOfs += BLOCK_SIZE;
             inOfs += BLOCK_SIZE;
         }
         if (0 < rest) {
             makeStreamBlock(streamBuf, 0);
-            for (i = 0; i < rest; i++) {
-                outBuf[outOfs + i] = (byte)(inBuf[inOfs + i] ^ streamBuf[i]);
-            }
+            Utils.xor(inBuf, inOfs, streamBuf, 0, outBuf, outOfs, rest);
+            this.restLen = BLOCK_SIZE - rest;
+        }
+    }
+
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        byte[] streamBuf = this.restBuf;
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int c;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            Utils.xor(in, inPos, streamBuf, BLOCK_SIZE - this.restLen,
+                    out, outPos, c);
+            this.restLen -= c;
+            len -= c;
+            inPos += c;
+            outPos += c;
+        }
+
+        while (0 < len) {
+            makeStreamBlock(streamBuf, 0);
+            c = (len <= BLOCK_SIZE) ? len : BLOCK_SIZE;
+            Utils.xor(in, inPos, streamBuf, 0, out, outPos, c);
+            this.restLen = BLOCK_SIZE - c;
+            len -= BLOCK_SIZE;
+            inPos += BLOCK_SIZE;
+            outPos += BLOCK_SIZE;
+        }
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int c;
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            System.arraycopy(this.restBuf, BLOCK_SIZE - this.restLen,
+                    out, ofs, c);
+            this.restLen -= c;
+            ofs += c;
+            len -= c;
+        }
+        for (; BLOCK_SIZE <= len; len -= BLOCK_SIZE, ofs += BLOCK_SIZE) {
+            makeStreamBlock(out, ofs);
+        }
+        if (0 < len) {
+            makeStreamBlock(this.restBuf, 0);
+            System.arraycopy(this.restBuf, 0, out, ofs, len);
+            this.restLen = BLOCK_SIZE - len;
         }
     }
 
     public void reset() throws ESJException {
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Sosemanuk other = (Sosemanuk)src;
+        this.lfsr0 = other.lfsr0;
+        this.lfsr1 = other.lfsr1;
+        this.lfsr2 = other.lfsr2;
+        this.lfsr3 = other.lfsr3;
+        this.lfsr4 = other.lfsr4;
+        this.lfsr5 = other.lfsr5;
+        this.lfsr6 = other.lfsr6;
+        this.lfsr7 = other.lfsr7;
+        this.lfsr8 = other.lfsr8;
+        this.lfsr9 = other.lfsr9;
+        this.fsmR1 = other.fsmR1;
+        this.fsmR2 = other.fsmR2;
+        System.arraycopy(other.restBuf, 0, this.restBuf, 0, BLOCK_SIZE);
+        this.restLen = other.restLen;
+        System.arraycopy(other.serpent24SubKeys, 0, this.serpent24SubKeys, 0,
+                this.serpent24SubKeys.length);
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(this.lfsr0);
+        st.putInt(this.lfsr1);
+        st.putInt(this.lfsr2);
+        st.putInt(this.lfsr3);
+        st.putInt(this.lfsr4);
+        st.putInt(this.lfsr5);
+        st.putInt(this.lfsr6);
+        st.putInt(this.lfsr7);
+        st.putInt(this.lfsr8);
+        st.putInt(this.lfsr9);
+        st.putInt(this.fsmR1);
+        st.putInt(this.fsmR2);
+        st.putBytes(this.restBuf);
+        st.putInt(this.restLen);
+        st.putInts(this.serpent24SubKeys);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        this.lfsr0 = st.getInt();
+        this.lfsr1 = st.getInt();
+        this.lfsr2 = st.getInt();
+        this.lfsr3 = st.getInt();
+        this.lfsr4 = st.getInt();
+        this.lfsr5 = st.getInt();
+        this.lfsr6 = st.getInt();
+        this.lfsr7 = st.getInt();
+        this.lfsr8 = st.getInt();
+        this.lfsr9 = st.getInt();
+        this.fsmR1 = st.getInt();
+        this.fsmR2 = st.getInt();
+        st.getBytes(this.restBuf);
+        this.restLen = st.getInt(0, BLOCK_SIZE);
+        st.getInts(this.serpent24SubKeys);
+    }
+
+    public ICipher fork() throws ESJException {
+        Sosemanuk result = new Sosemanuk();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                16, 16, 80, 0, false, true, 545, 960);
+
         public ICipher create() throws ESJException {
             return new Sosemanuk();
         }
@@ -2118,6 +2265,10 @@ public class Sosemanuk implements ICipher {
         public String getName() {
             return "SOSEMANUK";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
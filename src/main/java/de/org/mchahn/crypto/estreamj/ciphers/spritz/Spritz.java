@@ -1,7 +1,10 @@
 package de.org.mchahn.crypto.estreamj.ciphers.spritz;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
@@ -22,7 +25,10 @@ public class Spritz implements ICipher {
     private int a, i, j, k, w, z;
 
     private void initializeState() {
-        this.s = S_INIT.clone();
+        if (null == this.s) {
+            this.s = new int[N];
+        }
+        System.arraycopy(S_INIT, 0, this.s, 0, N);
         this.a = this.i = this.j = this.k = this.z = 0;
         this.w = 1;
     }
@@ -208,12 +214,49 @@ public class Spritz implements ICipher {
             this.cipherDecrypt(inBuf, inOfs, len, outBuf, outOfs);
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int end = inPos + len;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        if (MODE_ENCRYPT == this.mode)
+            for (; inPos < end; inPos++, outPos++)
+                out.put(outPos, (byte)(in.get(inPos) + drip()));
+        else
+            for (; inPos < end; inPos++, outPos++)
+                out.put(outPos, (byte)(in.get(inPos) - drip()));
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        // the drip output gets added to (or subtracted from) the data
+        throw new ESJException("Spritz does not XOR its keystream");
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        for (; 0 < n; n--) {
+            drip();
+        }
+    }
+
     public void reset() throws ESJException {
     }
 
     public void setupKey(int mode, byte[] key, int ofs) throws ESJException {
         this.mode = mode;
-        this.key = new byte[getKeySize()];
+        if (null == this.key) {
+            this.key = new byte[getKeySize()];
+        }
         System.arraycopy(key, ofs, this.key, 0, this.key.length);
     }
 
@@ -223,15 +266,89 @@ public class Spritz implements ICipher {
     }
 
     public void erase() {
-        Arrays.fill(this.s, 0);
+        if (null != this.s)
+            Arrays.fill(this.s, 0);
         this.a = this.i = this.j = this.k = this.w = this.z = 0;
         if (null != this.key)
             Arrays.fill(this.key, (byte)0);
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Spritz other = (Spritz)src;
+        if (null == other.s) {
+            this.s = null;
+        }
+        else {
+            if (null == this.s) {
+                this.s = new int[N];
+            }
+            System.arraycopy(other.s, 0, this.s, 0, N);
+        }
+        this.a = other.a;
+        this.i = other.i;
+        this.j = other.j;
+        this.k = other.k;
+        this.w = other.w;
+        this.z = other.z;
+        if (null == other.key) {
+            this.key = null;
+        }
+        else {
+            if (null == this.key) {
+                this.key = new byte[getKeySize()];
+            }
+            System.arraycopy(other.key, 0, this.key, 0, this.key.length);
+        }
+        this.mode = other.mode;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInts(this.s);
+        st.putInt(this.a);
+        st.putInt(this.i);
+        st.putInt(this.j);
+        st.putInt(this.k);
+        st.putInt(this.w);
+        st.putInt(this.z);
+        st.putBytes(this.key);
+        st.putInt(this.mode);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        int[] s = st.getIntsOrNull(this.s);
+        if (null != s && N != s.length) {
+            throw new ESJException("invalid Spritz state");
+        }
+        this.s = s;
+        this.a = st.getInt(0, N);
+        this.i = st.getInt(0, N - 1);
+        this.j = st.getInt(0, N - 1);
+        this.k = st.getInt(0, N - 1);
+        this.w = st.getInt(0, N - 1);
+        this.z = st.getInt(0, N - 1);
+        byte[] key = st.getBytesOrNull(this.key);
+        if (null != key && getKeySize() != key.length) {
+            throw new ESJException("invalid Spritz state");
+        }
+        this.key = key;
+        this.mode = st.getInt();
+    }
+
+    public ICipher fork() throws ESJException {
+        Spritz result = new Spritz();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                32, 16, 1, 0, false, true, 1097, 1024);
+
         public ICipher create() throws ESJException {
             return new Spritz();
         }
@@ -239,6 +356,10 @@ public class Spritz implements ICipher {
         public String getName() {
             return "Spritz";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
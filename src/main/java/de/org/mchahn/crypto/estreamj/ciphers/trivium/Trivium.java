@@ -1,7 +1,10 @@
 package de.org.mchahn.crypto.estreamj.ciphers.trivium;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
@@ -118,6 +121,248 @@ public class Trivium implements ICipher {
         this.s[9] = s34;
     }
 
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        if (in.hasArray() && out.hasArray()) {
+            ICipher.super.process(in, out);
+            return;
+        }
+
+        int s11 = this.s[0];
+        int s12 = this.s[1];
+        int s13 = this.s[2];
+        int s21 = this.s[3];
+        int s22 = this.s[4];
+        int s23 = this.s[5];
+        int s31 = this.s[6];
+        int s32 = this.s[7];
+        int s33 = this.s[8];
+        int s34 = this.s[9];
+
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int outEnd = outPos + len;
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        // (same as above, just a single loop since the rest is one more word)
+        while (outPos < outEnd) {
+            int t1, t2, t3, reg;
+
+            t1 = ((s13 << 96-66) | (s12 >>> 66-64)) ^ ((s13 <<  96-93 ) | (s12 >>>  93-64));
+            t2 = ((s23 << 96-69) | (s22 >>> 69-64)) ^ ((s23 <<  96-84 ) | (s22 >>>  84-64));
+            t3 = ((s33 << 96-66) | (s32 >>> 66-64)) ^ ((s34 << 128-111) | (s33 >>> 111-96));
+
+            reg = t1 ^ t2 ^ t3;
+            if (4 <= outEnd - outPos) {
+                Utils.xorInt32LE(in, inPos, reg, out, outPos);
+                outPos += 4;
+                inPos += 4;
+            }
+            else {
+                for (;outPos < outEnd; outPos++, inPos++) {
+                    out.put(outPos, (byte)(in.get(inPos) ^ reg));
+                    reg >>= 8;
+                }
+            }
+
+            t1 ^= (((s13 <<  96-91 ) | (s12 >>>  91-64)) & ((s13 <<  96-92 ) | (s12 >>>  92-64))) ^ ((s23 << 96-78) | (s22 >>> 78-64));
+            t2 ^= (((s23 <<  96-82 ) | (s22 >>>  82-64)) & ((s23 <<  96-83 ) | (s22 >>>  83-64))) ^ ((s33 << 96-87) | (s32 >>> 87-64));
+            t3 ^= (((s34 << 128-109) | (s33 >>> 109-96)) & ((s34 << 128-110) | (s33 >>> 110-96))) ^ ((s13 << 96-69) | (s12 >>> 69-64));
+
+            s13 = s12; s12 = s11; s11 = t3;
+            s23 = s22; s22 = s21; s21 = t1;
+            s34 = s33; s33 = s32; s32 = s31; s31 = t2;
+        }
+
+        this.s[0] = s11;
+        this.s[1] = s12;
+        this.s[2] = s13;
+        this.s[3] = s21;
+        this.s[4] = s22;
+        this.s[5] = s23;
+        this.s[6] = s31;
+        this.s[7] = s32;
+        this.s[8] = s33;
+        this.s[9] = s34;
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int s11 = this.s[0];
+        int s12 = this.s[1];
+        int s13 = this.s[2];
+        int s21 = this.s[3];
+        int s22 = this.s[4];
+        int s23 = this.s[5];
+        int s31 = this.s[6];
+        int s32 = this.s[7];
+        int s33 = this.s[8];
+        int s34 = this.s[9];
+
+        int end = ofs + len;
+
+        while (ofs < end) {
+            int t1, t2, t3, reg;
+
+            t1 = ((s13 << 96-66) | (s12 >>> 66-64)) ^ ((s13 <<  96-93 ) | (s12 >>>  93-64));
+            t2 = ((s23 << 96-69) | (s22 >>> 69-64)) ^ ((s23 <<  96-84 ) | (s22 >>>  84-64));
+            t3 = ((s33 << 96-66) | (s32 >>> 66-64)) ^ ((s34 << 128-111) | (s33 >>> 111-96));
+
+            reg = t1 ^ t2 ^ t3;
+            if (4 <= end - ofs) {
+                Utils.writeInt32LE(reg, out, ofs);
+                ofs += 4;
+            }
+            else {
+                for (; ofs < end; ofs++) {
+                    out[ofs] = (byte)reg;
+                    reg >>= 8;
+                }
+            }
+
+            t1 ^= (((s13 <<  96-91 ) | (s12 >>>  91-64)) & ((s13 <<  96-92 ) | (s12 >>>  92-64))) ^ ((s23 << 96-78) | (s22 >>> 78-64));
+            t2 ^= (((s23 <<  96-82 ) | (s22 >>>  82-64)) & ((s23 <<  96-83 ) | (s22 >>>  83-64))) ^ ((s33 << 96-87) | (s32 >>> 87-64));
+            t3 ^= (((s34 << 128-109) | (s33 >>> 109-96)) & ((s34 << 128-110) | (s33 >>> 110-96))) ^ ((s13 << 96-69) | (s12 >>> 69-64));
+
+            s13 = s12; s12 = s11; s11 = t3;
+            s23 = s22; s22 = s21; s21 = t1;
+            s34 = s33; s33 = s32; s32 = s31; s31 = t2;
+        }
+
+        this.s[0] = s11;
+        this.s[1] = s12;
+        this.s[2] = s13;
+        this.s[3] = s21;
+        this.s[4] = s22;
+        this.s[5] = s23;
+        this.s[6] = s31;
+        this.s[7] = s32;
+        this.s[8] = s33;
+        this.s[9] = s34;
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int s11 = this.s[0];
+        int s12 = this.s[1];
+        int s13 = this.s[2];
+        int s21 = this.s[3];
+        int s22 = this.s[4];
+        int s23 = this.s[5];
+        int s31 = this.s[6];
+        int s32 = this.s[7];
+        int s33 = this.s[8];
+        int s34 = this.s[9];
+
+        // (a partial word at the end consumes a whole one, as in process())
+        for (long words = (n + 3) >>> 2; 0 < words; words--) {
+            int t1, t2, t3;
+
+            t1 = ((s13 << 96-66) | (s12 >>> 66-64)) ^ ((s13 <<  96-93 ) | (s12 >>>  93-64));
+            t2 = ((s23 << 96-69) | (s22 >>> 69-64)) ^ ((s23 <<  96-84 ) | (s22 >>>  84-64));
+            t3 = ((s33 << 96-66) | (s32 >>> 66-64)) ^ ((s34 << 128-111) | (s33 >>> 111-96));
+
+            t1 ^= (((s13 <<  96-91 ) | (s12 >>>  91-64)) & ((s13 <<  96-92 ) | (s12 >>>  92-64))) ^ ((s23 << 96-78) | (s22 >>> 78-64));
+            t2 ^= (((s23 <<  96-82 ) | (s22 >>>  82-64)) & ((s23 <<  96-83 ) | (s22 >>>  83-64))) ^ ((s33 << 96-87) | (s32 >>> 87-64));
+            t3 ^= (((s34 << 128-109) | (s33 >>> 109-96)) & ((s34 << 128-110) | (s33 >>> 110-96))) ^ ((s13 << 96-69) | (s12 >>> 69-64));
+
+            s13 = s12; s12 = s11; s11 = t3;
+            s23 = s22; s22 = s21; s21 = t1;
+            s34 = s33; s33 = s32; s32 = s31; s31 = t2;
+        }
+
+        this.s[0] = s11;
+        this.s[1] = s12;
+        this.s[2] = s13;
+        this.s[3] = s21;
+        this.s[4] = s22;
+        this.s[5] = s23;
+        this.s[6] = s31;
+        this.s[7] = s32;
+        this.s[8] = s33;
+        this.s[9] = s34;
+    }
+
+    public void processBatch(
+            byte[][] nonces,
+            byte[][] inputs,
+            byte[][] outputs,
+            int[] lengths) throws ESJException {
+        int count = Utils.checkBatch(
+                getNonceSize(), nonces, inputs, outputs, lengths);
+
+        for (int i = 0; i < count; i += 2) {
+            if (i + 1 == count) {
+                setupNonce(nonces[i], 0);
+                process(inputs[i], 0, outputs[i], 0, lengths[i]);
+                return;
+            }
+            processPair(
+                    nonces[i    ], inputs[i    ], outputs[i    ], lengths[i    ],
+                    nonces[i + 1], inputs[i + 1], outputs[i + 1], lengths[i + 1]);
+        }
+    }
+
+    // sets up and runs two messages side by side, the two states are totally
+    // independent, so their updates can be executed in parallel by the CPU
+    void processPair(
+            byte[] nonceA, byte[] inBufA, byte[] outBufA, int lenA,
+            byte[] nonceB, byte[] inBufB, byte[] outBufB, int lenB)
+            throws ESJException {
+        // (the setup is short compared to the data, so no need to pair it)
+        int[] s = this.s;
+        setupNonce(nonceB, 0);
+        int b11 = s[0], b12 = s[1], b13 = s[2];
+        int b21 = s[3], b22 = s[4], b23 = s[5];
+        int b31 = s[6], b32 = s[7], b33 = s[8], b34 = s[9];
+        setupNonce(nonceA, 0);
+        int a11 = s[0], a12 = s[1], a13 = s[2];
+        int a21 = s[3], a22 = s[4], a23 = s[5];
+        int a31 = s[6], a32 = s[7], a33 = s[8], a34 = s[9];
+
+        int t1, t2, t3, u1, u2, u3;
+
+        int common = Math.min(lenA, lenB) & ~3;
+
+        for (int ofs = 0; ofs < common; ofs += 4) {
+            t1 = ((a13 << 96-66) | (a12 >>> 66-64)) ^ ((a13 <<  96-93 ) | (a12 >>>  93-64));
+            u1 = ((b13 << 96-66) | (b12 >>> 66-64)) ^ ((b13 <<  96-93 ) | (b12 >>>  93-64));
+            t2 = ((a23 << 96-69) | (a22 >>> 69-64)) ^ ((a23 <<  96-84 ) | (a22 >>>  84-64));
+            u2 = ((b23 << 96-69) | (b22 >>> 69-64)) ^ ((b23 <<  96-84 ) | (b22 >>>  84-64));
+            t3 = ((a33 << 96-66) | (a32 >>> 66-64)) ^ ((a34 << 128-111) | (a33 >>> 111-96));
+            u3 = ((b33 << 96-66) | (b32 >>> 66-64)) ^ ((b34 << 128-111) | (b33 >>> 111-96));
+
+            Utils.xorInt32LE(inBufA, ofs, t1 ^ t2 ^ t3, outBufA, ofs);
+            Utils.xorInt32LE(inBufB, ofs, u1 ^ u2 ^ u3, outBufB, ofs);
+
+            t1 ^= (((a13 <<  96-91 ) | (a12 >>>  91-64)) & ((a13 <<  96-92 ) | (a12 >>>  92-64))) ^ ((a23 << 96-78) | (a22 >>> 78-64));
+            u1 ^= (((b13 <<  96-91 ) | (b12 >>>  91-64)) & ((b13 <<  96-92 ) | (b12 >>>  92-64))) ^ ((b23 << 96-78) | (b22 >>> 78-64));
+            t2 ^= (((a23 <<  96-82 ) | (a22 >>>  82-64)) & ((a23 <<  96-83 ) | (a22 >>>  83-64))) ^ ((a33 << 96-87) | (a32 >>> 87-64));
+            u2 ^= (((b23 <<  96-82 ) | (b22 >>>  82-64)) & ((b23 <<  96-83 ) | (b22 >>>  83-64))) ^ ((b33 << 96-87) | (b32 >>> 87-64));
+            t3 ^= (((a34 << 128-109) | (a33 >>> 109-96)) & ((a34 << 128-110) | (a33 >>> 110-96))) ^ ((a13 << 96-69) | (a12 >>> 69-64));
+            u3 ^= (((b34 << 128-109) | (b33 >>> 109-96)) & ((b34 << 128-110) | (b33 >>> 110-96))) ^ ((b13 << 96-69) | (b12 >>> 69-64));
+
+            a13 = a12; a12 = a11; a11 = t3;
+            b13 = b12; b12 = b11; b11 = u3;
+            a23 = a22; a22 = a21; a21 = t1;
+            b23 = b22; b22 = b21; b21 = u1;
+            a34 = a33; a33 = a32; a32 = a31; a31 = t2;
+            b34 = b33; b33 = b32; b32 = b31; b31 = u2;
+        }
+
+        // whatever is left over goes the regular way
+        s[0] = a11; s[1] = a12; s[2] = a13;
+        s[3] = a21; s[4] = a22; s[5] = a23;
+        s[6] = a31; s[7] = a32; s[8] = a33; s[9] = a34;
+        process(inBufA, common, outBufA, common, lenA - common);
+        s[0] = b11; s[1] = b12; s[2] = b13;
+        s[3] = b21; s[4] = b22; s[5] = b23;
+        s[6] = b31; s[7] = b32; s[8] = b33; s[9] = b34;
+        process(inBufB, common, outBufB, common, lenB - common);
+    }
+
     public void reset() throws ESJException {
         // key is cached already, nothing to do here
     }
@@ -176,9 +421,37 @@ public class Trivium implements ICipher {
         s[9] = s34;
     }
 
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (null == src || src.getClass() != getClass()) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        Trivium other = (Trivium)src;
+        System.arraycopy(other.key, 0, this.key, 0, this.key.length);
+        System.arraycopy(other.s, 0, this.s, 0, this.s.length);
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putBytes(this.key);
+        st.putInts(this.s);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.getBytes(this.key);
+        st.getInts(this.s);
+    }
+
+    public ICipher fork() throws ESJException {
+        Trivium result = new Trivium();
+        result.copyStateFrom(this);
+        return result;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     static class Maker implements ICipherMaker {
+        static final CipherInfo INFO = new CipherInfo(
+                10, 10, 4, 0, false, false, 63, 1024);
+
         public ICipher create() throws ESJException {
             return new Trivium();
         }
@@ -186,6 +459,10 @@ public class Trivium implements ICipher {
         public String getName() {
             return "Trivium";
         }
+
+        public CipherInfo getInfo() {
+            return INFO;
+        }
     }
 
     public static void register() {
@@ -0,0 +1,229 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.util.Arrays;
+
+/**
+ * One-shot authenticated encryption on top of ciphers doing MAC computation.
+ * Sealing produces the ciphertext followed by the MAC (tag), opening checks
+ * the tag and only then hands out the plaintext. Every thread works with its
+ * own keyed instances, which are kept and only get re-keyed if the key
+ * changes, so after warm-up no memory gets allocated anymore.
+ */
+public class AEAD {
+    String cipherName;
+    int keySize;
+    int nonceSize;
+    int macSize;
+    ThreadLocal<Keyed> local = new ThreadLocal<>();
+
+    /**
+     * Default constructor.
+     * @param cipherName name of the cipher, must implement ICipherMAC
+     * @throws ESJException if the cipher is unknown or does not do MACs
+     */
+    public AEAD(String cipherName) throws ESJException {
+        ICipher cph = Engine.createCipher(cipherName);
+        if (!(cph instanceof ICipherMAC)) {
+            throw new ESJException("cipher \"" + cipherName +
+                    "\" does not compute MACs");
+        }
+        this.cipherName = cipherName;
+        this.keySize = cph.getKeySize();
+        this.nonceSize = cph.getNonceSize();
+        this.macSize = ((ICipherMAC)cph).getMacSize();
+    }
+
+    /**
+     * @return number of bytes the tag adds to the ciphertext
+     */
+    public int getMacSize() {
+        return this.macSize;
+    }
+
+    /**
+     * Encrypts data and appends the tag.
+     * @param key buffer with key material
+     * @param keyOfs where the key starts
+     * @param nonce buffer with nonce material, must never be used twice with
+     * the same key
+     * @param nonceOfs where the nonce starts
+     * @param aad additional data to authenticate, can be null if aadLen is 0
+     * @param aadOfs where the additional data starts
+     * @param aadLen number of additional bytes
+     * @param inBuf plaintext buffer
+     * @param inOfs where the plaintext starts
+     * @param len number of plaintext bytes
+     * @param outBuf buffer receiving ciphertext and tag, must have room for
+     * len + getMacSize() bytes
+     * @param outOfs where to start writing to the output buffer
+     * @return number of bytes written
+     * @throws ESJException if any error occurred
+     */
+    public int seal(
+            byte[] key,
+            int keyOfs,
+            byte[] nonce,
+            int nonceOfs,
+            byte[] aad,
+            int aadOfs,
+            int aadLen,
+            byte[] inBuf,
+            int inOfs,
+            int len,
+            byte[] outBuf,
+            int outOfs) throws ESJException {
+        checkRange(inBuf, inOfs, len);
+        checkRange(outBuf, outOfs, len + this.macSize);
+
+        ICipherMAC cph = prepare(ICipher.MODE_ENCRYPT, key, keyOfs,
+                nonce, nonceOfs, aad, aadOfs, aadLen);
+
+        cph.process(inBuf, inOfs, outBuf, outOfs, len);
+        cph.finalize(outBuf, outOfs + len);
+
+        return len + this.macSize;
+    }
+
+    /**
+     * Checks the tag and decrypts data. If the check fails the output range
+     * gets cleared before the error is thrown, so no unauthenticated plaintext
+     * ever makes it to the caller. Input and output may be the same range.
+     * @param key buffer with key material
+     * @param keyOfs where the key starts
+     * @param nonce buffer with nonce material, the one used for sealing
+     * @param nonceOfs where the nonce starts
+     * @param aad additional data to authenticate, can be null if aadLen is 0
+     * @param aadOfs where the additional data starts
+     * @param aadLen number of additional bytes
+     * @param inBuf buffer with ciphertext and tag
+     * @param inOfs where the ciphertext starts
+     * @param len number of bytes of ciphertext and tag
+     * @param outBuf plaintext buffer, must have room for len - getMacSize()
+     * bytes
+     * @param outOfs where to start writing to the output buffer
+     * @return number of plaintext bytes written
+     * @throws ESJException if the data is not authentic or any other error
+     * occurred
+     */
+    public int open(
+            byte[] key,
+            int keyOfs,
+            byte[] nonce,
+            int nonceOfs,
+            byte[] aad,
+            int aadOfs,
+            int aadLen,
+            byte[] inBuf,
+            int inOfs,
+            int len,
+            byte[] outBuf,
+            int outOfs) throws ESJException {
+        int macSize = this.macSize;
+        int ptLen = len - macSize;
+
+        if (0 > ptLen) {
+            throw new ESJException("input shorter than the tag");
+        }
+        checkRange(inBuf, inOfs, len);
+        checkRange(outBuf, outOfs, ptLen);
+
+        ICipherMAC cph = prepare(ICipher.MODE_DECRYPT, key, keyOfs,
+                nonce, nonceOfs, aad, aadOfs, aadLen);
+        Keyed kd = this.local.get();
+
+        // (the tag gets saved first, the output might overlap it)
+        System.arraycopy(inBuf, inOfs + ptLen, kd.tag, 0, macSize);
+
+        cph.process(inBuf, inOfs, outBuf, outOfs, ptLen);
+        cph.finalize(kd.tag, macSize);
+
+        if (!Utils.constantTimeEquals(kd.tag, 0, kd.tag, macSize, macSize)) {
+            Arrays.fill(outBuf, outOfs, outOfs + ptLen, (byte)0);
+            throw new ESJException("authentication failed");
+        }
+        return ptLen;
+    }
+
+    /**
+     * Erases the key material kept for the calling thread.
+     */
+    public void erase() {
+        Keyed kd = this.local.get();
+        if (null != kd) {
+            kd.erase();
+            this.local.remove();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // the keyed instances of one thread, one per mode
+    static class Keyed {
+        ICipherMAC[] cphs = new ICipherMAC[2];
+        byte[][] keys = new byte[2][];
+        boolean[] hasKey = new boolean[2];
+        byte[] tag;
+
+        void erase() {
+            for (int i = 0; i < 2; i++) {
+                if (null != this.cphs[i]) {
+                    this.cphs[i].erase();
+                    Arrays.fill(this.keys[i], (byte)0);
+                    this.hasKey[i] = false;
+                }
+            }
+            Arrays.fill(this.tag, (byte)0);
+        }
+    }
+
+    ICipherMAC prepare(
+            int mode,
+            byte[] key,
+            int keyOfs,
+            byte[] nonce,
+            int nonceOfs,
+            byte[] aad,
+            int aadOfs,
+            int aadLen) throws ESJException {
+        checkRange(key, keyOfs, this.keySize);
+        checkRange(nonce, nonceOfs, this.nonceSize);
+        if (0 < aadLen) {
+            checkRange(aad, aadOfs, aadLen);
+        }
+
+        Keyed kd = this.local.get();
+        if (null == kd) {
+            kd = new Keyed();
+            kd.tag = new byte[this.macSize << 1];
+            this.local.set(kd);
+        }
+        int idx = ICipher.MODE_ENCRYPT == mode ? 0 : 1;
+        ICipherMAC cph = kd.cphs[idx];
+        if (null == cph) {
+            cph = (ICipherMAC)Engine.createCipher(this.cipherName);
+            kd.cphs[idx] = cph;
+            kd.keys[idx] = new byte[this.keySize];
+        }
+
+        byte[] kept = kd.keys[idx];
+        if (!kd.hasKey[idx] ||
+            !Utils.constantTimeEquals(kept, 0, key, keyOfs, kept.length)) {
+            kd.hasKey[idx] = false;
+            cph.reset();
+            cph.setupKey(mode, key, keyOfs);
+            System.arraycopy(key, keyOfs, kept, 0, kept.length);
+            kd.hasKey[idx] = true;
+        }
+        cph.setupNonce(nonce, nonceOfs);
+        if (0 < aadLen) {
+            cph.processAAD(aad, aadOfs, aadLen);
+        }
+        return cph;
+    }
+
+    static void checkRange(byte[] buf, int ofs, int len) throws ESJException {
+        if (null == buf || 0 > ofs || 0 > len || ofs + len > buf.length) {
+            throw new ESJException("invalid buffer range");
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lifts the alignment restrictions of a cipher, so data of any length can be
+ * passed on any call into process(). Aligned portions go straight through to
+ * the cipher, for a trailing partial word a whole word of keystream gets made
+ * and what isn't used of it is kept for the next call. Works with all ciphers
+ * which produce raw keystream (see ICipher.generateKeystream()).
+ */
+public class AnyLengthAdapter implements ICipher {
+    ICipher cph;
+    int wordSize;
+    byte[] rest;
+    int restLen;
+
+    /**
+     * Wraps a cipher, but only if it is needed.
+     * @param cph the cipher to wrap
+     * @return the cipher itself if it accepts any length already, otherwise a
+     * new adapter around it
+     */
+    public static ICipher wrap(ICipher cph) {
+        return cph.acceptsAnyLength() ? cph : new AnyLengthAdapter(cph);
+    }
+
+    /**
+     * Default constructor.
+     * @param cph the cipher to wrap, should be set up through the adapter
+     * from now on
+     */
+    public AnyLengthAdapter(ICipher cph) {
+        this.cph = cph;
+        this.wordSize = cph.getWordSize();
+        this.rest = new byte[this.wordSize];
+    }
+
+    /**
+     * @return the wrapped cipher
+     */
+    public ICipher getCipher() {
+        return this.cph;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public boolean isPatented() {
+        return this.cph.isPatented();
+    }
+
+    public int getKeySize() {
+        return this.cph.getKeySize();
+    }
+
+    public int getNonceSize() {
+        return this.cph.getNonceSize();
+    }
+
+    public int getWordSize() {
+        return this.wordSize;
+    }
+
+    public boolean acceptsAnyLength() {
+        return true;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void reset() throws ESJException {
+        this.cph.reset();
+        this.restLen = 0;
+    }
+
+    public void setupKey(int mode, byte[] key, int ofs) throws ESJException {
+        this.cph.setupKey(mode, key, ofs);
+        this.restLen = 0;
+    }
+
+    public void setupNonce(byte[] nonce, int ofs) throws ESJException {
+        this.cph.setupNonce(nonce, ofs);
+        this.restLen = 0;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void process(
+            byte[] inBuf,
+            int inOfs,
+            byte[] outBuf,
+            int outOfs,
+            int len) throws ESJException {
+        byte[] rest = this.rest;
+        int c;
+
+        // use up what's left from the last call first
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            Utils.xor(inBuf, inOfs, rest, this.wordSize - this.restLen,
+                      outBuf, outOfs, c);
+            this.restLen -= c;
+            inOfs += c;
+            outOfs += c;
+            len -= c;
+        }
+
+        c = len - (len % this.wordSize);
+        if (0 < c) {
+            this.cph.process(inBuf, inOfs, outBuf, outOfs, c);
+            inOfs += c;
+            outOfs += c;
+            len -= c;
+        }
+
+        if (0 < len) {
+            this.cph.generateKeystream(rest, 0, this.wordSize);
+            Utils.xor(inBuf, inOfs, rest, 0, outBuf, outOfs, len);
+            this.restLen = this.wordSize - len;
+        }
+    }
+
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        byte[] rest = this.rest;
+        int c;
+
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            Utils.xor(in, inPos, rest, this.wordSize - this.restLen,
+                      out, outPos, c);
+            this.restLen -= c;
+            inPos += c;
+            outPos += c;
+            len -= c;
+        }
+
+        // (the aligned part goes to the cipher's own buffer processing, the
+        // input gets limited temporarily instead of making a slice of it)
+        c = len - (len % this.wordSize);
+        if (0 < c) {
+            int inLimit = in.limit();
+            try {
+                in.limit(inPos + c).position(inPos);
+                out.position(outPos);
+                this.cph.process(in, out);
+            }
+            finally {
+                in.limit(inLimit);
+            }
+            inPos += c;
+            outPos += c;
+            len -= c;
+        }
+
+        if (0 < len) {
+            this.cph.generateKeystream(rest, 0, this.wordSize);
+            Utils.xor(in, inPos, rest, 0, out, outPos, len);
+            this.restLen = this.wordSize - len;
+        }
+        in.position(inPos + len);
+        out.position(outPos + len);
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        int c;
+
+        if (0 < this.restLen) {
+            c = Math.min(len, this.restLen);
+            System.arraycopy(this.rest, this.wordSize - this.restLen,
+                    out, ofs, c);
+            this.restLen -= c;
+            ofs += c;
+            len -= c;
+        }
+
+        c = len - (len % this.wordSize);
+        if (0 < c) {
+            this.cph.generateKeystream(out, ofs, c);
+            ofs += c;
+            len -= c;
+        }
+
+        if (0 < len) {
+            this.cph.generateKeystream(this.rest, 0, this.wordSize);
+            System.arraycopy(this.rest, 0, out, ofs, len);
+            this.restLen = this.wordSize - len;
+        }
+    }
+
+    public void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int c;
+
+        if (0 < this.restLen) {
+            c = (int)Math.min(n, this.restLen);
+            this.restLen -= c;
+            n -= c;
+        }
+
+        long aligned = n - (n % this.wordSize);
+        if (0 < aligned) {
+            this.cph.skip(aligned);
+            n -= aligned;
+        }
+
+        if (0 < n) {
+            this.cph.generateKeystream(this.rest, 0, this.wordSize);
+            this.restLen = this.wordSize - (int)n;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (!(src instanceof AnyLengthAdapter)) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        AnyLengthAdapter other = (AnyLengthAdapter)src;
+        if (other.wordSize != this.wordSize) {
+            throw new ESJException("incompatible cipher instance");
+        }
+        this.cph.copyStateFrom(other.cph);
+        System.arraycopy(other.rest, 0, this.rest, 0, this.rest.length);
+        this.restLen = other.restLen;
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        st.putInt(CipherState.cipherId(this.cph));
+        this.cph.exportState(st);
+        st.putBytes(this.rest);
+        st.putInt(this.restLen);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        st.checkInt(CipherState.cipherId(this.cph));
+        this.cph.importState(st);
+        st.getBytes(this.rest);
+        this.restLen = st.getInt(0, this.wordSize - 1);
+    }
+
+    public ICipher fork() throws ESJException {
+        AnyLengthAdapter result = new AnyLengthAdapter(this.cph.fork());
+        System.arraycopy(this.rest, 0, result.rest, 0, this.rest.length);
+        result.restLen = this.restLen;
+        return result;
+    }
+
+    public void erase() {
+        this.cph.erase();
+        Arrays.fill(this.rest, (byte)0);
+        this.restLen = 0;
+    }
+}
@@ -0,0 +1,60 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events emitted by instrumented ciphers (see
+ * InstrumentedCipher). As long as no recording has them enabled creating and
+ * checking them costs nothing, the JIT removes all of it.
+ */
+@Category({ "estreamj", "Cipher" })
+@StackTrace(false)
+public abstract class CipherEvent extends Event {
+    @Label("Cipher")
+    @Description("Name of the cipher")
+    String cipherName;
+
+    @Label("Bytes")
+    @Description("Number of bytes processed")
+    @DataAmount
+    long bytes;
+
+    final void emit(String cipherName, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.cipherName = cipherName;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Name("de.org.mchahn.crypto.estreamj.KeySetup")
+    @Label("Cipher Key Setup")
+    @StackTrace(true)
+    static class KeySetup extends CipherEvent {
+    }
+
+    @Name("de.org.mchahn.crypto.estreamj.NonceSetup")
+    @Label("Cipher Nonce Setup")
+    static class NonceSetup extends CipherEvent {
+    }
+
+    @Name("de.org.mchahn.crypto.estreamj.Process")
+    @Label("Cipher Processing")
+    @Description("Data or keystream processed, including AAD and batches")
+    static class Process extends CipherEvent {
+    }
+
+    @Name("de.org.mchahn.crypto.estreamj.Finalize")
+    @Label("Cipher MAC Finalization")
+    static class Finalize extends CipherEvent {
+    }
+}
@@ -0,0 +1,152 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+/**
+ * Describes what a cipher can do and what it needs, without having to create
+ * an instance of it. Instances of this class are immutable.
+ */
+public final class CipherInfo {
+    /**
+     * the preferred chunk size if a cipher does not tell, gets aligned to the
+     * word size
+     */
+    public static final int DEF_CHUNK_SIZE = 4096;
+
+    final int keySize;
+    final int nonceSize;
+    final int wordSize;
+    final int macSize;
+    final boolean seekable;
+    final boolean anyLength;
+    final int stateSize;
+    final int chunkSize;
+
+    /**
+     * Default constructor.
+     * @param keySize key size in bytes
+     * @param nonceSize nonce size in bytes
+     * @param wordSize word size in bytes
+     * @param macSize MAC size in bytes, 0 if no MAC is computed
+     * @param seekable true if instances implement ISeekableCipher
+     * @param anyLength true if instances accept data of any length on every
+     * call, see ICipher.acceptsAnyLength()
+     * @param stateSize number of bytes of running state a keyed instance
+     * keeps, as exported via CipherState (scratch buffers and tables shared
+     * by all instances do not count); -1 if unknown
+     * @param chunkSize number of bytes to pass per process() call for best
+     * bulk throughput, i.e. the smallest size where it levels off (see the
+     * chunk size tests in PerformanceLab); -1 for the default, gets aligned
+     * to the word size
+     */
+    public CipherInfo(
+            int keySize,
+            int nonceSize,
+            int wordSize,
+            int macSize,
+            boolean seekable,
+            boolean anyLength,
+            int stateSize,
+            int chunkSize) {
+        this.keySize = keySize;
+        this.nonceSize = nonceSize;
+        this.wordSize = wordSize;
+        this.macSize = macSize;
+        this.seekable = seekable;
+        this.anyLength = anyLength;
+        this.stateSize = stateSize;
+
+        chunkSize = -1 == chunkSize ? DEF_CHUNK_SIZE : chunkSize;
+        chunkSize -= chunkSize % wordSize;
+        this.chunkSize = 0 < chunkSize ? chunkSize : wordSize;
+    }
+
+    /**
+     * Derives the information from a cipher instance. The state size is
+     * unknown then, the chunk size is the default one.
+     * @param cph the instance to look at
+     * @return new information instance
+     */
+    public static CipherInfo of(ICipher cph) {
+        return new CipherInfo(
+                cph.getKeySize(),
+                cph.getNonceSize(),
+                cph.getWordSize(),
+                cph instanceof ICipherMAC ? ((ICipherMAC)cph).getMacSize() : 0,
+                cph instanceof ISeekableCipher,
+                cph.acceptsAnyLength(),
+                -1,
+                -1);
+    }
+
+    /**
+     * @return key size in bytes
+     */
+    public int getKeySize() {
+        return this.keySize;
+    }
+
+    /**
+     * @return nonce size in bytes
+     */
+    public int getNonceSize() {
+        return this.nonceSize;
+    }
+
+    /**
+     * @return word size in bytes
+     */
+    public int getWordSize() {
+        return this.wordSize;
+    }
+
+    /**
+     * @return true if the cipher computes MACs, meaning that instances
+     * implement ICipherMAC
+     */
+    public boolean hasMac() {
+        return 0 < this.macSize;
+    }
+
+    /**
+     * @return MAC size in bytes, 0 if no MAC gets computed
+     */
+    public int getMacSize() {
+        return this.macSize;
+    }
+
+    /**
+     * @return true if instances implement ISeekableCipher
+     */
+    public boolean isSeekable() {
+        return this.seekable;
+    }
+
+    /**
+     * @return true if data of any length can be passed on every call
+     */
+    public boolean acceptsAnyLength() {
+        return this.anyLength;
+    }
+
+    /**
+     * @return number of bytes of running state a keyed instance keeps, i.e.
+     * the size of its exported state; -1 if unknown
+     */
+    public int getStateSize() {
+        return this.stateSize;
+    }
+
+    /**
+     * @return number of bytes to pass per call for best bulk throughput,
+     * always aligned to the word size
+     */
+    public int getPreferredChunkSize() {
+        return this.chunkSize;
+    }
+
+    public String toString() {
+        return "key=" + this.keySize + ",nonce=" + this.nonceSize +
+               ",word=" + this.wordSize + ",mac=" + this.macSize +
+               ",seekable=" + this.seekable + ",anyLength=" + this.anyLength +
+               ",state=" + this.stateSize + ",chunk=" + this.chunkSize;
+    }
+}
@@ -0,0 +1,178 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Input stream running everything read from another one through a cipher.
+ * Data gets read in large blocks and processed in portions aligned to the
+ * cipher's word size, the unaligned tail gets processed once the end of the
+ * underlying stream is reached. For ciphers doing MAC computation the last
+ * bytes of the stream are taken as the tag, which gets checked at its end;
+ * closing the stream early reads the rest, so the check happens in any case.
+ * Mind that data handed out before the check is unauthenticated. The cipher
+ * must have been set up (key, nonce and AAD if any) before the first read and
+ * must not be used otherwise while the stream is open.
+ */
+public class CipherInputStream extends InputStream {
+    InputStream in;
+    ICipher cph;
+    int wordSize;
+    int macSize;
+    byte[] inBuf;
+    int inLen;
+    byte[] outBuf;
+    int outPos;
+    int outEnd;
+    byte[] single = new byte[1];
+    boolean eof;
+    boolean closed;
+
+    /**
+     * Default constructor, using the default buffer size.
+     * @param in where the data to process comes from
+     * @param cph the cipher, ready to process
+     */
+    public CipherInputStream(InputStream in, ICipher cph) {
+        this(in, cph, CipherOutputStream.defBufSize(cph));
+    }
+
+    /**
+     * Creates a stream with a custom buffer size.
+     * @param in where the data to process comes from
+     * @param cph the cipher, ready to process
+     * @param bufSize buffer size in bytes, gets aligned to the word size
+     */
+    public CipherInputStream(InputStream in, ICipher cph, int bufSize) {
+        this.in = in;
+        this.cph = cph;
+        this.wordSize = cph.getWordSize();
+        this.macSize = cph instanceof ICipherMAC ?
+                ((ICipherMAC)cph).getMacSize() : 0;
+        bufSize = CipherOutputStream.alignBufSize(this.wordSize, bufSize);
+        // (room for the tag which always needs to be held back)
+        this.inBuf = new byte[bufSize + this.macSize];
+        this.outBuf = new byte[bufSize];
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public int read() throws IOException {
+        return -1 == read(this.single, 0, 1) ? -1 : this.single[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        if (null == b) {
+            throw new NullPointerException();
+        }
+        if (0 > off || 0 > len || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (0 == len) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int c = Math.min(len, this.outEnd - this.outPos);
+        System.arraycopy(this.outBuf, this.outPos, b, off, c);
+        this.outPos += c;
+        return c;
+    }
+
+    public int available() throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        return this.outEnd - this.outPos;
+    }
+
+    /**
+     * Closes the underlying stream. With a MAC cipher the rest of the stream
+     * gets read first, to check the tag.
+     * @throws IOException if reading failed or the data is not authentic
+     */
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            if (0 < this.macSize) {
+                while (fill()) {
+                    this.outPos = this.outEnd;
+                }
+            }
+        }
+        finally {
+            this.closed = true;
+            Arrays.fill(this.inBuf, (byte)0);
+            Arrays.fill(this.outBuf, (byte)0);
+            this.outPos = this.outEnd = 0;
+            this.in.close();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // makes sure there is processed data, returns false at the end
+    boolean fill() throws IOException {
+        byte[] inBuf = this.inBuf;
+        while (this.outPos == this.outEnd) {
+            if (this.eof) {
+                return false;
+            }
+            int n = this.in.read(inBuf, this.inLen, inBuf.length - this.inLen);
+            if (-1 == n) {
+                finish();
+                continue;
+            }
+            this.inLen += n;
+            int avail = this.inLen - this.macSize;
+            int c = avail - (avail % this.wordSize);
+            if (0 < c) {
+                try {
+                    this.cph.process(inBuf, 0, this.outBuf, 0, c);
+                }
+                catch (ESJException esje) {
+                    throw new IOException(esje);
+                }
+                System.arraycopy(inBuf, c, inBuf, 0, this.inLen - c);
+                this.inLen -= c;
+                this.outPos = 0;
+                this.outEnd = c;
+            }
+        }
+        return true;
+    }
+
+    void finish() throws IOException {
+        this.eof = true;
+        int len = this.inLen - this.macSize;
+        if (0 > len) {
+            throw new IOException("stream shorter than the tag");
+        }
+        try {
+            if (0 < len) {
+                this.cph.process(this.inBuf, 0, this.outBuf, 0, len);
+            }
+            if (0 < this.macSize) {
+                byte[] tag = new byte[this.macSize];
+                ((ICipherMAC)this.cph).finalize(tag, 0);
+                if (!Utils.constantTimeEquals(
+                        tag, 0, this.inBuf, len, this.macSize)) {
+                    Arrays.fill(this.outBuf, 0, len, (byte)0);
+                    throw new ESJException("authentication failed");
+                }
+            }
+        }
+        catch (ESJException esje) {
+            throw new IOException(esje);
+        }
+        this.outPos = 0;
+        this.outEnd = len;
+    }
+}
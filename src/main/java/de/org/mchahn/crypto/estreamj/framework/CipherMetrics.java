@@ -0,0 +1,94 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals of everything instrumented instances of one cipher did, across all
+ * threads. The counters are striped, so many threads can update them at the
+ * same time without contending on a single memory location.
+ */
+public class CipherMetrics implements CipherMetricsMBean {
+    String cipherName;
+    LongAdder processCalls = new LongAdder();
+    LongAdder processedBytes = new LongAdder();
+    LongAdder processNanos = new LongAdder();
+    LongAdder keySetups = new LongAdder();
+    LongAdder keySetupNanos = new LongAdder();
+    LongAdder nonceSetups = new LongAdder();
+    LongAdder nonceSetupNanos = new LongAdder();
+    LongAdder aadBytes = new LongAdder();
+    LongAdder macNanos = new LongAdder();
+
+    /**
+     * Default constructor.
+     * @param cipherName name of the cipher the metrics are for
+     */
+    public CipherMetrics(String cipherName) {
+        this.cipherName = cipherName;
+    }
+
+    public String getCipherName() {
+        return this.cipherName;
+    }
+
+    public long getProcessCalls() {
+        return this.processCalls.sum();
+    }
+
+    public long getProcessedBytes() {
+        return this.processedBytes.sum();
+    }
+
+    public long getProcessNanos() {
+        return this.processNanos.sum();
+    }
+
+    public long getKeySetups() {
+        return this.keySetups.sum();
+    }
+
+    public long getKeySetupNanos() {
+        return this.keySetupNanos.sum();
+    }
+
+    public long getNonceSetups() {
+        return this.nonceSetups.sum();
+    }
+
+    public long getNonceSetupNanos() {
+        return this.nonceSetupNanos.sum();
+    }
+
+    public long getAADBytes() {
+        return this.aadBytes.sum();
+    }
+
+    public long getMacNanos() {
+        return this.macNanos.sum();
+    }
+
+    public void reset() {
+        this.processCalls.reset();
+        this.processedBytes.reset();
+        this.processNanos.reset();
+        this.keySetups.reset();
+        this.keySetupNanos.reset();
+        this.nonceSetups.reset();
+        this.nonceSetupNanos.reset();
+        this.aadBytes.reset();
+        this.macNanos.reset();
+    }
+
+    public String toString() {
+        return this.cipherName +
+               ":calls=" + getProcessCalls() +
+               ",bytes=" + getProcessedBytes() +
+               ",processNanos=" + getProcessNanos() +
+               ",keySetups=" + getKeySetups() +
+               ",keySetupNanos=" + getKeySetupNanos() +
+               ",nonceSetups=" + getNonceSetups() +
+               ",nonceSetupNanos=" + getNonceSetupNanos() +
+               ",aadBytes=" + getAADBytes() +
+               ",macNanos=" + getMacNanos();
+    }
+}
@@ -0,0 +1,61 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+/**
+ * Management interface of the per cipher metrics, see CipherMetrics.
+ */
+public interface CipherMetricsMBean {
+    /**
+     * @return name of the cipher
+     */
+    public String getCipherName();
+
+    /**
+     * @return number of process calls (including keystream generation)
+     */
+    public long getProcessCalls();
+
+    /**
+     * @return number of bytes processed
+     */
+    public long getProcessedBytes();
+
+    /**
+     * @return nanoseconds spent processing data
+     */
+    public long getProcessNanos();
+
+    /**
+     * @return number of key setups
+     */
+    public long getKeySetups();
+
+    /**
+     * @return nanoseconds spent setting up keys
+     */
+    public long getKeySetupNanos();
+
+    /**
+     * @return number of nonce setups
+     */
+    public long getNonceSetups();
+
+    /**
+     * @return nanoseconds spent setting up nonces
+     */
+    public long getNonceSetupNanos();
+
+    /**
+     * @return number of AAD bytes processed, for ciphers computing MACs
+     */
+    public long getAADBytes();
+
+    /**
+     * @return nanoseconds spent on AAD processing and MAC finalization
+     */
+    public long getMacNanos();
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public void reset();
+}
@@ -0,0 +1,165 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream running everything written to it through a cipher. Data gets
+ * collected in a buffer aligned to the cipher's word size and processed in
+ * large blocks, so the cipher only ever sees whole words until the stream is
+ * closed, where the unaligned tail gets processed. For ciphers doing MAC
+ * computation the tag gets appended on close. The cipher must have been set
+ * up (key, nonce and AAD if any) before the first write and must not be used
+ * otherwise while the stream is open.
+ */
+public class CipherOutputStream extends OutputStream {
+    /**
+     * default buffer size, gets rounded to a multiple of the cipher's
+     * preferred chunk size (see CipherInfo)
+     */
+    public static final int DEF_BUF_SIZE = 1 << 16;
+
+    OutputStream out;
+    ICipher cph;
+    int wordSize;
+    byte[] buf;
+    int bufLen;
+    byte[] single = new byte[1];
+    boolean closed;
+
+    /**
+     * Default constructor, using the default buffer size.
+     * @param out where the processed data goes to
+     * @param cph the cipher, ready to process
+     */
+    public CipherOutputStream(OutputStream out, ICipher cph) {
+        this(out, cph, defBufSize(cph));
+    }
+
+    /**
+     * Creates a stream with a custom buffer size.
+     * @param out where the processed data goes to
+     * @param cph the cipher, ready to process
+     * @param bufSize buffer size in bytes, gets aligned to the word size
+     */
+    public CipherOutputStream(OutputStream out, ICipher cph, int bufSize) {
+        this.out = out;
+        this.cph = cph;
+        this.wordSize = cph.getWordSize();
+        this.buf = new byte[alignBufSize(this.wordSize, bufSize)];
+    }
+
+    static int defBufSize(ICipher cph) {
+        int chunk = Engine.getPreferredChunkSize(cph);
+        return Math.max(1, DEF_BUF_SIZE / chunk) * chunk;
+    }
+
+    static int alignBufSize(int wordSize, int bufSize) {
+        int result = bufSize - (bufSize % wordSize);
+        return result < wordSize ? wordSize : result;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void write(int b) throws IOException {
+        this.single[0] = (byte)b;
+        write(this.single, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        if (null == b) {
+            throw new NullPointerException();
+        }
+        if (0 > off || 0 > len || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        byte[] buf = this.buf;
+        try {
+            while (0 < len) {
+                // (large writes skip copying into the buffer)
+                if (0 == this.bufLen && buf.length <= len) {
+                    this.cph.process(b, off, buf, 0, buf.length);
+                    this.out.write(buf, 0, buf.length);
+                    off += buf.length;
+                    len -= buf.length;
+                    continue;
+                }
+                int c = Math.min(len, buf.length - this.bufLen);
+                System.arraycopy(b, off, buf, this.bufLen, c);
+                this.bufLen += c;
+                off += c;
+                len -= c;
+                if (buf.length == this.bufLen) {
+                    this.cph.process(buf, 0, buf, 0, buf.length);
+                    this.out.write(buf, 0, buf.length);
+                    this.bufLen = 0;
+                }
+            }
+        }
+        catch (ESJException esje) {
+            throw new IOException(esje);
+        }
+    }
+
+    /**
+     * Passes on all whole words written so far. An unaligned rest stays in
+     * the buffer, since the cipher cannot continue after it.
+     */
+    public void flush() throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        int c = this.bufLen - (this.bufLen % this.wordSize);
+        if (0 < c) {
+            byte[] buf = this.buf;
+            try {
+                this.cph.process(buf, 0, buf, 0, c);
+            }
+            catch (ESJException esje) {
+                throw new IOException(esje);
+            }
+            this.out.write(buf, 0, c);
+            System.arraycopy(buf, c, buf, 0, this.bufLen - c);
+            this.bufLen -= c;
+        }
+        this.out.flush();
+    }
+
+    /**
+     * Processes what is left, writes the tag if the cipher makes one and
+     * closes the underlying stream.
+     */
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        byte[] buf = this.buf;
+        try {
+            int len = this.bufLen;
+            if (0 < len) {
+                this.cph.process(buf, 0, buf, 0, len);
+                this.out.write(buf, 0, len);
+            }
+            if (this.cph instanceof ICipherMAC) {
+                ICipherMAC mac = (ICipherMAC)this.cph;
+                byte[] tag = new byte[mac.getMacSize()];
+                mac.finalize(tag, 0);
+                this.out.write(tag);
+            }
+            this.out.flush();
+        }
+        catch (ESJException esje) {
+            throw new IOException(esje);
+        }
+        finally {
+            Arrays.fill(buf, (byte)0);
+            this.bufLen = 0;
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps erased instances of a particular cipher around for reuse, so session
+ * setups do not need to allocate (and zero) the whole cipher state each time.
+ * Released instances go to a small per-thread cache first, the rest into a
+ * bounded queue shared by all threads; anything beyond gets dropped. So do
+ * instances of another cipher and ones which are in the pool already, since
+ * they would be handed out twice otherwise.
+ */
+class CipherPool {
+    static final int DEF_LOCAL_SIZE = 4;
+    static final int DEF_SHARED_SIZE = 64;
+
+    ICipherMaker maker;
+    volatile Class<?> cls;
+    // (ciphers do not override equals(), so this goes by identity)
+    Set<ICipher> pooled = ConcurrentHashMap.newKeySet();
+    int localSize;
+    ArrayBlockingQueue<ICipher> shared;
+    ThreadLocal<ArrayDeque<ICipher>> local =
+        ThreadLocal.withInitial(() -> new ArrayDeque<>());
+
+    CipherPool(ICipherMaker maker, int localSize, int sharedSize) {
+        this.maker = maker;
+        this.localSize = localSize;
+        this.shared = new ArrayBlockingQueue<>(sharedSize);
+    }
+
+    ICipher acquire() throws ESJException {
+        ICipher result = this.local.get().pollLast();
+        if (null == result) {
+            result = this.shared.poll();
+            if (null == result) {
+                result = Engine.make(this.maker);
+                this.cls = result.getClass();
+                return result;
+            }
+        }
+        this.pooled.remove(result);
+        return result;
+    }
+
+    void release(ICipher cph) {
+        if (cph.getClass() != this.cls) {
+            cph.erase();
+            return;
+        }
+        if (!this.pooled.add(cph)) {
+            return;     // (erased already)
+        }
+        cph.erase();
+
+        ArrayDeque<ICipher> lcl = this.local.get();
+        if (lcl.size() < this.localSize) {
+            lcl.addLast(cph);
+        }
+        else if (!this.shared.offer(cph)) {
+            this.pooled.remove(cph);
+        }
+    }
+
+    int size() {
+        return this.local.get().size() + this.shared.size();
+    }
+}
@@ -0,0 +1,278 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive stage running a stream of buffers through a cipher. Items from
+ * upstream get copied into batches aligned to the cipher's word size, and
+ * each batch is processed with a single call once it is full or all the
+ * items requested so far have arrived - so lots of small items do not cost a
+ * cipher call each. Processed batches go downstream as items of their own,
+ * only as many as got requested; upstream items are requested in rounds and
+ * only while there is demand. The unaligned tail of the stream gets processed
+ * on completion.
+ * <p>
+ * Batches come from a pool and go back into it (wiped up to their limit) as
+ * soon as onNext() returns, so a subscriber must not hold on to the buffers it
+ * gets (copy what is needed later), nor write beyond their limit. Upstream
+ * buffers are not kept either, they can be reused right after onNext(). Only
+ * one subscriber is supported. The cipher must have been set up (key and
+ * nonce) before and gets erased once the stream ends, along with whatever
+ * data is still left; MAC ciphers are not supported.
+ */
+public class CipherProcessor
+    implements Flow.Processor<ByteBuffer, ByteBuffer> {
+    /**
+     * default batch size
+     */
+    public static final int DEF_BATCH_SIZE = 64 << 10;
+
+    /**
+     * how many items get requested from upstream at a time
+     */
+    public static final int PREFETCH = 64;
+
+    ICipher cph;
+    int wordSize;
+    int chunkSize;
+    DirectBufferPool pool;
+    ByteBuffer batch;
+
+    Flow.Subscription upstream;
+    Flow.Subscriber<? super ByteBuffer> downstream;
+    ConcurrentLinkedQueue<ByteBuffer> ready = new ConcurrentLinkedQueue<>();
+    AtomicLong demand = new AtomicLong();
+    AtomicLong outstanding = new AtomicLong();
+    AtomicInteger wip = new AtomicInteger();
+    volatile boolean done;
+    volatile boolean cancelled;
+    volatile Throwable error;
+    boolean terminated;
+
+    /**
+     * Default constructor, using the default batch size.
+     * @param cph the cipher, ready to process
+     * @throws ESJException if the cipher cannot be used
+     */
+    public CipherProcessor(ICipher cph) throws ESJException {
+        this(cph, DEF_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a processor with a custom batch size.
+     * @param cph the cipher, ready to process
+     * @param batchSize maximum number of bytes per batch, gets aligned to the
+     * cipher's word size
+     * @throws ESJException if the cipher cannot be used
+     */
+    public CipherProcessor(ICipher cph, int batchSize) throws ESJException {
+        if (cph instanceof ICipherMAC) {
+            throw new ESJException("MAC ciphers are not supported");
+        }
+        this.cph = cph;
+        this.wordSize = cph.getWordSize();
+        this.chunkSize = CipherOutputStream.alignBufSize(
+                this.wordSize, batchSize);
+        this.pool = new DirectBufferPool(this.chunkSize, 2 * PREFETCH);
+        this.batch = this.pool.acquire();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        boolean first = false;
+        synchronized (this) {
+            if (null == this.downstream) {
+                this.downstream = subscriber;
+                first = true;
+            }
+        }
+        if (first) {
+            subscriber.onSubscribe(new Subscription());
+            // (in case the stream has ended already)
+            drain();
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            public void request(long n) { }
+            public void cancel() { }
+        });
+        subscriber.onError(new IllegalStateException(
+                "only one subscriber supported"));
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (null != this.upstream) {
+            subscription.cancel();
+            return;
+        }
+        this.upstream = subscription;
+        drain();
+    }
+
+    public void onNext(ByteBuffer item) {
+        if (this.done) {
+            return;
+        }
+        try {
+            ByteBuffer batch = this.batch;
+            while (item.hasRemaining()) {
+                int c = Math.min(item.remaining(), batch.remaining());
+                batch.put(batch.position(), item, item.position(), c);
+                batch.position(batch.position() + c);
+                item.position(item.position() + c);
+                if (!batch.hasRemaining()) {
+                    batch = flush(false);
+                }
+            }
+            if (0 == this.outstanding.decrementAndGet()) {
+                flush(false);
+            }
+        }
+        catch (ESJException esje) {
+            this.upstream.cancel();
+            onError(esje);
+            return;
+        }
+        drain();
+    }
+
+    public void onError(Throwable throwable) {
+        if (this.done) {
+            return;
+        }
+        this.error = throwable;
+        this.done = true;
+        drain();
+    }
+
+    public void onComplete() {
+        if (this.done) {
+            return;
+        }
+        try {
+            flush(true);
+        }
+        catch (ESJException esje) {
+            this.error = esje;
+        }
+        this.done = true;
+        drain();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // processes the aligned part of the batch (everything if it's the last
+    // one) and queues it, the rest goes into a new batch
+    ByteBuffer flush(boolean last) throws ESJException {
+        ByteBuffer batch = this.batch;
+        int len = batch.position();
+        int c = last ? len : len - len % this.wordSize;
+        if (0 == c) {
+            return batch;
+        }
+        ByteBuffer next = this.pool.acquire();
+        next.put(0, batch, c, len - c).position(len - c);
+        this.batch = next;
+        // (the tail moved, so nothing is left beyond the processed part)
+        DirectBufferPool.wipe(batch, c, len);
+
+        batch.limit(c).position(0);
+        // (a cancellation might erase the cipher at any time)
+        synchronized (this.cph) {
+            if (this.cancelled) {
+                throw new ESJException("stream cancelled");
+            }
+            this.cph.process(batch, batch.duplicate());
+        }
+        this.ready.offer(batch.flip());
+        return next;
+    }
+
+    void drain() {
+        if (0 != this.wip.getAndIncrement()) {
+            return;
+        }
+        int missed = 1;
+        for (;;) {
+            if (this.cancelled) {
+                cleanup();
+            }
+            else if (null != this.downstream) {
+                Flow.Subscriber<? super ByteBuffer> down = this.downstream;
+                Throwable error = this.error;
+                ByteBuffer buf;
+                while (null == error && 0 < this.demand.get() &&
+                       null != (buf = this.ready.poll())) {
+                    this.demand.decrementAndGet();
+                    int used = buf.limit();
+                    down.onNext(buf);
+                    this.pool.release(buf, used);
+                }
+                if (this.done && (null != error || this.ready.isEmpty())) {
+                    if (!this.terminated) {
+                        this.terminated = true;
+                        cleanup();
+                        if (null == error) {
+                            down.onComplete();
+                        }
+                        else {
+                            down.onError(error);
+                        }
+                    }
+                }
+                else if (!this.done && this.ready.isEmpty() &&
+                         0 < this.demand.get() && null != this.upstream &&
+                         0 == this.outstanding.get()) {
+                    this.outstanding.set(PREFETCH);
+                    this.upstream.request(PREFETCH);
+                }
+            }
+            missed = this.wip.addAndGet(-missed);
+            if (0 == missed) {
+                break;
+            }
+        }
+    }
+
+    // wipes whatever data is left, processed or not
+    void cleanup() {
+        ByteBuffer buf;
+        while (null != (buf = this.ready.poll())) {
+            this.pool.release(buf, buf.limit());
+        }
+        DirectBufferPool.wipe(this.batch, 0, this.batch.capacity());
+        synchronized (this.cph) {
+            this.cph.erase();
+        }
+    }
+
+    class Subscription implements Flow.Subscription {
+        public void request(long n) {
+            if (0 >= n) {
+                CipherProcessor.this.onError(new IllegalArgumentException(
+                        "non-positive request " + n));
+                cancel();
+                return;
+            }
+            CipherProcessor.this.demand.accumulateAndGet(n, (a, b) -> {
+                long sum = a + b;
+                return 0 > sum ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        public void cancel() {
+            CipherProcessor.this.cancelled = true;
+            Flow.Subscription up = CipherProcessor.this.upstream;
+            if (null != up) {
+                up.cancel();
+            }
+            drain();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel decrypting (or encrypting) everything read from another one. The
+ * data gets read straight into the caller's buffer and processed in place
+ * there, so there are no copies and no extra buffers at all; large reads thus
+ * get passed through as such. The cipher must have been set up (key and
+ * nonce) before the first read and must not be used otherwise while the
+ * channel is open. MAC ciphers are not supported, their tags need framing
+ * (see CipherInputStream).
+ */
+public class CipherReadableChannel implements ReadableByteChannel {
+    ReadableByteChannel ch;
+    ICipher cph;
+    boolean open = true;
+
+    /**
+     * Default constructor.
+     * @param ch the channel delivering the data to process
+     * @param cph the cipher, ready to process
+     * @throws ESJException if the cipher cannot be used
+     */
+    public CipherReadableChannel(ReadableByteChannel ch, ICipher cph)
+        throws ESJException {
+        this.ch = ch;
+        this.cph = CipherWritableChannel.anyLength(cph);
+    }
+
+    // processes what got read into the buffer from the given position on
+    static void processInPlace(ICipher cph, ByteBuffer dst, int pos)
+        throws IOException {
+        int end = dst.position();
+        int limit = dst.limit();
+        try {
+            dst.limit(end).position(pos);
+            cph.process(dst, dst);
+        }
+        catch (ESJException esje) {
+            throw new IOException(esje);
+        }
+        finally {
+            dst.limit(limit).position(end);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public boolean isOpen() {
+        return this.open && this.ch.isOpen();
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        int pos = dst.position();
+        int result = this.ch.read(dst);
+        if (0 < result) {
+            processInPlace(this.cph, dst, pos);
+        }
+        return result;
+    }
+
+    public void close() throws IOException {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        try {
+            this.cph.erase();
+        }
+        finally {
+            this.ch.close();
+        }
+    }
+}
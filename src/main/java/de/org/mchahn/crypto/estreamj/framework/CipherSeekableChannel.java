@@ -0,0 +1,140 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Channel with random access to encrypted content, e.g. of a file. The
+ * keystream position always follows the channel's position: whenever the two
+ * differ the cipher seeks to the right block via its counter, so reading and
+ * writing anywhere costs no more than doing it sequentially. Reads get
+ * processed in place, writes go through a pooled direct buffer in large
+ * aligned chunks (see CipherReadableChannel and CipherWritableChannel). The
+ * cipher must be seekable, accept any length and have been set up (key and
+ * nonce) before; the underlying channel must not be in append mode.
+ */
+public class CipherSeekableChannel implements SeekableByteChannel {
+    SeekableByteChannel ch;
+    ISeekableCipher cph;
+    ByteBuffer buf;
+    int chunkSize;
+    long cphPos = -1;
+    boolean open = true;
+
+    /**
+     * Default constructor.
+     * @param ch the channel holding the processed data
+     * @param cph the cipher, ready to process
+     * @throws ESJException if the cipher cannot be used
+     */
+    public CipherSeekableChannel(SeekableByteChannel ch, ICipher cph)
+        throws ESJException {
+        if (!(cph instanceof ISeekableCipher) || !cph.acceptsAnyLength()) {
+            throw new ESJException("cipher cannot seek to any position");
+        }
+        this.ch = ch;
+        this.cph = (ISeekableCipher)cph;
+        this.buf = DirectBufferPool.DEFAULT.acquire();
+        this.chunkSize = CipherWritableChannel.chunkSize(
+                this.buf, cph.getWordSize());
+    }
+
+    // moves the keystream to the given position, if it is not there already
+    void sync(long pos) throws IOException {
+        if (pos == this.cphPos) {
+            return;
+        }
+        int rem = (int)(pos % this.cph.getWordSize());
+        try {
+            this.cph.seek(pos - rem);
+            if (0 < rem) {
+                this.cph.skip(rem);
+            }
+        }
+        catch (ESJException esje) {
+            this.cphPos = -1;
+            throw new IOException(esje);
+        }
+        this.cphPos = pos;
+    }
+
+    void ensureOpen() throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public boolean isOpen() {
+        return this.open && this.ch.isOpen();
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        sync(this.ch.position());
+        int pos = dst.position();
+        int result = this.ch.read(dst);
+        if (0 < result) {
+            CipherReadableChannel.processInPlace(this.cph, dst, pos);
+            this.cphPos += result;
+        }
+        return result;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        sync(this.ch.position());
+        ByteBuffer buf = this.buf;
+        int result = 0;
+        while (src.hasRemaining()) {
+            int c = CipherWritableChannel.processChunk(
+                    this.cph, src, buf, this.chunkSize);
+            this.cphPos += c;
+            while (buf.hasRemaining()) {
+                this.ch.write(buf);
+            }
+            result += c;
+        }
+        return result;
+    }
+
+    public long position() throws IOException {
+        ensureOpen();
+        return this.ch.position();
+    }
+
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        this.ch.position(newPosition);
+        return this;
+    }
+
+    public long size() throws IOException {
+        ensureOpen();
+        return this.ch.size();
+    }
+
+    public SeekableByteChannel truncate(long size) throws IOException {
+        ensureOpen();
+        this.ch.truncate(size);
+        return this;
+    }
+
+    public void close() throws IOException {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        try {
+            this.cph.erase();
+        }
+        finally {
+            DirectBufferPool.DEFAULT.release(this.buf);
+            this.buf = null;
+            this.ch.close();
+        }
+    }
+}
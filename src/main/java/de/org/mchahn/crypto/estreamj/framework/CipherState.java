@@ -0,0 +1,285 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.util.Arrays;
+
+/**
+ * Running state of a cipher in serialized form, so a stream can be resumed
+ * later (or elsewhere) at exactly the position it got exported at. The format
+ * starts with a version byte and an identifier of the cipher class, followed
+ * by whatever the cipher writes via ICipher.exportState(), all little endian.
+ * Exported state is as sensitive as the key itself!
+ */
+public class CipherState {
+    /**
+     * current format version
+     */
+    public static final int VERSION = 1;
+
+    byte[] buf;
+    int pos;
+    int end;
+
+    /**
+     * Creates an empty state, to write to.
+     */
+    public CipherState() {
+        this.buf = new byte[256];
+    }
+
+    /**
+     * Creates a state to read from.
+     * @param buf buffer with the exported state
+     * @param ofs where the state starts
+     * @param len number of bytes of the state
+     * @throws ESJException if the range is invalid
+     */
+    public CipherState(byte[] buf, int ofs, int len) throws ESJException {
+        if (null == buf || 0 > ofs || 0 > len || ofs + len > buf.length) {
+            throw new ESJException("invalid buffer range");
+        }
+        this.buf = buf;
+        this.pos = ofs;
+        this.end = ofs + len;
+    }
+
+    /**
+     * Exports the complete running state of a cipher.
+     * @param cph the cipher, can be in any state
+     * @return the state, to be erased by the caller after use
+     * @throws ESJException if the cipher does not support state export
+     */
+    public static byte[] export(ICipher cph) throws ESJException {
+        CipherState st = new CipherState();
+        st.putByte(VERSION);
+        st.putInt(cipherId(cph));
+        cph.exportState(st);
+        byte[] result = Arrays.copyOf(st.buf, st.pos);
+        Arrays.fill(st.buf, (byte)0);
+        return result;
+    }
+
+    /**
+     * Puts a cipher into a state exported before. Nothing needs to be set up
+     * upfront, the cipher continues exactly where the exported one was.
+     * @param cph the cipher, must be of the same kind as the exported one
+     * @param buf buffer with the exported state
+     * @param ofs where the state starts
+     * @param len number of bytes of the state
+     * @throws ESJException if the state is invalid, of another version or
+     * cipher, or if the cipher does not support state import
+     */
+    public static void restore(ICipher cph, byte[] buf, int ofs, int len)
+        throws ESJException {
+        CipherState st = new CipherState(buf, ofs, len);
+        if (VERSION != st.getByte()) {
+            throw new ESJException("unsupported state version");
+        }
+        if (cipherId(cph) != st.getInt()) {
+            throw new ESJException("state is from a different cipher");
+        }
+        cph.importState(st);
+        if (st.pos != st.end) {
+            throw new ESJException("state has trailing data");
+        }
+    }
+
+    static int cipherId(ICipher cph) {
+        // (instrumentation does not change the state)
+        if (cph instanceof InstrumentedCipher) {
+            cph = ((InstrumentedCipher)cph).cph;
+        }
+        return cph.getClass().getName().hashCode();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    void ensure(int len) {
+        if (this.pos + len > this.buf.length) {
+            byte[] nbuf = Arrays.copyOf(this.buf,
+                    Math.max(this.buf.length << 1, this.pos + len));
+            Arrays.fill(this.buf, (byte)0);
+            this.buf = nbuf;
+        }
+    }
+
+    void need(int len) throws ESJException {
+        // (no adding up, a corrupt length might overflow)
+        if (0 > len || len > this.end - this.pos) {
+            throw new ESJException("state is truncated");
+        }
+    }
+
+    public void putByte(int value) {
+        ensure(1);
+        this.buf[this.pos++] = (byte)value;
+    }
+
+    public void putBoolean(boolean value) {
+        putByte(value ? 1 : 0);
+    }
+
+    public void putInt(int value) {
+        ensure(4);
+        Utils.writeInt32LE(value, this.buf, this.pos);
+        this.pos += 4;
+    }
+
+    public void putLong(long value) {
+        ensure(8);
+        Utils.writeInt64LE(value, this.buf, this.pos);
+        this.pos += 8;
+    }
+
+    /**
+     * Writes an array, prefixed by its length.
+     * @param values the array, can be null
+     */
+    public void putInts(int[] values) {
+        if (null == values) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        ensure(values.length << 2);
+        for (int value : values) {
+            Utils.writeInt32LE(value, this.buf, this.pos);
+            this.pos += 4;
+        }
+    }
+
+    /**
+     * Writes an array, prefixed by its length.
+     * @param values the array, can be null
+     */
+    public void putBytes(byte[] values) {
+        if (null == values) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        ensure(values.length);
+        System.arraycopy(values, 0, this.buf, this.pos, values.length);
+        this.pos += values.length;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public int getByte() throws ESJException {
+        need(1);
+        return this.buf[this.pos++] & 0x0ff;
+    }
+
+    public boolean getBoolean() throws ESJException {
+        return 0 != getByte();
+    }
+
+    public int getInt() throws ESJException {
+        need(4);
+        int result = Utils.readInt32LE(this.buf, this.pos);
+        this.pos += 4;
+        return result;
+    }
+
+    public long getLong() throws ESJException {
+        need(8);
+        long result = Utils.readInt64LE(this.buf, this.pos);
+        this.pos += 8;
+        return result;
+    }
+
+    /**
+     * Reads a value which must lie within a certain range, like an index.
+     * @param min smallest value allowed
+     * @param max largest value allowed
+     * @return the value
+     * @throws ESJException if the value is out of range
+     */
+    public int getInt(int min, int max) throws ESJException {
+        int result = getInt();
+        if (min > result || result > max) {
+            throw new ESJException("state value out of range");
+        }
+        return result;
+    }
+
+    /**
+     * Reads a value which must match the receiving instance, like a key size
+     * or any other property which cannot change.
+     * @param expected the value the instance has
+     * @throws ESJException if the value differs
+     */
+    public void checkInt(int expected) throws ESJException {
+        if (expected != getInt()) {
+            throw new ESJException("state is from a different cipher flavor");
+        }
+    }
+
+    /**
+     * Reads an array into an existing one, which must be of the same length.
+     * @param dst where to put the values
+     * @throws ESJException if the length does not match
+     */
+    public void getInts(int[] dst) throws ESJException {
+        if (dst != getIntsOrNull(dst)) {
+            throw new ESJException("state array size mismatch");
+        }
+    }
+
+    /**
+     * Reads an array which might have been null.
+     * @param dst where to put the values if the length matches, can be null
+     * @return null, the destination or a new array if the destination did
+     * not fit
+     * @throws ESJException if the state is broken
+     */
+    public int[] getIntsOrNull(int[] dst) throws ESJException {
+        int len = getInt();
+        if (-1 == len) {
+            return null;
+        }
+        // (checked before anything gets allocated, and without shifting the
+        // length, which might overflow)
+        if (0 > len || len > (this.end - this.pos) >>> 2) {
+            throw new ESJException("state is truncated");
+        }
+        if (null == dst || dst.length != len) {
+            dst = new int[len];
+        }
+        for (int i = 0; i < len; i++, this.pos += 4) {
+            dst[i] = Utils.readInt32LE(this.buf, this.pos);
+        }
+        return dst;
+    }
+
+    /**
+     * Reads an array into an existing one, which must be of the same length.
+     * @param dst where to put the values
+     * @throws ESJException if the length does not match
+     */
+    public void getBytes(byte[] dst) throws ESJException {
+        if (dst != getBytesOrNull(dst)) {
+            throw new ESJException("state array size mismatch");
+        }
+    }
+
+    /**
+     * Reads an array which might have been null.
+     * @param dst where to put the values if the length matches, can be null
+     * @return null, the destination or a new array if the destination did
+     * not fit
+     * @throws ESJException if the state is broken
+     */
+    public byte[] getBytesOrNull(byte[] dst) throws ESJException {
+        int len = getInt();
+        if (-1 == len) {
+            return null;
+        }
+        need(len);
+        if (null == dst || dst.length != len) {
+            dst = new byte[len];
+        }
+        System.arraycopy(this.buf, this.pos, dst, 0, len);
+        this.pos += len;
+        return dst;
+    }
+}
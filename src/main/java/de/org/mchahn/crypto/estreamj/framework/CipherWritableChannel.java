@@ -0,0 +1,148 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel encrypting (or decrypting) everything written to it before passing
+ * it on to another channel. Data gets processed straight from the caller's
+ * buffer into a pooled direct buffer, in chunks aligned to the cipher's word
+ * size, so nothing gets copied on the way and the underlying channel sees
+ * large writes. Works in non-blocking mode, processed data the underlying
+ * channel did not take yet is kept and goes out first on the next write.
+ * The cipher must have been set up (key and nonce) before the first write and
+ * must not be used otherwise while the channel is open. MAC ciphers are not
+ * supported, their tags need framing (see CipherOutputStream).
+ */
+public class CipherWritableChannel implements WritableByteChannel {
+    WritableByteChannel ch;
+    ICipher cph;
+    ByteBuffer buf;
+    int chunkSize;
+    boolean open = true;
+
+    /**
+     * Default constructor.
+     * @param ch the channel receiving the processed data
+     * @param cph the cipher, ready to process
+     * @throws ESJException if the cipher cannot be used
+     */
+    public CipherWritableChannel(WritableByteChannel ch, ICipher cph)
+        throws ESJException {
+        this.ch = ch;
+        this.cph = anyLength(cph);
+        this.buf = DirectBufferPool.DEFAULT.acquire();
+        this.buf.limit(0);
+        this.chunkSize = chunkSize(this.buf, cph.getWordSize());
+    }
+
+    static ICipher anyLength(ICipher cph) throws ESJException {
+        if (cph instanceof ICipherMAC) {
+            throw new ESJException("MAC ciphers are not supported");
+        }
+        return AnyLengthAdapter.wrap(cph);
+    }
+
+    static int chunkSize(ByteBuffer buf, int wordSize) {
+        return buf.capacity() - (buf.capacity() % wordSize);
+    }
+
+    // processes the next chunk of the source into the (empty) buffer, which
+    // is then ready to be written
+    static int processChunk(
+            ICipher cph,
+            ByteBuffer src,
+            ByteBuffer buf,
+            int chunkSize) throws IOException {
+        int c = Math.min(src.remaining(), chunkSize);
+        int limit = src.limit();
+        buf.clear();
+        try {
+            src.limit(src.position() + c);
+            cph.process(src, buf);
+        }
+        catch (ESJException esje) {
+            throw new IOException(esje);
+        }
+        finally {
+            src.limit(limit);
+        }
+        buf.flip();
+        return c;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public boolean isOpen() {
+        return this.open && this.ch.isOpen();
+    }
+
+    /**
+     * Processes data and writes it out. In non-blocking mode the number of
+     * bytes taken from the source might be smaller than what's available, or
+     * even zero if there is still pending data which could not be written.
+     */
+    public int write(ByteBuffer src) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        ByteBuffer buf = this.buf;
+        if (buf.hasRemaining()) {
+            this.ch.write(buf);
+            if (buf.hasRemaining()) {
+                return 0;
+            }
+        }
+        int result = 0;
+        while (src.hasRemaining()) {
+            result += processChunk(this.cph, src, buf, this.chunkSize);
+            this.ch.write(buf);
+            if (buf.hasRemaining()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tries to write out pending data, which can only exist in non-blocking
+     * mode.
+     * @return true if nothing is pending anymore
+     * @throws IOException if writing failed
+     */
+    public boolean flush() throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        if (this.buf.hasRemaining()) {
+            this.ch.write(this.buf);
+        }
+        return !this.buf.hasRemaining();
+    }
+
+    /**
+     * Writes out pending data and closes the underlying channel.
+     * @throws IOException if the pending data could not be written
+     */
+    public void close() throws IOException {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        try {
+            while (this.buf.hasRemaining()) {
+                if (0 == this.ch.write(this.buf)) {
+                    throw new IOException("pending data could not be written");
+                }
+            }
+        }
+        finally {
+            this.cph.erase();
+            DirectBufferPool.DEFAULT.release(this.buf);
+            this.buf = null;
+            this.ch.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Keeps direct buffers of a fixed size around for reuse, since allocating
+ * (and eventually freeing) native memory is expensive. Released buffers go
+ * into a bounded queue shared by all threads, anything beyond gets dropped.
+ * Since buffers can hold plaintext (e.g. after decryption) they get wiped on
+ * release, before anyone else is able to get them.
+ */
+class DirectBufferPool {
+    static final int DEF_BUF_SIZE = 1 << 20;
+    static final int DEF_SIZE = 16;
+
+    static final byte[] ZEROS = new byte[4096];
+
+    static final DirectBufferPool DEFAULT =
+        new DirectBufferPool(DEF_BUF_SIZE, DEF_SIZE);
+
+    int bufSize;
+    ArrayBlockingQueue<ByteBuffer> free;
+
+    DirectBufferPool(int bufSize, int size) {
+        this.bufSize = bufSize;
+        this.free = new ArrayBlockingQueue<>(size);
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer result = this.free.poll();
+        if (null == result) {
+            result = ByteBuffer.allocateDirect(this.bufSize);
+        }
+        return result.clear();
+    }
+
+    void release(ByteBuffer buf) {
+        release(buf, buf.capacity());
+    }
+
+    // (for callers knowing that nothing got written beyond a certain point)
+    void release(ByteBuffer buf, int used) {
+        wipe(buf, 0, used);
+        this.free.offer(buf);
+    }
+
+    static void wipe(ByteBuffer buf, int from, int to) {
+        buf.clear();
+        for (int pos = from; pos < to;) {
+            int c = Math.min(ZEROS.length, to - pos);
+            buf.put(pos, ZEROS, 0, c);
+            pos += c;
+        }
+    }
+}
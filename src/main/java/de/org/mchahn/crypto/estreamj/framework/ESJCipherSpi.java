@@ -0,0 +1,630 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Makes a cipher of the engine usable through javax.crypto.Cipher (see
+ * ESJProvider). Keys are raw, the nonce gets passed as IvParameterSpec (or
+ * GCMParameterSpec) or is made up on encryption if none is given; there is no
+ * mode and no padding. Plain ciphers take data of any length on every call.
+ * Ciphers doing MAC computation work like AEAD ones: the tag gets appended on
+ * encryption, on decryption everything is held back until doFinal() checked
+ * the tag. To prevent keystream reuse an instance needs to be initialized
+ * again after every encryption, with a different key or nonce. ByteBuffers go
+ * straight to the cipher, without copying through intermediate arrays.
+ */
+public class ESJCipherSpi extends CipherSpi {
+    ICipher cph;
+    ICipherMAC mac;
+    int keySize;
+    int nonceSize;
+    int wordSize;
+    int macSize;
+
+    boolean encrypt;
+    boolean ready;
+    byte[] key;
+    byte[] nonce;
+
+    byte[] aad = new byte[0];
+    int aadLen;
+    boolean aadDone;
+    byte[] pend;
+    int pendLen;
+    byte[] data = new byte[0];
+    int dataLen;
+    byte[] tag;
+    byte[] tail;
+
+    static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Default constructor.
+     * @param cipherName name of the cipher to wrap
+     * @throws ESJException if the cipher is not registered
+     */
+    public ESJCipherSpi(String cipherName) throws ESJException {
+        ICipher cph = Engine.createCipher(cipherName);
+        this.keySize = cph.getKeySize();
+        this.nonceSize = cph.getNonceSize();
+        this.wordSize = cph.getWordSize();
+        if (cph instanceof ICipherMAC) {
+            this.mac = (ICipherMAC)cph;
+            this.macSize = this.mac.getMacSize();
+            this.pend = new byte[this.wordSize];
+            this.tag = new byte[this.macSize << 1];
+            this.tail = new byte[this.wordSize + this.macSize];
+        }
+        else {
+            cph = AnyLengthAdapter.wrap(cph);
+        }
+        this.cph = cph;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        if (!"NONE".equalsIgnoreCase(mode)) {
+            throw new NoSuchAlgorithmException("unsupported mode " + mode);
+        }
+    }
+
+    protected void engineSetPadding(String padding)
+        throws NoSuchPaddingException {
+        if (!"NoPadding".equalsIgnoreCase(padding)) {
+            throw new NoSuchPaddingException(
+                    "unsupported padding " + padding);
+        }
+    }
+
+    protected int engineGetBlockSize() {
+        return 0;
+    }
+
+    protected int engineGetKeySize(Key key) throws InvalidKeyException {
+        return rawKey(key).length << 3;
+    }
+
+    protected int engineGetOutputSize(int inputLen) {
+        if (null == this.mac) {
+            return inputLen;
+        }
+        if (this.encrypt) {
+            return this.pendLen + inputLen + this.macSize;
+        }
+        return Math.max(0, this.dataLen + inputLen - this.macSize);
+    }
+
+    protected byte[] engineGetIV() {
+        return null == this.nonce ? null : this.nonce.clone();
+    }
+
+    protected AlgorithmParameters engineGetParameters() {
+        // (there is no parameter implementation for these ciphers, the nonce
+        // is available through getIV())
+        return null;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected void engineInit(int opmode, Key key, SecureRandom random)
+        throws InvalidKeyException {
+        try {
+            engineInit(opmode, key, (AlgorithmParameterSpec)null, random);
+        }
+        catch (InvalidAlgorithmParameterException iape) {
+            throw new InvalidKeyException(iape.getMessage(), iape);
+        }
+    }
+
+    protected void engineInit(
+            int opmode,
+            Key key,
+            AlgorithmParameters params,
+            SecureRandom random)
+        throws InvalidKeyException, InvalidAlgorithmParameterException {
+        AlgorithmParameterSpec spec = null;
+        if (null != params) {
+            try {
+                spec = null == this.mac ?
+                        params.getParameterSpec(IvParameterSpec.class) :
+                        params.getParameterSpec(GCMParameterSpec.class);
+            }
+            catch (InvalidParameterSpecException ipse) {
+                throw new InvalidAlgorithmParameterException(ipse);
+            }
+        }
+        engineInit(opmode, key, spec, random);
+    }
+
+    protected void engineInit(
+            int opmode,
+            Key key,
+            AlgorithmParameterSpec params,
+            SecureRandom random)
+        throws InvalidKeyException, InvalidAlgorithmParameterException {
+        boolean encrypt;
+        if (Cipher.ENCRYPT_MODE == opmode) {
+            encrypt = true;
+        }
+        else if (Cipher.DECRYPT_MODE == opmode) {
+            encrypt = false;
+        }
+        else {
+            throw new InvalidParameterException(
+                    "unsupported operation mode " + opmode);
+        }
+
+        byte[] rkey = rawKey(key);
+        byte[] nonce;
+        if (null == params) {
+            if (!encrypt && 0 < this.nonceSize) {
+                throw new InvalidAlgorithmParameterException(
+                        "nonce required for decryption");
+            }
+            nonce = new byte[this.nonceSize];
+            (null == random ? new SecureRandom() : random).nextBytes(nonce);
+        }
+        else if (params instanceof IvParameterSpec) {
+            nonce = ((IvParameterSpec)params).getIV();
+        }
+        else if (params instanceof GCMParameterSpec && null != this.mac) {
+            GCMParameterSpec gps = (GCMParameterSpec)params;
+            if (gps.getTLen() != this.macSize << 3) {
+                throw new InvalidAlgorithmParameterException(
+                        "tag length must be " + (this.macSize << 3));
+            }
+            nonce = gps.getIV();
+        }
+        else {
+            throw new InvalidAlgorithmParameterException(
+                    "unsupported parameters " + params.getClass().getName());
+        }
+        if (nonce.length != this.nonceSize) {
+            throw new InvalidAlgorithmParameterException(
+                    "nonce must be " + this.nonceSize + " bytes");
+        }
+
+        // same as the last encryption would produce the same keystream again
+        if (encrypt && null != this.key &&
+            Arrays.equals(rkey, this.key) && Arrays.equals(nonce, this.nonce)) {
+            throw new InvalidKeyException(
+                    "key and nonce must not be reused for encryption");
+        }
+
+        this.ready = false;
+        try {
+            this.cph.setupKey(encrypt ? ICipher.MODE_ENCRYPT :
+                                        ICipher.MODE_DECRYPT, rkey, 0);
+        }
+        catch (ESJException esje) {
+            throw new InvalidKeyException(esje.getMessage(), esje);
+        }
+        if (null != this.key) {
+            Arrays.fill(this.key, (byte)0);
+        }
+        this.key = rkey;
+        this.nonce = nonce;
+        this.encrypt = encrypt;
+        restart();
+    }
+
+    byte[] rawKey(Key key) throws InvalidKeyException {
+        byte[] result = null == key ? null : key.getEncoded();
+        if (null == result || result.length != this.keySize) {
+            throw new InvalidKeyException(
+                    "key must be " + this.keySize + " raw bytes");
+        }
+        return result;
+    }
+
+    void restart() throws InvalidAlgorithmParameterException {
+        try {
+            this.cph.setupNonce(this.nonce, 0);
+        }
+        catch (ESJException esje) {
+            throw new InvalidAlgorithmParameterException(esje);
+        }
+        Arrays.fill(this.aad, 0, this.aadLen, (byte)0);
+        Arrays.fill(this.data, 0, this.dataLen, (byte)0);
+        this.aadLen = this.dataLen = this.pendLen = 0;
+        this.aadDone = false;
+        this.ready = true;
+    }
+
+    void checkReady() {
+        if (!this.ready) {
+            throw new IllegalStateException(null == this.key ?
+                    "cipher not initialized" :
+                    "cipher must be initialized again, with a new nonce");
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected void engineUpdateAAD(byte[] src, int offset, int len) {
+        checkReady();
+        if (null == this.mac) {
+            throw new IllegalStateException("cipher does not do MACs");
+        }
+        if (this.aadDone || 0 < this.dataLen || 0 < this.pendLen) {
+            throw new IllegalStateException("AAD must come before the data");
+        }
+        this.aad = append(this.aad, this.aadLen, src, offset, len);
+        this.aadLen += len;
+    }
+
+    protected void engineUpdateAAD(ByteBuffer src) {
+        int len = src.remaining();
+        byte[] buf = new byte[len];
+        src.get(buf);
+        engineUpdateAAD(buf, 0, len);
+    }
+
+    void flushAAD() throws ESJException {
+        if (!this.aadDone) {
+            if (0 < this.aadLen) {
+                this.mac.processAAD(this.aad, 0, this.aadLen);
+            }
+            this.aadDone = true;
+        }
+    }
+
+    static byte[] append(byte[] buf, int bufLen, byte[] src, int ofs, int len) {
+        if (bufLen + len > buf.length) {
+            byte[] nbuf = Arrays.copyOf(buf,
+                    Math.max(buf.length << 1, bufLen + len));
+            Arrays.fill(buf, (byte)0);
+            buf = nbuf;
+        }
+        System.arraycopy(src, ofs, buf, bufLen, len);
+        return buf;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+        byte[] result = new byte[updateSize(inputLen)];
+        try {
+            engineUpdate(input, inputOffset, inputLen, result, 0);
+        }
+        catch (ShortBufferException sbe) {
+            throw new ProviderException(sbe);
+        }
+        return result;
+    }
+
+    protected int engineUpdate(
+            byte[] input,
+            int inputOffset,
+            int inputLen,
+            byte[] output,
+            int outputOffset) throws ShortBufferException {
+        checkReady();
+        int size = updateSize(inputLen);
+        if (output.length - outputOffset < size) {
+            throw new ShortBufferException(size + " bytes needed");
+        }
+        try {
+            if (null == this.mac) {
+                processSafely(input, inputOffset,
+                        output, outputOffset, inputLen);
+            }
+            else if (this.encrypt) {
+                updateSealing(input, inputOffset, inputLen,
+                        output, outputOffset);
+            }
+            else {
+                this.data = append(this.data, this.dataLen,
+                        input, inputOffset, inputLen);
+                this.dataLen += inputLen;
+            }
+        }
+        catch (ESJException esje) {
+            throw new ProviderException(esje);
+        }
+        return size;
+    }
+
+    protected int engineUpdate(ByteBuffer input, ByteBuffer output)
+        throws ShortBufferException {
+        checkReady();
+        if (null != this.mac && !this.encrypt) {
+            // (everything gets held back anyway)
+            return super.engineUpdate(input, output);
+        }
+        int len = input.remaining();
+        int size = updateSize(len);
+        if (output.remaining() < size) {
+            throw new ShortBufferException(size + " bytes needed");
+        }
+        try {
+            if (null == this.mac) {
+                this.cph.process(safeInput(input, output), output);
+            }
+            else {
+                updateSealing(input, output);
+            }
+        }
+        catch (ESJException esje) {
+            throw new ProviderException(esje);
+        }
+        return size;
+    }
+
+    // input which would get overwritten before it is read gets copied first
+    void processSafely(
+            byte[] input,
+            int inputOffset,
+            byte[] output,
+            int outputOffset,
+            int len) throws ESJException {
+        if (input == output && inputOffset != outputOffset) {
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + len);
+            inputOffset = 0;
+        }
+        this.cph.process(input, inputOffset, output, outputOffset, len);
+    }
+
+    // same for buffers, as far as sharing memory can be detected (i.e. for
+    // heap buffers on the same array)
+    static ByteBuffer safeInput(ByteBuffer input, ByteBuffer output) {
+        if (input.hasArray() && output.hasArray() &&
+            input.array() == output.array() &&
+            input.arrayOffset() + input.position() !=
+            output.arrayOffset() + output.position()) {
+            return ByteBuffer.allocate(input.remaining()).put(input).flip();
+        }
+        return input;
+    }
+
+    int updateSize(int inputLen) {
+        if (null == this.mac) {
+            return inputLen;
+        }
+        if (!this.encrypt) {
+            return 0;
+        }
+        int total = this.pendLen + inputLen;
+        return total - (total % this.wordSize);
+    }
+
+    // MAC ciphers only take aligned data until the last call, so a partial
+    // word at the end gets held back until more data (or the end) comes
+    void updateSealing(
+            byte[] input,
+            int inputOffset,
+            int inputLen,
+            byte[] output,
+            int outputOffset) throws ESJException {
+        int wsz = this.wordSize;
+        byte[] pend = this.pend;
+        int c;
+
+        // (output and input positions differ once a pending word goes out,
+        // so in-place calls could overwrite input before it got read)
+        if (input == output && (0 < this.pendLen ||
+                                inputOffset != outputOffset)) {
+            input = Arrays.copyOfRange(input, inputOffset,
+                                       inputOffset + inputLen);
+            inputOffset = 0;
+        }
+        flushAAD();
+        if (0 < this.pendLen) {
+            c = Math.min(inputLen, wsz - this.pendLen);
+            System.arraycopy(input, inputOffset, pend, this.pendLen, c);
+            this.pendLen += c;
+            inputOffset += c;
+            inputLen -= c;
+            if (this.pendLen < wsz) {
+                return;
+            }
+            this.cph.process(pend, 0, output, outputOffset, wsz);
+            this.pendLen = 0;
+            outputOffset += wsz;
+        }
+        c = inputLen - (inputLen % wsz);
+        this.cph.process(input, inputOffset, output, outputOffset, c);
+        System.arraycopy(input, inputOffset + c, pend, 0, inputLen - c);
+        this.pendLen = inputLen - c;
+    }
+
+    void updateSealing(ByteBuffer input, ByteBuffer output)
+        throws ESJException {
+        int wsz = this.wordSize;
+        byte[] pend = this.pend;
+        int c;
+
+        // (same as above, but there is no telling whether the buffers share
+        // memory, so the input always gets copied then)
+        if (0 < this.pendLen && wsz - this.pendLen < input.remaining()) {
+            ByteBuffer copy = ByteBuffer.allocate(input.remaining());
+            input = copy.put(input).flip();
+        }
+        else {
+            input = safeInput(input, output);
+        }
+        flushAAD();
+        if (0 < this.pendLen) {
+            c = Math.min(input.remaining(), wsz - this.pendLen);
+            input.get(pend, this.pendLen, c);
+            this.pendLen += c;
+            if (this.pendLen < wsz) {
+                return;
+            }
+            this.cph.process(pend, 0, pend, 0, wsz);
+            output.put(pend, 0, wsz);
+            this.pendLen = 0;
+        }
+        int len = input.remaining();
+        c = len - (len % wsz);
+        int limit = input.limit();
+        input.limit(input.position() + c);
+        try {
+            this.cph.process(input, output);
+        }
+        finally {
+            input.limit(limit);
+        }
+        this.pendLen = len - c;
+        input.get(pend, 0, this.pendLen);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
+        throws IllegalBlockSizeException, BadPaddingException {
+        byte[] result = new byte[engineGetOutputSize(inputLen)];
+        try {
+            engineDoFinal(input, inputOffset, inputLen, result, 0);
+        }
+        catch (ShortBufferException sbe) {
+            throw new ProviderException(sbe);
+        }
+        return result;
+    }
+
+    protected int engineDoFinal(
+            byte[] input,
+            int inputOffset,
+            int inputLen,
+            byte[] output,
+            int outputOffset)
+        throws ShortBufferException, IllegalBlockSizeException,
+               BadPaddingException {
+        checkReady();
+        if (null == input) {
+            input = EMPTY;
+            inputLen = 0;
+        }
+        int size = engineGetOutputSize(inputLen);
+        if (output.length - outputOffset < size) {
+            throw new ShortBufferException(size + " bytes needed");
+        }
+        try {
+            if (null == this.mac) {
+                processSafely(input, inputOffset,
+                        output, outputOffset, inputLen);
+            }
+            else if (this.encrypt) {
+                int c = updateSize(inputLen);
+                updateSealing(input, inputOffset, inputLen,
+                        output, outputOffset);
+                finishSealing(output, outputOffset + c);
+            }
+            else {
+                this.data = append(this.data, this.dataLen,
+                        input, inputOffset, inputLen);
+                this.dataLen += inputLen;
+                if (!finishOpening(output, outputOffset)) {
+                    finish();
+                    throw new AEADBadTagException("authentication failed");
+                }
+            }
+        }
+        catch (ESJException esje) {
+            throw new ProviderException(esje);
+        }
+        finish();
+        return size;
+    }
+
+    protected int engineDoFinal(ByteBuffer input, ByteBuffer output)
+        throws ShortBufferException, IllegalBlockSizeException,
+               BadPaddingException {
+        checkReady();
+        if (null != this.mac && !this.encrypt) {
+            return super.engineDoFinal(input, output);
+        }
+        int size = engineGetOutputSize(input.remaining());
+        if (output.remaining() < size) {
+            throw new ShortBufferException(size + " bytes needed");
+        }
+        try {
+            if (null == this.mac) {
+                this.cph.process(safeInput(input, output), output);
+            }
+            else {
+                updateSealing(input, output);
+                int c = this.pendLen + this.macSize;
+                finishSealing(this.tail, 0);
+                output.put(this.tail, 0, c);
+                Arrays.fill(this.tail, 0, c, (byte)0);
+            }
+        }
+        catch (ESJException esje) {
+            throw new ProviderException(esje);
+        }
+        finish();
+        return size;
+    }
+
+    void finishSealing(byte[] output, int outputOffset) throws ESJException {
+        flushAAD();
+        int pendLen = this.pendLen;
+        this.cph.process(this.pend, 0, output, outputOffset, pendLen);
+        this.mac.finalize(output, outputOffset + pendLen);
+        this.pendLen = 0;
+    }
+
+    // on failure the output gets cleared, so no unauthenticated plaintext
+    // ever makes it to the caller
+    boolean finishOpening(byte[] output, int outputOffset)
+        throws ESJException {
+        int macSize = this.macSize;
+        int ptLen = this.dataLen - macSize;
+        if (0 > ptLen) {
+            return false;
+        }
+        byte[] tag = this.tag;
+
+        flushAAD();
+        System.arraycopy(this.data, ptLen, tag, 0, macSize);
+        this.cph.process(this.data, 0, output, outputOffset, ptLen);
+        this.mac.finalize(tag, macSize);
+
+        boolean ok = Utils.constantTimeEquals(tag, 0, tag, macSize, macSize);
+        Arrays.fill(tag, (byte)0);
+        if (!ok) {
+            Arrays.fill(output, outputOffset, outputOffset + ptLen, (byte)0);
+        }
+        return ok;
+    }
+
+    void finish() {
+        if (this.encrypt) {
+            // (the keystream must not be used twice)
+            this.ready = false;
+            Arrays.fill(this.aad, 0, this.aadLen, (byte)0);
+            this.aadLen = 0;
+            return;
+        }
+        try {
+            restart();
+        }
+        catch (InvalidAlgorithmParameterException iape) {
+            throw new ProviderException(iape);
+        }
+    }
+}
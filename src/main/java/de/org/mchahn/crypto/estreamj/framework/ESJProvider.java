@@ -0,0 +1,86 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Map;
+
+/**
+ * Security provider making ciphers of the engine available through the
+ * standard Java APIs. Every registered cipher is offered as Cipher, under its
+ * engine name (see ESJCipherSpi), some also as SecureRandom. Can be installed
+ * via Security.addProvider() or passed directly to the getInstance() methods.
+ */
+public class ESJProvider extends Provider {
+    private static final long serialVersionUID = 2390645472718347291L;
+
+    /**
+     * name of the provider
+     */
+    public static final String NAME = "estreamJ";
+
+    /**
+     * ciphers whose keystream is offered as SecureRandom by default
+     */
+    public static final String[] DEF_RANDOM_CIPHERS = { "Salsa20", "HC-256" };
+
+    /**
+     * Default constructor, offering the default ciphers.
+     */
+    public ESJProvider() {
+        this(DEF_RANDOM_CIPHERS);
+    }
+
+    /**
+     * Creates a provider with a custom selection of SecureRandom algorithms.
+     * @param randomCiphers names of the ciphers to offer as SecureRandom
+     */
+    public ESJProvider(String... randomCiphers) {
+        super(NAME, "2.0", "estreamJ stream ciphers");
+        for (String name : Engine.getCipherNames()) {
+            putService(new CipherService(this, name));
+        }
+        for (String name : randomCiphers) {
+            putService(new RandomService(this, name));
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    static class CipherService extends Service {
+        CipherService(Provider provider, String cipherName) {
+            super(provider, "Cipher", cipherName,
+                  ESJCipherSpi.class.getName(), null,
+                  Map.of("SupportedModes", "NONE",
+                         "SupportedPaddings", "NOPADDING",
+                         "SupportedKeyFormats", "RAW"));
+        }
+
+        public Object newInstance(Object param)
+            throws NoSuchAlgorithmException {
+            try {
+                return new ESJCipherSpi(getAlgorithm());
+            }
+            catch (ESJException esje) {
+                throw new NoSuchAlgorithmException(esje);
+            }
+        }
+    }
+
+    static class RandomService extends Service {
+        RandomService(Provider provider, String cipherName) {
+            super(provider, "SecureRandom", cipherName,
+                  ESJSecureRandom.class.getName(), null,
+                  Map.of("ThreadSafe", "true"));
+        }
+
+        public Object newInstance(Object param)
+            throws NoSuchAlgorithmException {
+            try {
+                return new ESJSecureRandom(getAlgorithm());
+            }
+            catch (ESJException esje) {
+                throw new NoSuchAlgorithmException(esje);
+            }
+        }
+    }
+}
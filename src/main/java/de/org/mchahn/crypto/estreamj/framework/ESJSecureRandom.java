@@ -0,0 +1,200 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.ProviderException;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+
+/**
+ * Random number generator running on the keystream of a cipher. Every thread
+ * gets its own keyed instance and keystream buffer, so there is no locking at
+ * all (the provider declares the service as thread safe). Key and nonce come
+ * from the platform's DRBG and get renewed every RESEED_BYTES bytes; seeds
+ * passed to setSeed() get hashed and mixed into the next renewal of each
+ * thread. Small requests are served from the buffer, bulk requests get the
+ * keystream written straight into them. Bytes handed out get wiped from the
+ * buffer.
+ */
+public class ESJSecureRandom extends SecureRandomSpi {
+    private static final long serialVersionUID = -2946384310934787812L;
+
+    /**
+     * after how many bytes a thread's generator gets a new key and nonce
+     */
+    public static final long RESEED_BYTES = 1L << 20;
+
+    static final int BUF_SIZE = 1024;
+
+    final String cipherName;
+    volatile byte[] extraSeed;
+    volatile int epoch;
+    transient ThreadLocal<Stream> streams;
+
+    /**
+     * Default constructor.
+     * @param cipherName name of the cipher to use, which must be able to
+     * produce raw keystream
+     * @throws ESJException if the cipher is not registered or cannot be used
+     */
+    public ESJSecureRandom(String cipherName) throws ESJException {
+        this.cipherName = cipherName;
+        // (fail early instead of on the first request)
+        Stream test = new Stream(this);
+        test.cph.generateKeystream(test.buf, 0, test.buf.length);
+        test.cph.erase();
+        Arrays.fill(test.buf, (byte)0);
+        this.streams = ThreadLocal.withInitial(this::newStream);
+    }
+
+    /**
+     * @return name of the cipher producing the numbers
+     */
+    public String getCipherName() {
+        return this.cipherName;
+    }
+
+    // (the per thread generators never get serialized, so fresh ones are
+    // needed)
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.streams = ThreadLocal.withInitial(this::newStream);
+    }
+
+    Stream newStream() {
+        try {
+            return new Stream(this);
+        }
+        catch (ESJException esje) {
+            throw new ProviderException(esje);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected synchronized void engineSetSeed(byte[] seed) {
+        // (condensed, so seeding over and over doesn't pile up)
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new ProviderException(nsae);
+        }
+        if (null != this.extraSeed) {
+            md.update(this.extraSeed);
+        }
+        md.update(seed);
+        this.extraSeed = md.digest();
+        this.epoch++;
+    }
+
+    protected void engineNextBytes(byte[] bytes) {
+        try {
+            this.streams.get().nextBytes(bytes, 0, bytes.length);
+        }
+        catch (ESJException esje) {
+            throw new ProviderException(esje);
+        }
+    }
+
+    protected byte[] engineGenerateSeed(int numBytes) {
+        return seedSource().generateSeed(numBytes);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    static SecureRandom _seedSource;
+
+    static synchronized SecureRandom seedSource() {
+        if (null == _seedSource) {
+            // (not the default one, which might be us)
+            try {
+                _seedSource = SecureRandom.getInstance("DRBG", "SUN");
+            }
+            catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                _seedSource = new SecureRandom();
+            }
+        }
+        return _seedSource;
+    }
+
+    /**
+     * Generator state of a single thread.
+     */
+    static class Stream {
+        ESJSecureRandom owner;
+        ICipher cph;
+        byte[] seed;
+        byte[] buf;
+        int pos;
+        long left;
+        int epoch;
+
+        Stream(ESJSecureRandom owner) throws ESJException {
+            this.owner = owner;
+            this.cph = AnyLengthAdapter.wrap(
+                    Engine.createCipher(owner.cipherName));
+            this.seed = new byte[this.cph.getKeySize() +
+                                 this.cph.getNonceSize()];
+            this.buf = new byte[Utils.alignedChunkSize(
+                    this.cph.getWordSize(), BUF_SIZE)];
+            reseed();
+        }
+
+        void reseed() throws ESJException {
+            byte[] seed = this.seed;
+            int keySize = this.cph.getKeySize();
+
+            this.epoch = this.owner.epoch;
+            seedSource().nextBytes(seed);
+            byte[] extra = this.owner.extraSeed;
+            if (null != extra) {
+                for (int i = 0; i < extra.length; i++) {
+                    seed[i % seed.length] ^= extra[i];
+                }
+            }
+            this.cph.setupKey(ICipher.MODE_ENCRYPT, seed, 0);
+            this.cph.setupNonce(seed, keySize);
+            Arrays.fill(seed, (byte)0);
+
+            Arrays.fill(this.buf, (byte)0);
+            this.pos = this.buf.length;
+            this.left = RESEED_BYTES;
+        }
+
+        void nextBytes(byte[] out, int ofs, int len) throws ESJException {
+            if (this.epoch != this.owner.epoch || len > this.left) {
+                reseed();
+            }
+            this.left -= len;
+
+            byte[] buf = this.buf;
+            int c = Math.min(len, buf.length - this.pos);
+            if (0 < c) {
+                System.arraycopy(buf, this.pos, out, ofs, c);
+                Arrays.fill(buf, this.pos, this.pos + c, (byte)0);
+                this.pos += c;
+                ofs += c;
+                len -= c;
+            }
+            if (0 == len) {
+                return;
+            }
+
+            if (buf.length <= len) {
+                this.cph.generateKeystream(out, ofs, len);
+                return;
+            }
+            this.cph.generateKeystream(buf, 0, buf.length);
+            System.arraycopy(buf, 0, out, ofs, len);
+            Arrays.fill(buf, 0, len, (byte)0);
+            this.pos = len;
+        }
+    }
+}
@@ -1,34 +1,41 @@
 package de.org.mchahn.crypto.estreamj.framework;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
 
 /**
  * The engine accumulates all the stream ciphers available. All implementations
- * register with the engine by themselves.
+ * register with the engine by themselves. Built-in ciphers get loaded on their
+ * first use only; additional ciphers can be provided as ICipherMaker services
+ * (see java.util.ServiceLoader).
  */
 public class Engine {
 
     private Engine() {}
 
     /**
-     * @return the names of all ciphers registered; can be empty if no ciphers
-     * have been registered so far
+     * @return the names of all ciphers available; can be empty if there are
+     * none
      */
     public static String[] getCipherNames() {
-        String[] result;
+        loadServices();
 
-        synchronized(_cphMks) {
-            ArrayList<String> lst = new ArrayList<>();
-            lst.addAll(_cphMks.keySet());
-            Collections.sort(lst);
-            result = lst.toArray(new String[lst.size()]);
+        ArrayList<String> lst = new ArrayList<>(_builtins.keySet());
+        for (String name : _cphMks.keySet()) {
+            if (!_builtins.containsKey(name)) {
+                lst.add(name);
+            }
         }
-
-        return result;
+        Collections.sort(lst);
+        return lst.toArray(new String[lst.size()]);
     }
 
     /**
@@ -38,21 +45,180 @@ public class Engine {
      * @throws ESJException if any error occurred
      */
     public static ICipher createCipher(String name) throws ESJException {
-        ICipherMaker maker;
+        return make(getMaker(name));
+    }
+
+    // creates an instance and remembers the preferred chunk size of its class
+    // (all names of a class share the implementation, thus the chunk size)
+    static ICipher make(ICipherMaker maker) throws ESJException {
+        ICipher result = maker.create();
+        if (!_chunkSizes.containsKey(result.getClass())) {
+            _chunkSizes.putIfAbsent(result.getClass(),
+                    getCipherInfo(maker.getName()).getPreferredChunkSize());
+        }
+        return result;
+    }
+
+    // instances the engine did not make get the default
+    static int getPreferredChunkSize(ICipher cph) {
+        if (cph instanceof InstrumentedCipher) {
+            cph = ((InstrumentedCipher)cph).cph;
+        }
+        Integer result = _chunkSizes.get(cph.getClass());
+        return null == result ?
+                CipherInfo.of(cph).getPreferredChunkSize() : result;
+    }
+
+    static ConcurrentHashMap<Class<?>, Integer> _chunkSizes =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Gets the information about a cipher, without creating an instance of it
+     * (unless its factory does not know better).
+     * @param name name of the cipher
+     * @return information about the cipher
+     * @throws ESJException if the cipher is unknown or any other error
+     * occurred
+     */
+    public static CipherInfo getCipherInfo(String name) throws ESJException {
+        CipherInfo result = _infos.get(name);
+        if (null == result) {
+            result = getMaker(name).getInfo();
+            _infos.putIfAbsent(name, result);
+        }
+        return result;
+    }
+
+    static ConcurrentHashMap<String, CipherInfo> _infos =
+        new ConcurrentHashMap<>();
+
+    static ICipherMaker getMaker(String name) throws ESJException {
+        ICipherMaker result = _cphMks.get(name);
+        if (null != result) {
+            return result;
+        }
 
-        synchronized(_cphMks) {
-            maker = _cphMks.get(name);
-            if (null == maker) {
-                throw new ESJException("no maker registered for cipher \"" +
-                        name + "\"");
+        String clsName = _builtins.get(name);
+        if (null != clsName) {
+            loadBuiltin(name, clsName);
+        }
+        else {
+            loadServices();
+        }
+
+        result = _cphMks.get(name);
+        if (null == result) {
+            throw new ESJException("no maker registered for cipher \"" +
+                    name + "\"");
+        }
+        return result;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Gets a cipher instance from the pool, or creates a new one if the pool
+     * is empty. Pooled instances have been erased, so a key and a nonce must
+     * be set up before they can be used.
+     * @param name name of the cipher
+     * @return cipher instance, to be handed back via releaseCipher()
+     * @throws ESJException if any error occurred
+     */
+    public static ICipher acquireCipher(String name) throws ESJException {
+        CipherPool pool = _pools.get(name);
+        if (null == pool) {
+            pool = new CipherPool(
+                    getMaker(name),
+                    CipherPool.DEF_LOCAL_SIZE,
+                    CipherPool.DEF_SHARED_SIZE);
+            CipherPool prev = _pools.putIfAbsent(name, pool);
+            if (null != prev) {
+                pool = prev;
             }
         }
-        return maker.create();
+        return pool.acquire();
+    }
+
+    /**
+     * Returns a cipher instance to the pool. The instance gets erased and must
+     * not be used by the caller anymore. Instances of another cipher, or ones
+     * released already, do not make it into the pool.
+     * @param name name of the cipher, must be the one the instance got
+     * acquired with
+     * @param cph the instance to return
+     */
+    public static void releaseCipher(String name, ICipher cph) {
+        CipherPool pool = _pools.get(name);
+        if (null == pool) {
+            cph.erase();    // (not acquired through the pool, just drop it)
+            return;
+        }
+        pool.release(cph);
+    }
+
+    static ConcurrentHashMap<String, CipherPool> _pools =
+        new ConcurrentHashMap<>();
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * JMX domain the cipher metrics get published under, with the cipher name
+     * as the "name" key property.
+     */
+    public static final String METRICS_DOMAIN =
+        "de.org.mchahn.crypto.estreamj";
+
+    /**
+     * Creates a new cipher instance which accounts everything it does in the
+     * metrics of the cipher (see getMetrics()).
+     * @param name name of the cipher to make
+     * @return new instrumented cipher instance
+     * @throws ESJException if any error occurred
+     */
+    public static ICipher createInstrumentedCipher(String name)
+        throws ESJException {
+        return InstrumentedCipher.wrap(createCipher(name), getMetrics(name));
+    }
+
+    /**
+     * Gets the totals of all instrumented instances of a cipher. On the first
+     * call for a cipher its metrics also get registered as an MBean with the
+     * platform MBean server.
+     * @param name name of the cipher
+     * @return the metrics, the same instance for every call
+     * @throws ESJException if the cipher is unknown
+     */
+    public static CipherMetrics getMetrics(String name) throws ESJException {
+        CipherMetrics result = _metrics.get(name);
+        if (null != result) {
+            return result;
+        }
+        getMaker(name);
+        result = new CipherMetrics(name);
+        CipherMetrics prev = _metrics.putIfAbsent(name, result);
+        if (null != prev) {
+            return prev;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    result, new ObjectName(METRICS_DOMAIN +
+                    ":type=CipherMetrics,name=" + ObjectName.quote(name)));
+        }
+        catch (Exception e) {
+            // (still counting, just not visible via JMX)
+            System.err.println("cipher metrics \"" + name +
+                    "\" not published (" + e.getMessage() + ")");
+        }
+        return result;
     }
 
+    static ConcurrentHashMap<String, CipherMetrics> _metrics =
+        new ConcurrentHashMap<>();
+
     ///////////////////////////////////////////////////////////////////////////
 
-    static HashMap<String, ICipherMaker> _cphMks = new HashMap<>();
+    static ConcurrentHashMap<String, ICipherMaker> _cphMks =
+        new ConcurrentHashMap<>();
 
     /**
      * Called by cipher implementations to register their factories, usually
@@ -62,47 +228,57 @@ public class Engine {
     public static void registerCipher(ICipherMaker cphMk) {
         String name = cphMk.getName();
 
-        synchronized(_cphMks) {
-            if (_cphMks.containsKey(name)) {
-                System.err.println("cipher \"" + name +
-                        "\" has been registered already");
-                System.exit(1);
-            }
-            _cphMks.put(cphMk.getName(), cphMk);
+        if (null != _cphMks.putIfAbsent(name, cphMk)) {
+            System.err.println("cipher \"" + name +
+                    "\" has been registered already");
+            System.exit(1);
         }
     }
 
     ///////////////////////////////////////////////////////////////////////////
 
-    // all the cipher classes must be listed here, the rest of the registration
-    // is done via reflection; this is done by having every class implementing
+    // all the built-in ciphers must be listed here, by name and class; the
+    // class gets loaded when the cipher is needed for the first time and then
+    // registers via reflection, this is done by having every class implementing
     // a 'public static void register()' method (see below)
-    static Class<?>[] _cipherClasses = {
-        de.org.mchahn.crypto.estreamj.ciphers.spritz.Spritz.class,
-        de.org.mchahn.crypto.estreamj.ciphers.rc4.RC4.class,
-        de.org.mchahn.crypto.estreamj.ciphers.phelix.Phelix.class,
-        de.org.mchahn.crypto.estreamj.ciphers.hc256.HC256.class,
-        de.org.mchahn.crypto.estreamj.ciphers.salsa20.Salsa20.class,
-        de.org.mchahn.crypto.estreamj.ciphers.aes.AESCTR.class,
-        de.org.mchahn.crypto.estreamj.ciphers.mickey.MICKEY.class,
-        de.org.mchahn.crypto.estreamj.ciphers.mickey.MICKEY128.class,
-        de.org.mchahn.crypto.estreamj.ciphers.hermes8.Hermes8.class,
-        de.org.mchahn.crypto.estreamj.ciphers.dragon.Dragon.class,
-        de.org.mchahn.crypto.estreamj.ciphers.lex.LEX.class,
-        de.org.mchahn.crypto.estreamj.ciphers.trivium.Trivium.class,
-        de.org.mchahn.crypto.estreamj.ciphers.sosemanuk.Sosemanuk.class,
-        de.org.mchahn.crypto.estreamj.ciphers.grain.GrainP2Noopt.class,
-        de.org.mchahn.crypto.estreamj.ciphers.grain.Grain128Noopt.class,
-        de.org.mchahn.crypto.estreamj.ciphers.nil.Nil.class
-    };
+    static final HashMap<String, String> _builtins = new HashMap<>();
 
-    ///////////////////////////////////////////////////////////////////////////
+    static void builtin(String clsName, String... names) {
+        for (String name : names) {
+            _builtins.put(name,
+                    "de.org.mchahn.crypto.estreamj.ciphers." + clsName);
+        }
+    }
 
     static {
-        try {
-            for (int i = 0; i < _cipherClasses.length; i++) {
+        builtin("spritz.Spritz"         , "Spritz");
+        builtin("rc4.RC4"               , "RC4");
+        builtin("phelix.Phelix"         , "Phelix", "Phelix96");
+        builtin("hc256.HC256"           , "HC-256");
+        builtin("salsa20.Salsa20"       , "Salsa20");
+        builtin("aes.AESCTR"            , "AESCTR128_lean", "AESCTR128_mean");
+        builtin("mickey.MICKEY"         , "MICKEY");
+        builtin("mickey.MICKEY128"      , "MICKEY128");
+        builtin("hermes8.Hermes8"       , "Hermes8-80", "Hermes8-128");
+        builtin("dragon.Dragon"         , "Dragon-128", "Dragon-256");
+        builtin("lex.LEX"               , "LEX-128");
+        builtin("trivium.Trivium"       , "Trivium");
+        builtin("sosemanuk.Sosemanuk"   , "SOSEMANUK");
+        builtin("grain.GrainP2Noopt"    , "Grain-noopt");
+        builtin("grain.Grain128Noopt"   , "Grain-128-noopt");
+        builtin("nil.Nil"               , "Nil");
+    }
+
+    // only ever called if a cipher is not registered (yet), so this is the one
+    // and only place where locking is needed
+    static void loadBuiltin(String name, String clsName) throws ESJException {
+        synchronized(_builtins) {
+            if (_cphMks.containsKey(name)) {
+                return;     // (some other thread was faster)
+            }
+            try {
                 // check if the register method is there and static
-                Class<?> cls = _cipherClasses[i];
+                Class<?> cls = Class.forName(clsName);
                 Method mthd = cls.getMethod("register", (Class[])null);
                 if (Modifier.STATIC != (mthd.getModifiers() & Modifier.STATIC)) {
                     throw new Exception(
@@ -111,11 +287,34 @@ public class Engine {
                 // ready to register
                 mthd.invoke(null, (Object[])null);
             }
+            catch (Exception e) {
+                throw new ESJException(
+                        "cipher registration error (" + e.getMessage() + ")");
+            }
         }
-        catch (Exception e) {
-            System.err.println(
-                    "cipher registration error (" + e.getMessage() + ")");
-            System.exit(1);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    static volatile boolean _servicesLoaded;
+
+    static void loadServices() {
+        if (_servicesLoaded) {
+            return;
+        }
+        synchronized(Engine.class) {
+            if (_servicesLoaded) {
+                return;
+            }
+            for (ICipherMaker cphMk : ServiceLoader.load(ICipherMaker.class)) {
+                String name = cphMk.getName();
+                if (_builtins.containsKey(name) ||
+                    null != _cphMks.putIfAbsent(name, cphMk)) {
+                    System.err.println("cipher service \"" + name +
+                            "\" ignored, name is taken already");
+                }
+            }
+            _servicesLoaded = true;
         }
     }
 }
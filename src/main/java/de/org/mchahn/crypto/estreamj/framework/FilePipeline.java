@@ -0,0 +1,192 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Processes a file into another one, with disk and cipher working at the
+ * same time. The data moves through a ring of direct buffers: while the
+ * calling thread runs the cipher over chunk n, chunk n-1 is being written and
+ * the chunks from n+1 on are being read, as far ahead as there are free
+ * buffers. With at least three buffers the throughput thus gets close to the
+ * one of the slower side, instead of what both of them take together; with
+ * two, reading and writing still overlap with the processing, but not with
+ * each other.
+ */
+public class FilePipeline {
+    /**
+     * default number of buffers
+     */
+    public static final int DEF_BUF_COUNT = 3;
+
+    int bufSize;
+    int bufCount;
+
+    /**
+     * Default constructor.
+     * @param bufSize size of a buffer, i.e. of a chunk in bytes, -1 for the
+     * default (buffers of that size come from a shared pool); gets aligned to
+     * the cipher's word size, but is never smaller than one word
+     * @param bufCount number of buffers, at least 2, -1 for the default
+     * @throws ESJException if the number of buffers is too small
+     */
+    public FilePipeline(int bufSize, int bufCount) throws ESJException {
+        this.bufSize = -1 == bufSize ? DirectBufferPool.DEF_BUF_SIZE : bufSize;
+        this.bufCount = -1 == bufCount ? DEF_BUF_COUNT : bufCount;
+        if (2 > this.bufCount || 0 >= this.bufSize) {
+            throw new ESJException("invalid buffer setup");
+        }
+    }
+
+    /**
+     * Runs a file through a cipher.
+     * @param src the file to read from
+     * @param dst the file to write to, gets created or overwritten; must not
+     * be the source
+     * @param cph the cipher, ready to process; MAC ciphers are not supported
+     * @return number of bytes processed
+     * @throws IOException if reading or writing failed
+     * @throws ESJException if processing failed or the cipher cannot be used
+     */
+    public long process(Path src, Path dst, ICipher cph)
+        throws IOException, ESJException {
+        if (cph instanceof ICipherMAC) {
+            throw new ESJException("MAC ciphers are not supported");
+        }
+        int wsz = cph.getWordSize();
+        int chunk = Math.max(wsz, this.bufSize - this.bufSize % wsz);
+
+        // (buffers smaller than a word got rounded up, so they are sized by
+        // the chunk rather than by what got asked for)
+        Slot[] slots = new Slot[this.bufCount];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(DirectBufferPool.DEF_BUF_SIZE == this.bufSize ?
+                    DirectBufferPool.DEFAULT.acquire() :
+                    ByteBuffer.allocateDirect(chunk));
+        }
+
+        long size;
+        try (AsynchronousFileChannel in = AsynchronousFileChannel.open(src,
+                StandardOpenOption.READ);
+             AsynchronousFileChannel out = AsynchronousFileChannel.open(dst,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            size = in.size();
+            long chunks = (size + chunk - 1) / chunk;
+            long nextRead = 0;
+            for (long n = 0; n < chunks; n++) {
+                // (never waiting for a buffer to become free, unless it is
+                // the one needed right now)
+                while (nextRead < chunks && nextRead < n + slots.length) {
+                    Slot slot = slots[(int)(nextRead % slots.length)];
+                    if (nextRead > n && !slot.isFree()) {
+                        break;
+                    }
+                    slot.awaitWrite(out);
+                    slot.startRead(in, nextRead * chunk,
+                            (int)Math.min(chunk, size - nextRead * chunk));
+                    nextRead++;
+                }
+
+                Slot slot = slots[(int)(n % slots.length)];
+                slot.awaitRead(in);
+                ByteBuffer buf = slot.buf;
+                cph.process(buf, buf.duplicate());
+                buf.flip();
+                slot.startWrite(out);
+            }
+            for (Slot slot : slots) {
+                slot.awaitWrite(out);
+            }
+        }
+        // (only now, failed runs might still have I/O going on)
+        if (DirectBufferPool.DEF_BUF_SIZE == this.bufSize) {
+            for (Slot slot : slots) {
+                DirectBufferPool.DEFAULT.release(slot.buf);
+            }
+        }
+        return size;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // a buffer and what's going on with it, reads and writes always cover
+    // the buffer from its position to its limit
+    static class Slot {
+        ByteBuffer buf;
+        long pos;
+        Future<Integer> read;
+        Future<Integer> write;
+
+        Slot(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        boolean isFree() {
+            return null == this.write || this.write.isDone();
+        }
+
+        void startRead(AsynchronousFileChannel in, long pos, int len) {
+            this.pos = pos;
+            this.buf.clear().limit(len);
+            this.read = in.read(this.buf, pos);
+        }
+
+        void awaitRead(AsynchronousFileChannel in) throws IOException {
+            // (reads can come back short, so the rest gets read right away)
+            for (;;) {
+                if (-1 == await(this.read)) {
+                    throw new IOException("file got shorter");
+                }
+                if (!this.buf.hasRemaining()) {
+                    break;
+                }
+                this.read = in.read(this.buf, this.pos + this.buf.position());
+            }
+            this.read = null;
+            this.buf.flip();
+        }
+
+        void startWrite(AsynchronousFileChannel out) {
+            this.write = out.write(this.buf, this.pos);
+        }
+
+        void awaitWrite(AsynchronousFileChannel out) throws IOException {
+            if (null == this.write) {
+                return;
+            }
+            for (;;) {
+                await(this.write);
+                if (!this.buf.hasRemaining()) {
+                    break;
+                }
+                this.write = out.write(this.buf,
+                        this.pos + this.buf.position());
+            }
+            this.write = null;
+        }
+
+        static int await(Future<Integer> op) throws IOException {
+            try {
+                return op.get();
+            }
+            catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                }
+                throw new IOException(cause);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package de.org.mchahn.crypto.estreamj.framework;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Generic interface every cipher needs to implement, so it can participate in
  * the test framework. If a cipher comes in different flavors (variable key
@@ -40,6 +43,16 @@ public interface ICipher {
      */
     public int getWordSize();
 
+    /**
+     * @return true if any length can be passed to process() on any call, i.e.
+     * the cipher keeps unused keystream from one call to the next by itself;
+     * the word size then is just the most efficient granularity (see also
+     * AnyLengthAdapter)
+     */
+    public default boolean acceptsAnyLength() {
+        return 1 == getWordSize();
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     /**
@@ -77,6 +90,7 @@ public interface ICipher {
      * @param outOfs where to start writing in the output buffer
      * @param len number of bytes to process, must be aligned to the cipher's
      * word size except on the last call where an arbitrary size can be used
+     * (no restrictions at all if acceptsAnyLength() says so)
      * @throws ESJException in any error occurred
      */
     public void process(
@@ -86,10 +100,170 @@ public interface ICipher {
             int outOfs,
             int len) throws ESJException;
 
+    /**
+     * Processes data between NIO buffers. All of the input's remaining bytes
+     * get processed, reading starts at its position and writing at the output's
+     * position; both positions are advanced afterwards. The same alignment
+     * rules as for the array based process() do apply. The default
+     * implementation works on the backing arrays of heap buffers directly and
+     * routes anything else through a small per thread heap chunk - ciphers
+     * which are used a lot with direct buffers should do better than that.
+     * @param in input buffer
+     * @param out output buffer, must have enough room for the input's data
+     * @throws ESJException in any error occurred
+     */
+    public default void process(ByteBuffer in, ByteBuffer out)
+        throws ESJException {
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+
+        if (in.hasArray() && out.hasArray()) {
+            process(
+                in.array(),
+                in.arrayOffset() + inPos,
+                out.array(),
+                out.arrayOffset() + outPos,
+                len);
+        }
+        else {
+            int csz = Utils.alignedChunkSize(getWordSize(), len);
+            byte[] chunk = Utils.chunkBuffer(csz);
+            for (int ofs = 0, c; ofs < len; ofs += c) {
+                c = Math.min(len - ofs, csz);
+                in.get(inPos + ofs, chunk, 0, c);
+                process(chunk, 0, chunk, 0, c);
+                out.put(outPos + ofs, chunk, 0, c);
+            }
+            Arrays.fill(chunk, 0, Math.min(len, csz), (byte)0);
+        }
+
+        // (both buffers might be the same instance)
+        in.position(inPos + len);
+        out.position(outPos + len);
+    }
+
+    /**
+     * Produces raw keystream, i.e. exactly what process() would XOR into the
+     * data at the current position. The stream advances just like it would
+     * during processing, and the same alignment rules do apply. The default
+     * implementation processes zeros, ciphers should rather generate the
+     * keystream straight into the buffer.
+     * @param out buffer to receive the keystream
+     * @param ofs where to start writing
+     * @param len number of keystream bytes to produce
+     * @throws ESJException if any error occurred or if the cipher does not
+     * combine its keystream with the data by XOR, so there is no such thing
+     */
+    public default void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        Arrays.fill(out, ofs, ofs + len, (byte)0);
+        process(out, ofs, out, ofs, len);
+    }
+
+    /**
+     * Advances the stream by a number of bytes, exactly as processing that
+     * much data would, but without producing anything. The same alignment
+     * rules as for process() do apply. The default implementation generates
+     * keystream into a small per thread chunk and throws it away; ciphers
+     * should rather just step their state, or jump right to the new position
+     * if they are counter based.
+     * @param n number of bytes to skip
+     * @throws ESJException if the number is negative, if any other error
+     * occurred or if the keystream depends on the data
+     */
+    public default void skip(long n) throws ESJException {
+        Utils.checkSkip(n);
+        int csz = Utils.alignedChunkSize(getWordSize(),
+                (int)Math.min(n, Integer.MAX_VALUE));
+        byte[] chunk = Utils.chunkBuffer(csz);
+        for (int c; 0 < n; n -= c) {
+            c = (int)Math.min(n, csz);
+            generateKeystream(chunk, 0, c);
+        }
+        Arrays.fill(chunk, 0, csz, (byte)0);
+    }
+
+    /**
+     * Processes a batch of independent messages with the current key, every
+     * one of them with its own nonce. Message i gets read from inputs[i] and
+     * written to outputs[i] (which may be the same), both starting at offset
+     * zero. Ciphers can work on several messages at once this way, to get
+     * small messages through almost as fast as bulk data. Afterwards a new
+     * nonce must be set up before the instance can be used again for regular
+     * processing. The default implementation just handles one message after
+     * the other.
+     * @param nonces one nonce per message, each starting at offset zero
+     * @param inputs one input buffer per message
+     * @param outputs one output buffer per message
+     * @param lengths number of bytes to process, per message
+     * @throws ESJException if any error occurred
+     */
+    public default void processBatch(
+            byte[][] nonces,
+            byte[][] inputs,
+            byte[][] outputs,
+            int[] lengths) throws ESJException {
+        int count = Utils.checkBatch(
+                getNonceSize(), nonces, inputs, outputs, lengths);
+        for (int i = 0; i < count; i++) {
+            setupNonce(nonces[i], 0);
+            process(inputs[i], 0, outputs[i], 0, lengths[i]);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Copies the complete state of another instance into this one, so both
+     * continue exactly the same way afterwards. Meant to be used right after
+     * a key setup, to then run the copies with different nonces while doing
+     * the key setup only once. Nothing gets allocated if this instance has
+     * been set up before already.
+     * @param src instance to copy from, must be of the same cipher (and
+     * flavor) as this one
+     * @throws ESJException if the source is not compatible or if the cipher
+     * does not support copying at all
+     */
+    public default void copyStateFrom(ICipher src) throws ESJException {
+        throw new ESJException("state copying not supported");
+    }
+
+    /**
+     * Creates a new instance with the same state as this one.
+     * @return the new instance, see copyStateFrom()
+     * @throws ESJException if the cipher does not support copying
+     */
+    public default ICipher fork() throws ESJException {
+        throw new ESJException("forking not supported");
+    }
+
+    /**
+     * Writes the complete running state, so the stream can be continued later
+     * by another instance (see CipherState.export()).
+     * @param st where to write to
+     * @throws ESJException if the cipher does not support state export
+     */
+    public default void exportState(CipherState st) throws ESJException {
+        throw new ESJException("state export not supported");
+    }
+
+    /**
+     * Reads the complete running state, as written by exportState(), and
+     * continues from there (see CipherState.restore()).
+     * @param st where to read from
+     * @throws ESJException if the state does not fit or if the cipher does
+     * not support state import
+     */
+    public default void importState(CipherState st) throws ESJException {
+        throw new ESJException("state import not supported");
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     /**
-     * Erases all sensitive data. Instance MUST be abadonned afterwards.
+     * Erases all sensitive data. Instance MUST NOT be used afterwards, unless
+     * a new key and nonce get set up.
      */
     public void erase();
 }
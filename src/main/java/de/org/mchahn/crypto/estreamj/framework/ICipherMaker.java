@@ -12,9 +12,20 @@ public interface ICipherMaker {
 
     /**
      * Create a new cipher instance.
-     * @return new instance, which can also be of the type ICipherMAC, use the
-     * "instanceof" keyword to find out what you are dealing with
+     * @return new instance, which can also be of the type ICipherMAC or
+     * ISeekableCipher, use the "instanceof" keyword to find out what you are
+     * dealing with
      * @throws ESJException if any error occurred
      */
     public ICipher create() throws ESJException;
+
+    /**
+     * Describes the ciphers this factory makes. Implementations should return
+     * a constant, the default creates an instance to find out.
+     * @return information about the cipher
+     * @throws ESJException if any error occurred
+     */
+    default CipherInfo getInfo() throws ESJException {
+        return CipherInfo.of(create());
+    }
 }
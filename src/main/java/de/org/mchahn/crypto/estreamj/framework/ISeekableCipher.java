@@ -0,0 +1,18 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+/**
+ * Stream ciphers which can jump to any position of their keystream without
+ * generating what's in front of it (counter modes and alike) implement this
+ * interface.
+ */
+public interface ISeekableCipher extends ICipher {
+    /**
+     * Moves the stream position, relative to the start of the current nonce.
+     * Subsequent processing then continues from there, as if all of the data
+     * before it got processed already.
+     * @param byteOffset new stream position in bytes, must be aligned to the
+     * cipher's word size
+     * @throws ESJException if the offset is invalid or no nonce got set up yet
+     */
+    public void seek(long byteOffset) throws ESJException;
+}
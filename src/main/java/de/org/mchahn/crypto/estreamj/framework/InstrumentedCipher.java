@@ -0,0 +1,333 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wraps a cipher and counts calls, bytes and the time spent in each phase.
+ * To keep the overhead low enough for production use the counts are kept in
+ * the instance first and get added to the shared metrics every FLUSH_OPS
+ * operations (or on key setup, erase() and flush()). Clock reads are costly
+ * too, so only every SAMPLE_RATE-th operation gets timed and its time is then
+ * accounted SAMPLE_RATE times. Key setups and batches are always timed. Calls
+ * failing with an error are not accounted. Seekable ciphers and ciphers
+ * computing MACs stay what they are, the wrapper then implements the
+ * respective interface as well. Every call also emits a flight recorder event
+ * (see CipherEvent), which costs nothing unless a recording has it enabled.
+ */
+public class InstrumentedCipher implements ICipher {
+    /**
+     * every how many operations one gets timed
+     */
+    public static final int SAMPLE_RATE = 16;
+
+    /**
+     * after how many operations the counts get added to the shared metrics
+     */
+    public static final int FLUSH_OPS = 64;
+
+    static final int SAMPLE_MASK = SAMPLE_RATE - 1;
+    static final int FLUSH_MASK = FLUSH_OPS - 1;
+
+    ICipher cph;
+    CipherMetrics metrics;
+    String name;
+    int tick;
+    long calls;
+    long bytes;
+    long nanos;
+    long nonces;
+    long nonceNanos;
+    long aadBytes;
+    long macNanos;
+
+    /**
+     * Wraps a cipher.
+     * @param cph the cipher to wrap, should be set up through the wrapper from
+     * now on
+     * @param metrics where to account what the cipher does
+     * @return new wrapper, implementing ICipherMAC or ISeekableCipher if the
+     * wrapped cipher does so
+     */
+    public static ICipher wrap(ICipher cph, CipherMetrics metrics) {
+        if (cph instanceof ISeekableCipher) {
+            return new Seekable(cph, metrics);
+        }
+        if (cph instanceof ICipherMAC) {
+            return new MAC(cph, metrics);
+        }
+        return new InstrumentedCipher(cph, metrics);
+    }
+
+    InstrumentedCipher(ICipher cph, CipherMetrics metrics) {
+        this.cph = cph;
+        this.metrics = metrics;
+        this.name = metrics.cipherName;
+    }
+
+    /**
+     * @return the wrapped cipher
+     */
+    public ICipher getCipher() {
+        return this.cph;
+    }
+
+    /**
+     * @return where the cipher's activities get accounted
+     */
+    public CipherMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Adds whatever got counted by this instance so far to the shared metrics.
+     */
+    public void flush() {
+        CipherMetrics metrics = this.metrics;
+        if (0 != this.calls) {
+            metrics.processCalls.add(this.calls);
+            metrics.processedBytes.add(this.bytes);
+            metrics.processNanos.add(this.nanos);
+            this.calls = this.bytes = this.nanos = 0;
+        }
+        if (0 != this.nonces) {
+            metrics.nonceSetups.add(this.nonces);
+            metrics.nonceSetupNanos.add(this.nonceNanos);
+            this.nonces = this.nonceNanos = 0;
+        }
+        if (0 != this.aadBytes || 0 != this.macNanos) {
+            metrics.aadBytes.add(this.aadBytes);
+            metrics.macNanos.add(this.macNanos);
+            this.aadBytes = this.macNanos = 0;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public boolean isPatented() {
+        return this.cph.isPatented();
+    }
+
+    public int getKeySize() {
+        return this.cph.getKeySize();
+    }
+
+    public int getNonceSize() {
+        return this.cph.getNonceSize();
+    }
+
+    public int getWordSize() {
+        return this.cph.getWordSize();
+    }
+
+    public boolean acceptsAnyLength() {
+        return this.cph.acceptsAnyLength();
+    }
+
+    public void reset() throws ESJException {
+        this.cph.reset();
+    }
+
+    public void setupKey(int mode, byte[] key, int ofs) throws ESJException {
+        CipherEvent ev = new CipherEvent.KeySetup();
+        ev.begin();
+        long tm = System.nanoTime();
+        this.cph.setupKey(mode, key, ofs);
+        ev.emit(this.name, 0);
+        this.metrics.keySetupNanos.add(System.nanoTime() - tm);
+        this.metrics.keySetups.increment();
+        flush();
+    }
+
+    public void setupNonce(byte[] nonce, int ofs) throws ESJException {
+        CipherEvent ev = new CipherEvent.NonceSetup();
+        ev.begin();
+        if (0 != (++this.tick & SAMPLE_MASK)) {
+            this.cph.setupNonce(nonce, ofs);
+        }
+        else {
+            long tm = System.nanoTime();
+            this.cph.setupNonce(nonce, ofs);
+            this.nonceNanos += (System.nanoTime() - tm) * SAMPLE_RATE;
+        }
+        ev.emit(this.name, 0);
+        this.nonces++;
+        checkFlush();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void process(
+            byte[] inBuf,
+            int inOfs,
+            byte[] outBuf,
+            int outOfs,
+            int len) throws ESJException {
+        CipherEvent ev = new CipherEvent.Process();
+        ev.begin();
+        if (0 != (++this.tick & SAMPLE_MASK)) {
+            this.cph.process(inBuf, inOfs, outBuf, outOfs, len);
+        }
+        else {
+            long tm = System.nanoTime();
+            this.cph.process(inBuf, inOfs, outBuf, outOfs, len);
+            this.nanos += (System.nanoTime() - tm) * SAMPLE_RATE;
+        }
+        ev.emit(this.name, len);
+        countProcess(len);
+    }
+
+    public void process(ByteBuffer in, ByteBuffer out) throws ESJException {
+        int len = in.remaining();
+        CipherEvent ev = new CipherEvent.Process();
+        ev.begin();
+        if (0 != (++this.tick & SAMPLE_MASK)) {
+            this.cph.process(in, out);
+        }
+        else {
+            long tm = System.nanoTime();
+            this.cph.process(in, out);
+            this.nanos += (System.nanoTime() - tm) * SAMPLE_RATE;
+        }
+        ev.emit(this.name, len);
+        countProcess(len);
+    }
+
+    public void generateKeystream(byte[] out, int ofs, int len)
+        throws ESJException {
+        CipherEvent ev = new CipherEvent.Process();
+        ev.begin();
+        if (0 != (++this.tick & SAMPLE_MASK)) {
+            this.cph.generateKeystream(out, ofs, len);
+        }
+        else {
+            long tm = System.nanoTime();
+            this.cph.generateKeystream(out, ofs, len);
+            this.nanos += (System.nanoTime() - tm) * SAMPLE_RATE;
+        }
+        ev.emit(this.name, len);
+        countProcess(len);
+    }
+
+    public void skip(long n) throws ESJException {
+        // (nothing gets processed, so there is nothing to account either)
+        this.cph.skip(n);
+    }
+
+    public void processBatch(
+            byte[][] nonces,
+            byte[][] inputs,
+            byte[][] outputs,
+            int[] lengths) throws ESJException {
+        CipherEvent ev = new CipherEvent.Process();
+        ev.begin();
+        long tm = System.nanoTime();
+        this.cph.processBatch(nonces, inputs, outputs, lengths);
+        // (the nonce setups are part of the processing time here)
+        this.nanos += System.nanoTime() - tm;
+        int count = nonces.length;
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += lengths[i];
+        }
+        this.bytes += total;
+        this.calls += count;
+        this.nonces += count;
+        ev.emit(this.name, total);
+        flush();
+    }
+
+    final void countProcess(int len) {
+        this.calls++;
+        this.bytes += len;
+        checkFlush();
+    }
+
+    final void checkFlush() {
+        if (0 == (this.tick & FLUSH_MASK)) {
+            flush();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void copyStateFrom(ICipher src) throws ESJException {
+        if (src instanceof InstrumentedCipher) {
+            src = ((InstrumentedCipher)src).cph;
+        }
+        this.cph.copyStateFrom(src);
+    }
+
+    public void exportState(CipherState st) throws ESJException {
+        this.cph.exportState(st);
+    }
+
+    public void importState(CipherState st) throws ESJException {
+        this.cph.importState(st);
+    }
+
+    public ICipher fork() throws ESJException {
+        return wrap(this.cph.fork(), this.metrics);
+    }
+
+    public void erase() {
+        this.cph.erase();
+        flush();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    static class Seekable extends InstrumentedCipher
+        implements ISeekableCipher {
+        Seekable(ICipher cph, CipherMetrics metrics) {
+            super(cph, metrics);
+        }
+
+        public void seek(long byteOffset) throws ESJException {
+            ((ISeekableCipher)this.cph).seek(byteOffset);
+        }
+    }
+
+    static class MAC extends InstrumentedCipher implements ICipherMAC {
+        MAC(ICipher cph, CipherMetrics metrics) {
+            super(cph, metrics);
+        }
+
+        public int getMacSize() {
+            return ((ICipherMAC)this.cph).getMacSize();
+        }
+
+        public void processAAD(byte[] buf, int ofs, int len)
+            throws ESJException {
+            ICipherMAC cph = (ICipherMAC)this.cph;
+            CipherEvent ev = new CipherEvent.Process();
+            ev.begin();
+            if (0 != (++this.tick & SAMPLE_MASK)) {
+                cph.processAAD(buf, ofs, len);
+            }
+            else {
+                long tm = System.nanoTime();
+                cph.processAAD(buf, ofs, len);
+                this.macNanos += (System.nanoTime() - tm) * SAMPLE_RATE;
+            }
+            ev.emit(this.name, len);
+            this.aadBytes += len;
+            checkFlush();
+        }
+
+        public void finalize(byte[] macBuf, int macOfs) throws ESJException {
+            ICipherMAC cph = (ICipherMAC)this.cph;
+            CipherEvent ev = new CipherEvent.Finalize();
+            ev.begin();
+            if (0 != (++this.tick & SAMPLE_MASK)) {
+                cph.finalize(macBuf, macOfs);
+            }
+            else {
+                long tm = System.nanoTime();
+                cph.finalize(macBuf, macOfs);
+                this.macNanos += (System.nanoTime() - tm) * SAMPLE_RATE;
+            }
+            ev.emit(this.name, 0);
+            checkFlush();
+        }
+    }
+}
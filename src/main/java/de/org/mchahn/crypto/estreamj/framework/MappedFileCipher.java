@@ -0,0 +1,216 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Encrypts and decrypts files in place, through memory mapping. The file gets
+ * mapped window by window and every window is processed right where it is, so
+ * the data never gets copied between kernel and heap. Seekable ciphers work
+ * on each window with all cores (see ParallelProcessor), others process the
+ * windows sequentially. Encryption appends a small trailer with the name of
+ * the cipher and the (random) nonce, decryption reads and removes it again.
+ * Neither operation is atomic: if it gets interrupted the file is left
+ * partially processed.
+ */
+public class MappedFileCipher {
+    /**
+     * default window size
+     */
+    public static final int DEF_WINDOW_SIZE = 64 << 20;
+
+    static final byte[] MAGIC = { 'E', 'S', 'J', 'F' };
+    static final int VERSION = 1;
+
+    int windowSize;
+    ForkJoinPool pool;
+
+    /**
+     * Default constructor.
+     * @param windowSize number of bytes to map at once, -1 for the default
+     * @param pool pool to run parallel processing in, null for the common one
+     */
+    public MappedFileCipher(int windowSize, ForkJoinPool pool) {
+        this.windowSize = -1 == windowSize ? DEF_WINDOW_SIZE : windowSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Encrypts a file in place.
+     * @param file the file
+     * @param cipherName name of the cipher to use, MAC ciphers are not
+     * supported (there would be no way to check the tag before the file got
+     * decrypted already)
+     * @param key buffer with key material
+     * @param keyOfs where the key starts
+     * @throws IOException if accessing the file failed
+     * @throws ESJException if the cipher is unknown or cannot be used
+     */
+    public void encrypt(Path file, String cipherName, byte[] key, int keyOfs)
+        throws IOException, ESJException {
+        ICipher cph = Engine.createCipher(cipherName);
+        if (cph instanceof ICipherMAC) {
+            throw new ESJException("MAC ciphers are not supported");
+        }
+        byte[] nonce = new byte[cph.getNonceSize()];
+        new SecureRandom().nextBytes(nonce);
+
+        try (FileChannel fc = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = fc.size();
+            process(fc, size, ICipher.MODE_ENCRYPT, cph, cipherName,
+                    key, keyOfs, nonce);
+            fc.write(ByteBuffer.wrap(makeTrailer(cipherName, nonce, size)),
+                     size);
+        }
+    }
+
+    /**
+     * Decrypts a file encrypted by encrypt(), in place.
+     * @param file the file
+     * @param key buffer with key material
+     * @param keyOfs where the key starts
+     * @return name of the cipher the file got encrypted with
+     * @throws IOException if accessing the file failed
+     * @throws ESJException if the file is not encrypted, the cipher is not
+     * available or cannot be used
+     */
+    public String decrypt(Path file, byte[] key, int keyOfs)
+        throws IOException, ESJException {
+        try (FileChannel fc = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Trailer tr = readTrailer(fc);
+            ICipher cph = Engine.createCipher(tr.cipherName);
+            if (tr.nonce.length != cph.getNonceSize()) {
+                throw new ESJException("nonce size mismatch");
+            }
+            process(fc, tr.dataLen, ICipher.MODE_DECRYPT, cph, tr.cipherName,
+                    key, keyOfs, tr.nonce);
+            fc.truncate(tr.dataLen);
+            return tr.cipherName;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    void process(
+            FileChannel fc,
+            long size,
+            int mode,
+            ICipher cph,
+            String cipherName,
+            byte[] key,
+            int keyOfs,
+            byte[] nonce) throws IOException, ESJException {
+        int wsz = cph.getWordSize();
+        int window = Math.max(wsz, this.windowSize - this.windowSize % wsz);
+
+        ParallelProcessor pp = null;
+        if (Engine.getCipherInfo(cipherName).isSeekable()) {
+            pp = new ParallelProcessor(cipherName, mode, key, keyOfs,
+                    nonce, 0, -1, this.pool);
+        }
+        else {
+            cph.setupKey(mode, key, keyOfs);
+            cph.setupNonce(nonce, 0);
+        }
+        try {
+            for (long pos = 0; pos < size; pos += window) {
+                MappedByteBuffer mbuf = fc.map(FileChannel.MapMode.READ_WRITE,
+                        pos, Math.min(window, size - pos));
+                if (null == pp) {
+                    cph.process(mbuf, mbuf.duplicate());
+                }
+                else {
+                    pp.process(pos, mbuf, mbuf.duplicate());
+                }
+            }
+        }
+        finally {
+            if (null == pp) {
+                cph.erase();
+            }
+            else {
+                pp.erase();
+            }
+        }
+    }
+
+    // trailer layout: magic, version, name length, name, nonce length, nonce,
+    // data length (64bit), trailer length (32bit) - all big endian, the last
+    // field makes it possible to find the trailer from the end of the file
+    static byte[] makeTrailer(String cipherName, byte[] nonce, long dataLen)
+        throws ESJException {
+        byte[] name = cipherName.getBytes(StandardCharsets.UTF_8);
+        if (255 < name.length || 255 < nonce.length) {
+            throw new ESJException("cipher name or nonce too long");
+        }
+        int len = MAGIC.length + 1 + 1 + name.length + 1 + nonce.length + 8 + 4;
+        ByteBuffer result = ByteBuffer.allocate(len);
+        result.put(MAGIC)
+              .put((byte)VERSION)
+              .put((byte)name.length).put(name)
+              .put((byte)nonce.length).put(nonce)
+              .putLong(dataLen)
+              .putInt(len);
+        return result.array();
+    }
+
+    static class Trailer {
+        String cipherName;
+        byte[] nonce;
+        long dataLen;
+    }
+
+    static Trailer readTrailer(FileChannel fc)
+        throws IOException, ESJException {
+        long size = fc.size();
+        ByteBuffer tail = ByteBuffer.allocate(4);
+        if (4 > size || 4 != fc.read(tail, size - 4)) {
+            throw new ESJException("file is not encrypted");
+        }
+        int len = tail.getInt(0);
+        if (MAGIC.length + 15 > len || 1024 < len || len > size) {
+            throw new ESJException("file is not encrypted");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (-1 == fc.read(buf, size - len + buf.position())) {
+                throw new ESJException("file is not encrypted");
+            }
+        }
+        buf.flip();
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new ESJException("file is not encrypted");
+            }
+            if (VERSION != buf.get()) {
+                throw new ESJException("unsupported file version");
+            }
+            Trailer result = new Trailer();
+            byte[] name = new byte[buf.get() & 0xff];
+            buf.get(name);
+            result.cipherName = new String(name, StandardCharsets.UTF_8);
+            result.nonce = new byte[buf.get() & 0xff];
+            buf.get(result.nonce);
+            result.dataLen = buf.getLong();
+            if (result.dataLen != size - len || buf.getInt() != len) {
+                throw new ESJException("corrupt file trailer");
+            }
+            return result;
+        }
+        catch (RuntimeException re) {
+            throw new ESJException("corrupt file trailer", re);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package de.org.mchahn.crypto.estreamj.framework;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes large buffers with seekable ciphers on multiple cores. The data
+ * gets split into chunks aligned to the cipher's word size, each chunk is then
+ * handled by its own cipher instance, positioned at the right keystream offset.
+ * The output is identical to what a single instance would produce sequentially.
+ */
+public class ParallelProcessor {
+    /**
+     * default chunk size, large enough to make the per chunk setup negligible
+     */
+    public static final int DEF_CHUNK_SIZE = 1 << 20;
+
+    String cipherName;
+    ICipher keyed;
+    byte[] nonce;
+    int chunkSize;
+    ForkJoinPool pool;
+
+    /**
+     * Default constructor.
+     * @param cipherName name of the cipher, must implement ISeekableCipher
+     * @param mode see ICipher.MODE_xxx
+     * @param key buffer with key material
+     * @param keyOfs where the key starts
+     * @param nonce buffer with nonce material
+     * @param nonceOfs where the nonce starts
+     * @param chunkSize number of bytes per task, -1 for the default; gets
+     * aligned to the cipher's word size
+     * @param pool pool to run the tasks in, null for the common pool
+     * @throws ESJException if the cipher is unknown or not seekable
+     */
+    public ParallelProcessor(
+            String cipherName,
+            int mode,
+            byte[] key,
+            int keyOfs,
+            byte[] nonce,
+            int nonceOfs,
+            int chunkSize,
+            ForkJoinPool pool) throws ESJException {
+        // (keyed once, every chunk then just copies the state)
+        if (!Engine.getCipherInfo(cipherName).isSeekable()) {
+            throw new ESJException("cipher \"" + cipherName +
+                    "\" is not seekable");
+        }
+        ICipher cph = Engine.createCipher(cipherName);
+        int wsz = cph.getWordSize();
+
+        cph.setupKey(mode, key, keyOfs);
+
+        this.cipherName = cipherName;
+        this.keyed = cph;
+        this.nonce = new byte[cph.getNonceSize()];
+        System.arraycopy(nonce, nonceOfs, this.nonce, 0, this.nonce.length);
+
+        this.chunkSize = -1 == chunkSize ? DEF_CHUNK_SIZE : chunkSize;
+        this.chunkSize -= this.chunkSize % wsz;
+        if (0 >= this.chunkSize) {
+            this.chunkSize = wsz;
+        }
+        this.pool = null == pool ? ForkJoinPool.commonPool() : pool;
+    }
+
+    /**
+     * Processes data, starting at a particular stream position. Input and
+     * output may be the same, but must not overlap otherwise.
+     * @param streamOfs keystream position of the first byte, relative to the
+     * start of the nonce; must be aligned to the cipher's word size
+     * @param inBuf input buffer
+     * @param inOfs where to start reading from the input buffer
+     * @param outBuf output buffer
+     * @param outOfs where to start writing in the output buffer
+     * @param len number of bytes to process
+     * @throws ESJException if any error occurred
+     */
+    public void process(
+            long streamOfs,
+            byte[] inBuf,
+            int inOfs,
+            byte[] outBuf,
+            int outOfs,
+            int len) throws ESJException {
+        if (0 > inOfs || 0 > outOfs || 0 > len ||
+            inOfs + len > inBuf.length || outOfs + len > outBuf.length) {
+            throw new ESJException("invalid buffer range");
+        }
+        try {
+            this.pool.invoke(new Task(
+                    streamOfs, inBuf, inOfs, outBuf, outOfs, len));
+        }
+        catch (TaskException te) {
+            throw te.esje;
+        }
+    }
+
+    /**
+     * Processes data from the start of the stream on.
+     * @see #process(long, byte[], int, byte[], int, int)
+     */
+    public void process(
+            byte[] inBuf,
+            int inOfs,
+            byte[] outBuf,
+            int outOfs,
+            int len) throws ESJException {
+        process(0L, inBuf, inOfs, outBuf, outOfs, len);
+    }
+
+    /**
+     * Processes buffer data, starting at a particular stream position. All of
+     * the input's remaining bytes get processed, reading starts at its
+     * position and writing at the output's position; both positions are
+     * advanced afterwards. Input and output may be the same buffer (or views
+     * on the same memory, like for in-place processing of a mapped file), but
+     * must not overlap otherwise.
+     * @param streamOfs keystream position of the first byte, relative to the
+     * start of the nonce; must be aligned to the cipher's word size
+     * @param in input buffer
+     * @param out output buffer, must have enough room for the input's data
+     * @throws ESJException if any error occurred
+     */
+    public void process(long streamOfs, ByteBuffer in, ByteBuffer out)
+        throws ESJException {
+        int len = Utils.checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        try {
+            this.pool.invoke(new Task(
+                    streamOfs, in, inPos, out, outPos, len));
+        }
+        catch (TaskException te) {
+            throw te.esje;
+        }
+        in.position(inPos + len);
+        out.position(outPos + len);
+    }
+
+    /**
+     * Erases the key material kept by the instance.
+     */
+    public void erase() {
+        this.keyed.erase();
+        Arrays.fill(this.nonce, (byte)0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // carries cipher errors through the fork/join machinery
+    static class TaskException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ESJException esje;
+
+        TaskException(ESJException esje) {
+            super(esje);
+            this.esje = esje;
+        }
+    }
+
+    class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        long streamOfs;
+        byte[] inBuf;
+        int inOfs;
+        byte[] outBuf;
+        int outOfs;
+        int len;
+        // (for buffers the offsets above are absolute buffer positions)
+        ByteBuffer inNio;
+        ByteBuffer outNio;
+
+        Task(long streamOfs,
+             byte[] inBuf,
+             int inOfs,
+             byte[] outBuf,
+             int outOfs,
+             int len) {
+            this.streamOfs = streamOfs;
+            this.inBuf = inBuf;
+            this.inOfs = inOfs;
+            this.outBuf = outBuf;
+            this.outOfs = outOfs;
+            this.len = len;
+        }
+
+        Task(long streamOfs,
+             ByteBuffer inNio,
+             int inOfs,
+             ByteBuffer outNio,
+             int outOfs,
+             int len) {
+            this(streamOfs, (byte[])null, inOfs, null, outOfs, len);
+            this.inNio = inNio;
+            this.outNio = outNio;
+        }
+
+        Task part(int ofs, int len) {
+            Task result = new Task(this.streamOfs + ofs,
+                    this.inBuf, this.inOfs + ofs,
+                    this.outBuf, this.outOfs + ofs,
+                    len);
+            result.inNio = this.inNio;
+            result.outNio = this.outNio;
+            return result;
+        }
+
+        protected void compute() {
+            int chunkSize = ParallelProcessor.this.chunkSize;
+
+            if (this.len <= chunkSize) {
+                try {
+                    processChunk();
+                }
+                catch (ESJException esje) {
+                    throw new TaskException(esje);
+                }
+                return;
+            }
+
+            // split at a chunk border, so every offset stays aligned
+            int half = ((this.len / chunkSize + 1) >> 1) * chunkSize;
+            invokeAll(part(0, half), part(half, this.len - half));
+        }
+
+        void processChunk() throws ESJException {
+            String name = ParallelProcessor.this.cipherName;
+            ISeekableCipher cph = (ISeekableCipher)Engine.acquireCipher(name);
+            try {
+                cph.copyStateFrom(ParallelProcessor.this.keyed);
+                cph.setupNonce(ParallelProcessor.this.nonce, 0);
+                cph.seek(this.streamOfs);
+                if (null == this.inNio) {
+                    cph.process(this.inBuf, this.inOfs,
+                                this.outBuf, this.outOfs, this.len);
+                }
+                else {
+                    // (views, since the tasks share the buffers)
+                    ByteBuffer in = this.inNio.duplicate();
+                    ByteBuffer out = this.outNio.duplicate();
+                    in.limit(this.inOfs + this.len).position(this.inOfs);
+                    out.limit(this.outOfs + this.len).position(this.outOfs);
+                    cph.process(in, out);
+                }
+            }
+            finally {
+                Engine.releaseCipher(name, cph);
+            }
+        }
+    }
+}
@@ -3,7 +3,12 @@ package de.org.mchahn.crypto.estreamj.framework;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.Objects;
 
 public class Utils {
     private Utils() {}
@@ -50,54 +55,324 @@ public class Utils {
         return true;
     }
 
+    /**
+     * Compares two byte ranges in constant time, meaning that the time spent
+     * does not depend on where (or if) the ranges differ. To be used for MAC
+     * checks and alike.
+     * @param a first buffer
+     * @param ofsA where the range starts in the first buffer
+     * @param b second buffer
+     * @param ofsB where the range starts in the second buffer
+     * @param len number of bytes to compare
+     * @return true if both ranges are equal
+     */
+    public static boolean constantTimeEquals(
+            byte[] a, int ofsA, byte[] b, int ofsB, int len) {
+        int diff = 0;
+        for (int i = 0; i < len; i++) {
+            diff |= a[ofsA + i] ^ b[ofsB + i];
+        }
+        return 0 == diff;
+    }
+
+    // views on byte arrays, so words get loaded and stored as a whole instead
+    // of being assembled from single bytes (the JIT turns these into plain,
+    // bounds checked memory accesses)
+    static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(
+            int[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(
+            int[].class, ByteOrder.BIG_ENDIAN);
+    static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.BIG_ENDIAN);
+    static final VarHandle LONG_NATIVE = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.nativeOrder());
+
     public static final int readInt32LE(byte[] data, int ofs) {
-        return ( data[ofs + 3]         << 24) |
-               ((data[ofs + 2] & 0xff) << 16) |
-               ((data[ofs + 1] & 0xff) <<  8) |
-                (data[ofs    ] & 0xff);
+        return (int)INT_LE.get(data, ofs);
     }
 
     public static final void writeInt32LE(int value, byte[] data, int ofs) {
-        data[ofs    ] = (byte)(value       );
-        data[ofs + 1] = (byte)(value >>>  8);
-        data[ofs + 2] = (byte)(value >>> 16);
-        data[ofs + 3] = (byte)(value >>> 24);
+        INT_LE.set(data, ofs, value);
     }
 
     public static final int readInt32BE(byte[] data, int ofs) {
-        return ( data[ofs    ]         << 24) |
-               ((data[ofs + 1] & 0xff) << 16) |
-               ((data[ofs + 2] & 0xff) <<  8) |
-                (data[ofs + 3] & 0xff);
+        return (int)INT_BE.get(data, ofs);
     }
 
     public static final void writeInt32BE(int value, byte[] data, int ofs) {
-        data[ofs + 3] = (byte)(value       );
-        data[ofs + 2] = (byte)(value >>>  8);
-        data[ofs + 1] = (byte)(value >>> 16);
-        data[ofs    ] = (byte)(value >>> 24);
+        INT_BE.set(data, ofs, value);
     }
 
     public static final long readInt64BE(byte[] data, int ofs) {
-        return ((long) data[ofs    ]         << 56) |
-               ((long)(data[ofs + 1] & 0xff) << 48) |
-               ((long)(data[ofs + 2] & 0xff) << 40) |
-               ((long)(data[ofs + 3] & 0xff) << 32) |
-               ((long)(data[ofs + 4] & 0xff) << 24) |
-                     ((data[ofs + 5] & 0xff) << 16) |
-                     ((data[ofs + 6] & 0xff) <<  8) |
-                      (data[ofs + 7] & 0xff);
+        return (long)LONG_BE.get(data, ofs);
     }
 
     public static final void writeInt64BE(long value, byte[] data, int ofs) {
-        data[ofs + 7] = (byte) value       ;
-        data[ofs + 6] = (byte)(value >>>  8);
-        data[ofs + 5] = (byte)(value >>> 16);
-        data[ofs + 4] = (byte)(value >>> 24);
-        data[ofs + 3] = (byte)(value >>> 32);
-        data[ofs + 2] = (byte)(value >>> 40);
-        data[ofs + 1] = (byte)(value >>> 48);
-        data[ofs    ] = (byte)(value >>> 56);
+        LONG_BE.set(data, ofs, value);
+    }
+
+    public static final long readInt64LE(byte[] data, int ofs) {
+        return (long)LONG_LE.get(data, ofs);
+    }
+
+    public static final void writeInt64LE(long value, byte[] data, int ofs) {
+        LONG_LE.set(data, ofs, value);
+    }
+
+    /**
+     * XORs keystream into data, 8 bytes at a time. Input and output may be the
+     * same, but must not overlap otherwise.
+     * @param in input buffer
+     * @param inOfs where to start reading from the input buffer
+     * @param ks keystream
+     * @param ksOfs where the keystream starts
+     * @param out output buffer
+     * @param outOfs where to start writing in the output buffer
+     * @param len number of bytes to combine
+     */
+    public static void xor(
+            byte[] in,
+            int inOfs,
+            byte[] ks,
+            int ksOfs,
+            byte[] out,
+            int outOfs,
+            int len) {
+        int end = ksOfs + len;
+        for (int wend = end - 7; ksOfs < wend;
+             ksOfs += 8, inOfs += 8, outOfs += 8) {
+            LONG_NATIVE.set(out, outOfs, (long)LONG_NATIVE.get(in, inOfs) ^
+                                         (long)LONG_NATIVE.get(ks, ksOfs));
+        }
+        while (ksOfs < end) {
+            out[outOfs++] = (byte)(in[inOfs++] ^ ks[ksOfs++]);
+        }
+    }
+
+    /**
+     * XORs a single keystream word into data, in little endian order.
+     * @param in input buffer
+     * @param inOfs where to read the input word from
+     * @param ks keystream word
+     * @param out output buffer
+     * @param outOfs where to write the output word to
+     */
+    public static void xorInt32LE(
+            byte[] in, int inOfs, int ks, byte[] out, int outOfs) {
+        INT_LE.set(out, outOfs, (int)INT_LE.get(in, inOfs) ^ ks);
+    }
+
+    /**
+     * Checks a pair of buffers before they get processed.
+     * @param in input buffer
+     * @param out output buffer
+     * @return number of bytes to process, which is what's remaining in the
+     * input buffer
+     * @throws ESJException if the output cannot take all of the input
+     */
+    public static int checkBuffers(ByteBuffer in, ByteBuffer out)
+        throws ESJException {
+        int len = in.remaining();
+        if (out.isReadOnly()) {
+            throw new ESJException("output buffer is read-only");
+        }
+        if (out.remaining() < len) {
+            throw new ESJException("output buffer too small (" +
+                    out.remaining() + " < " + len + ")");
+        }
+        return len;
+    }
+
+    /**
+     * Checks the arguments of a batch before it gets processed.
+     * @param nonceSize the cipher's nonce size
+     * @param nonces one nonce per message
+     * @param inputs one input buffer per message
+     * @param outputs one output buffer per message
+     * @param lengths one length per message
+     * @return number of messages in the batch
+     * @throws ESJException if the arrays do not match or any of the buffers is
+     * too small
+     */
+    public static int checkBatch(
+            int nonceSize,
+            byte[][] nonces,
+            byte[][] inputs,
+            byte[][] outputs,
+            int[] lengths) throws ESJException {
+        int count = lengths.length;
+        if (nonces.length != count ||
+            inputs.length != count ||
+            outputs.length != count) {
+            throw new ESJException("batch arrays differ in size");
+        }
+        for (int i = 0; i < count; i++) {
+            int len = lengths[i];
+            if (nonces[i].length < nonceSize ||
+                0 > len ||
+                inputs[i].length < len ||
+                outputs[i].length < len) {
+                throw new ESJException("invalid batch message " + i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Computes the size of an intermediate buffer.
+     * @param wordSize the cipher's word size
+     * @param len total number of bytes to get through
+     * @return chunk size, aligned to the word size and never larger than what
+     * is needed (except for the alignment)
+     */
+    public static int alignedChunkSize(int wordSize, int len) {
+        int result = DEF_CHUNK_SIZE - (DEF_CHUNK_SIZE % wordSize);
+        if (0 == result) {
+            result = wordSize;
+        }
+        if (len < result) {
+            result = ((len + wordSize - 1) / wordSize) * wordSize;
+        }
+        return 0 == result ? wordSize : result;
+    }
+
+    static final int DEF_CHUNK_SIZE = 4096;
+
+    /**
+     * Gets the calling thread's scratch buffer, for routing data through the
+     * heap without allocating every time. Callers must not hold on to it, nor
+     * leave sensitive data in there.
+     * @param size minimum number of bytes needed
+     * @return scratch buffer, at least of the size requested
+     */
+    static byte[] chunkBuffer(int size) {
+        byte[] result = _chunks.get();
+        if (result.length < size) {
+            result = new byte[size];
+            _chunks.set(result);
+        }
+        return result;
+    }
+
+    /**
+     * Processes a pair of buffers by XORing keystream right into them, so only
+     * the keystream passes through the heap but never the data. For ciphers
+     * where producing the keystream dominates anyway, e.g. bit-oriented ones.
+     * @param cph the cipher, which must combine its keystream by XOR
+     * @param in input buffer, its position gets moved past the data
+     * @param out output buffer, its position gets moved past the data
+     * @throws ESJException if the output cannot take all of the input or if
+     * the cipher failed
+     */
+    public static void xorKeystream(ICipher cph, ByteBuffer in, ByteBuffer out)
+        throws ESJException {
+        int len = checkBuffers(in, out);
+        int inPos = in.position();
+        int outPos = out.position();
+        int csz = alignedChunkSize(cph.getWordSize(), len);
+        byte[] ks = chunkBuffer(csz);
+
+        in.position(inPos + len);
+        out.position(outPos + len);
+
+        for (int ofs = 0, c; ofs < len; ofs += c) {
+            c = Math.min(len - ofs, csz);
+            cph.generateKeystream(ks, 0, c);
+            xor(in, inPos + ofs, ks, 0, out, outPos + ofs, c);
+        }
+        Arrays.fill(ks, 0, Math.min(len, csz), (byte)0);
+    }
+
+    /**
+     * Checks the number of bytes to pass to ICipher.skip().
+     * @param n number of bytes to skip
+     * @throws ESJException if the number is negative
+     */
+    public static void checkSkip(long n) throws ESJException {
+        if (0 > n) {
+            throw new ESJException("invalid skip length " + n);
+        }
+    }
+
+    static final ThreadLocal<byte[]> _chunks =
+        ThreadLocal.withInitial(() -> new byte[DEF_CHUNK_SIZE]);
+
+    /**
+     * XORs keystream into buffer data, using absolute positions. All of the
+     * bounds get checked upfront, so nothing gets written if any of the ranges
+     * is off. Buffers of the same byte order are combined 8 bytes at a time.
+     * @param in input buffer
+     * @param inPos where to start reading from the input buffer
+     * @param ks keystream
+     * @param ksOfs where the keystream starts
+     * @param out output buffer
+     * @param outPos where to start writing in the output buffer
+     * @param len number of bytes to combine
+     */
+    public static void xor(
+            ByteBuffer in,
+            int inPos,
+            byte[] ks,
+            int ksOfs,
+            ByteBuffer out,
+            int outPos,
+            int len) {
+        Objects.checkFromIndexSize(inPos, len, in.limit());
+        Objects.checkFromIndexSize(ksOfs, len, ks.length);
+        Objects.checkFromIndexSize(outPos, len, out.limit());
+
+        int end = ksOfs + len;
+        if (in.order() == out.order()) {
+            boolean le = ByteOrder.LITTLE_ENDIAN == in.order();
+            for (int wend = end - 7; ksOfs < wend;
+                 ksOfs += 8, inPos += 8, outPos += 8) {
+                long k = readInt64LE(ks, ksOfs);
+                out.putLong(outPos, in.getLong(inPos) ^
+                        (le ? k : Long.reverseBytes(k)));
+            }
+        }
+        while (ksOfs < end) {
+            out.put(outPos++, (byte)(in.get(inPos++) ^ ks[ksOfs++]));
+        }
+    }
+
+    /**
+     * XORs a single keystream word into buffer data, using absolute positions.
+     * The word gets applied in little endian order, like readInt32LE() would
+     * see it, no matter what the byte order of the buffers is.
+     * @param in input buffer
+     * @param inPos where to read the input word from
+     * @param ks keystream word
+     * @param out output buffer
+     * @param outPos where to write the output word to
+     */
+    public static void xorInt32LE(
+            ByteBuffer in, int inPos, int ks, ByteBuffer out, int outPos) {
+        writeInt32LE(readInt32LE(in, inPos) ^ ks, out, outPos);
+    }
+
+    public static final int readInt32LE(ByteBuffer buf, int pos) {
+        int result = buf.getInt(pos);
+        return ByteOrder.LITTLE_ENDIAN == buf.order() ? result :
+                                         Integer.reverseBytes(result);
+    }
+
+    public static final void writeInt32LE(int value, ByteBuffer buf, int pos) {
+        buf.putInt(pos, ByteOrder.LITTLE_ENDIAN == buf.order() ? value :
+                                                   Integer.reverseBytes(value));
+    }
+
+    public static final int readInt32BE(ByteBuffer buf, int pos) {
+        int result = buf.getInt(pos);
+        return ByteOrder.BIG_ENDIAN == buf.order() ? result :
+                                      Integer.reverseBytes(result);
+    }
+
+    public static final void writeInt32BE(int value, ByteBuffer buf, int pos) {
+        buf.putInt(pos, ByteOrder.BIG_ENDIAN == buf.order() ? value :
+                                                Integer.reverseBytes(value));
     }
 
     public static byte[] hexStrToBytes(String hex) {
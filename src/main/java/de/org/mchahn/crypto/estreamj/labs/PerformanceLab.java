@@ -1,9 +1,25 @@
 package de.org.mchahn.crypto.estreamj.labs;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import de.org.mchahn.crypto.estreamj.framework.CipherOutputStream;
 import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.ESJProvider;
 import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.FilePipeline;
 import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ISeekableCipher;
+import de.org.mchahn.crypto.estreamj.framework.MappedFileCipher;
+import de.org.mchahn.crypto.estreamj.framework.ParallelProcessor;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 public class PerformanceLab {
 
@@ -11,6 +27,8 @@ public class PerformanceLab {
         public static final int DEF_BUF_SIZE = 4 * 1024;
         public static final int DEF_TEST_RUN_SECS = 5;
 
+        static final int[] CHUNK_SIZES = { 256, 1024, 4096, 16384, 65536 };
+
         boolean aborted;
         PrintStream out;
         int bufSize;
@@ -35,6 +53,12 @@ public class PerformanceLab {
             try {
                 String[] ciphers = Engine.getCipherNames();
 
+                if (performXor() || performMetrics() || performRandom()) {
+                    this.out.println("\nABORTED!");
+                    this.out.flush();
+                    return;
+                }
+
                 for (String cipher : ciphers) {
                     if (this.aborted) {
                         break;
@@ -44,6 +68,25 @@ public class PerformanceLab {
                     }
                 }
 
+                for (String cipher : ciphers) {
+                    if (this.aborted) {
+                        break;
+                    }
+                    if (performBatch(cipher)) {
+                        break;
+                    }
+                }
+
+                for (String cipher : ciphers) {
+                    if (this.aborted) {
+                        break;
+                    }
+                    if (Engine.createCipher(cipher) instanceof ISeekableCipher &&
+                        performParallel(cipher)) {
+                        break;
+                    }
+                }
+
                 if (this.aborted) {
                     this.out.println("\nABORTED!");
                 }
@@ -64,10 +107,11 @@ public class PerformanceLab {
         // TODO: add extra testing for ciphers which support MAC computation
 
         protected boolean perform(String cipherName) {
-            long start, end, trueEnd, tm, rate, total;
+            long rate, rateDirect;
             int bufSize;
             ICipher cph;
             byte[] bufIn, bufOut;
+            ByteBuffer dbufIn, dbufOut;
 
             this.out.print("testing [" + cipherName + "] ...");
             this.out.flush();
@@ -96,18 +140,352 @@ public class PerformanceLab {
                 bufIn = new byte[bufSize];
                 bufOut = bufIn.clone();
 
+                if (-1 == (rate = measure(cph, bufIn, bufOut, null, null))) {
+                    return true;
+                }
+
+                // same again, but off-heap, i.e. through the NIO path
+                dbufIn = ByteBuffer.allocateDirect(bufSize);
+                dbufOut = ByteBuffer.allocateDirect(bufSize);
+
+                if (-1 == (rateDirect = measure(
+                        cph, null, null, dbufIn, dbufOut))) {
+                    return true;
+                }
+
+                this.out.printf(
+                        " OK -- %,d kB per second (byte[]), " +
+                        "%,d kB per second (direct)%n", rate, rateDirect);
+                cph.erase();
+            }
+            catch (ESJException esje) {
+                this.out.println(" ERROR (" + esje.getMessage() + ")");
+            }
+            this.out.flush();
+
+            return false;
+        }
+
+        /**
+         * Measures a cipher with different chunk sizes, next to the preferred
+         * one its descriptor names (which should be the smallest size where
+         * the throughput levels off).
+         * @return true if aborted
+         */
+        protected boolean performChunks(String cipherName) {
+            this.out.print("chunk sizes [" + cipherName + "] ...");
+            this.out.flush();
+            try {
+                ICipher cph = Engine.createCipher(cipherName);
+                cph.setupKey(
+                        ICipher.MODE_ENCRYPT,
+                        new byte[cph.getKeySize()],
+                        0);
+                cph.setupNonce(
+                        new byte[cph.getNonceSize()],
+                        0);
+                int wsz = cph.getWordSize();
+                for (int size : CHUNK_SIZES) {
+                    size = Math.max(wsz, size - size % wsz);
+                    byte[] buf = new byte[size];
+                    long rate = measure(cph, buf, buf, null, null);
+                    if (-1 == rate) {
+                        return true;
+                    }
+                    this.out.printf(" %d:%,d", size, rate);
+                }
+                this.out.printf(" kB per second, preferred %d%n",
+                        Engine.getCipherInfo(cipherName)
+                              .getPreferredChunkSize());
+                cph.erase();
+            }
+            catch (ESJException esje) {
+                this.out.println(" ERROR (" + esje.getMessage() + ")");
+            }
+            this.out.flush();
+
+            return false;
+        }
+
+        /**
+         * Measures how fast keystream gets combined with data, byte by byte
+         * (the way ciphers used to do it) versus the shared XOR kernel. Done
+         * in blocks, just like the ciphers produce their keystream.
+         * @return true if aborted
+         */
+        protected boolean performXor() {
+            long start, end, trueEnd, tm, total;
+            long[] rates = new long[2];
+            byte[] buf = new byte[this.bufSize - (this.bufSize % XOR_BLOCK)];
+            byte[] ks = new byte[XOR_BLOCK];
+
+            this.out.print("testing XOR kernel with " + XOR_BLOCK +
+                    " byte blocks ...");
+            this.out.flush();
+
+            for (int r = 0; r < rates.length; r++) {
                 start = System.currentTimeMillis();
                 end =  start + this.testRunSecs * 1000;
 
-                // FIXME: the overhead of the time gathering doesn't make the
-                //         tests 100% fair, since it'll get executed more often
-                //         with fast ciphers (maybe an adaptive solution could
-                //         help?)
                 total = 0;
                 while (end > (trueEnd = System.currentTimeMillis())) {
-                    cph.process(bufIn, 0, bufOut, 0, bufSize);
+                    for (int ofs = 0; ofs < buf.length; ofs += XOR_BLOCK) {
+                        ks[ofs & (XOR_BLOCK - 1)]++;
+                        if (0 == r) {
+                            for (int i = 0; i < XOR_BLOCK; i++) {
+                                buf[ofs + i] = (byte)(buf[ofs + i] ^ ks[i]);
+                            }
+                        }
+                        else {
+                            Utils.xor(buf, ofs, ks, 0, buf, ofs, XOR_BLOCK);
+                        }
+                    }
+                    total += buf.length;
+
+                    if (this.aborted) {
+                        return true;
+                    }
+                }
+                tm = trueEnd - start;
+                if (0 == tm) {
+                    tm = 1;
+                }
+                rates[r] = ((total * 1000000L) / tm) / 1000 / 1024;
+            }
+
+            this.out.printf(
+                    " OK -- %,d kB per second (bytewise), " +
+                    "%,d kB per second (8 bytes at a time)%n",
+                    rates[0], rates[1]);
+            this.out.flush();
+
+            return false;
+        }
+
+        static final int XOR_BLOCK = 64;
+
+        /**
+         * Measures what instrumentation costs, on the Nil cipher since it
+         * does (almost) nothing itself. Done with small and regular buffers.
+         * @return true if aborted
+         */
+        protected boolean performMetrics() {
+            long[] rates = new long[4];
+
+            this.out.print("testing instrumentation overhead [Nil] ...");
+            this.out.flush();
+
+            try {
+                for (int r = 0; r < rates.length; r++) {
+                    ICipher cph = 0 == (r & 1) ?
+                            Engine.createCipher("Nil") :
+                            Engine.createInstrumentedCipher("Nil");
+                    cph.setupKey(
+                            ICipher.MODE_ENCRYPT,
+                            new byte[cph.getKeySize()],
+                            0);
+                    cph.setupNonce(
+                            new byte[cph.getNonceSize()],
+                            0);
+
+                    byte[] buf = new byte[2 > r ? METRICS_MSG_SIZE :
+                            this.bufSize - (this.bufSize % cph.getWordSize())];
+                    if (-1 == (rates[r] = measure(cph, buf, buf, null, null))) {
+                        return true;
+                    }
+                }
+            }
+            catch (ESJException esje) {
+                this.out.println(" ERROR (" + esje.getMessage() + ")");
+                this.out.flush();
+                return false;
+            }
+
+            this.out.printf(
+                    " OK -- %d bytes: %,d vs. %,d kB per second (%d%%), " +
+                    "%d bytes: %,d vs. %,d kB per second (%d%%)%n",
+                    METRICS_MSG_SIZE, rates[0], rates[1],
+                    overhead(rates[0], rates[1]),
+                    this.bufSize, rates[2], rates[3],
+                    overhead(rates[2], rates[3]));
+            this.out.flush();
+
+            return false;
+        }
+
+        static long overhead(long plain, long instrumented) {
+            return 0 == plain ? 0 : ((plain - instrumented) * 100) / plain;
+        }
+
+        static final int METRICS_MSG_SIZE = 64;
+
+        /**
+         * Measures random generation with small requests, the platform's
+         * default generator versus the keystream based ones.
+         * @return true if aborted
+         */
+        protected boolean performRandom() {
+            long start, end, trueEnd, tm, total;
+            String[] names = ESJProvider.DEF_RANDOM_CIPHERS;
+            long[] rates = new long[1 + names.length];
+
+            this.out.print("testing SecureRandom with " + RANDOM_MSG_SIZE +
+                    " byte requests ...");
+            this.out.flush();
+
+            try {
+                ESJProvider prov = new ESJProvider();
+                byte[] buf = new byte[RANDOM_MSG_SIZE];
+                for (int r = 0; r < rates.length; r++) {
+                    SecureRandom rnd = 0 == r ? new SecureRandom() :
+                            SecureRandom.getInstance(names[r - 1], prov);
 
-                    total += bufSize;
+                    start = System.currentTimeMillis();
+                    end =  start + this.testRunSecs * 1000;
+
+                    total = 0;
+                    while (end > (trueEnd = System.currentTimeMillis())) {
+                        for (int i = 0; i < 1024; i++) {
+                            rnd.nextBytes(buf);
+                        }
+                        total += 1024 * RANDOM_MSG_SIZE;
+
+                        if (this.aborted) {
+                            return true;
+                        }
+                    }
+                    tm = trueEnd - start;
+                    if (0 == tm) {
+                        tm = 1;
+                    }
+                    rates[r] = ((total * 1000000L) / tm) / 1000 / 1024;
+                }
+            }
+            catch (GeneralSecurityException gse) {
+                this.out.println(" ERROR (" + gse.getMessage() + ")");
+                this.out.flush();
+                return false;
+            }
+
+            this.out.printf(" OK -- %,d kB per second (default)", rates[0]);
+            for (int i = 0; i < names.length; i++) {
+                this.out.printf(", %,d kB per second (%s)",
+                        rates[1 + i], names[i]);
+            }
+            this.out.println();
+            this.out.flush();
+
+            return false;
+        }
+
+        static final int RANDOM_MSG_SIZE = 16;
+
+        /**
+         * Measures small message throughput, one message after the other
+         * versus all of them as a batch.
+         * @return true if aborted
+         */
+        protected boolean performBatch(String cipherName) {
+            long start, end, trueEnd, tm, total;
+            long[] rates = new long[2];
+
+            this.out.print("testing [" + cipherName + "] with " +
+                    BATCH_MSG_SIZE + " byte messages ...");
+            this.out.flush();
+
+            try {
+                ICipher cph = Engine.createCipher(cipherName);
+                cph.setupKey(
+                        ICipher.MODE_ENCRYPT,
+                        new byte[cph.getKeySize()],
+                        0);
+
+                byte[][] nonces = new byte[BATCH_SIZE][cph.getNonceSize()];
+                byte[][] bufs = new byte[BATCH_SIZE][BATCH_MSG_SIZE];
+                int[] lengths = new int[BATCH_SIZE];
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    nonces[i][0] = (byte)i;
+                    lengths[i] = BATCH_MSG_SIZE;
+                }
+
+                for (int r = 0; r < rates.length; r++) {
+                    start = System.currentTimeMillis();
+                    end =  start + this.testRunSecs * 1000;
+
+                    total = 0;
+                    while (end > (trueEnd = System.currentTimeMillis())) {
+                        if (0 == r) {
+                            for (int i = 0; i < BATCH_SIZE; i++) {
+                                cph.setupNonce(nonces[i], 0);
+                                cph.process(bufs[i], 0, bufs[i], 0,
+                                        BATCH_MSG_SIZE);
+                            }
+                        }
+                        else {
+                            cph.processBatch(nonces, bufs, bufs, lengths);
+                        }
+                        total += BATCH_SIZE * BATCH_MSG_SIZE;
+
+                        if (this.aborted) {
+                            return true;
+                        }
+                    }
+                    tm = trueEnd - start;
+                    if (0 == tm) {
+                        tm = 1;
+                    }
+                    rates[r] = ((total * 1000000L) / tm) / 1000 / 1024;
+                }
+
+                this.out.printf(
+                        " OK -- %,d kB per second (single), " +
+                        "%,d kB per second (batch)%n", rates[0], rates[1]);
+                cph.erase();
+            }
+            catch (ESJException esje) {
+                this.out.println(" ERROR (" + esje.getMessage() + ")");
+            }
+            this.out.flush();
+
+            return false;
+        }
+
+        static final int BATCH_SIZE = 64;
+        static final int BATCH_MSG_SIZE = 256;
+
+        /**
+         * Measures bulk throughput of a seekable cipher, running on all cores.
+         * @return true if aborted
+         */
+        protected boolean performParallel(String cipherName) {
+            long start, end, trueEnd, tm, rate, total;
+            byte[] buf;
+            ParallelProcessor pp;
+
+            this.out.print("testing [" + cipherName + "] in parallel ...");
+            this.out.flush();
+
+            try {
+                ICipher cph = Engine.createCipher(cipherName);
+                pp = new ParallelProcessor(
+                        cipherName,
+                        ICipher.MODE_ENCRYPT,
+                        new byte[cph.getKeySize()],
+                        0,
+                        new byte[cph.getNonceSize()],
+                        0,
+                        -1,
+                        null);
+
+                buf = new byte[PARALLEL_BUF_SIZE];
+
+                start = System.currentTimeMillis();
+                end =  start + this.testRunSecs * 1000;
+
+                total = 0;
+                while (end > (trueEnd = System.currentTimeMillis())) {
+                    pp.process(buf, 0, buf, 0, buf.length);
+                    total += buf.length;
 
                     if (this.aborted) {
                         return true;
@@ -122,8 +500,9 @@ public class PerformanceLab {
                 rate /= 1000;
                 rate /= 1024;
 
-                this.out.printf(" OK -- %,d kB per second%n", rate);
-                cph.erase();
+                this.out.printf(" OK -- %,d kB per second (%d cores)%n",
+                        rate, Runtime.getRuntime().availableProcessors());
+                pp.erase();
             }
             catch (ESJException esje) {
                 this.out.println(" ERROR (" + esje.getMessage() + ")");
@@ -132,16 +511,176 @@ public class PerformanceLab {
 
             return false;
         }
+
+        static final int PARALLEL_BUF_SIZE = 64 << 20;
+
+        static final String[] FILE_CIPHERS = { "Salsa20", "HC-256" };
+
+        /**
+         * Measures file encryption, going through streams or the asynchronous
+         * pipeline into a second file, and in place via memory mapping. To
+         * see what the disk (and not the page cache) can do, the file should
+         * be larger than the amount of free memory.
+         * @param dir where to create the test file
+         * @param size size of the test file in bytes
+         * @return true if aborted
+         */
+        protected boolean performFile(Path dir, long size) {
+            Path src = null, dst = null;
+            try {
+                src = Files.createTempFile(dir, "estreamj", ".tmp");
+                dst = Files.createTempFile(dir, "estreamj", ".tmp");
+
+                byte[] buf = new byte[1 << 20];
+                this.out.printf("creating test file (%,d MB) ...", size >> 20);
+                this.out.flush();
+                try (OutputStream os = Files.newOutputStream(src)) {
+                    for (long c = 0; c < size; c += buf.length) {
+                        os.write(buf, 0, (int)Math.min(buf.length, size - c));
+                        if (this.aborted) {
+                            return true;
+                        }
+                    }
+                }
+                this.out.println(" OK");
+
+                for (String cipherName : FILE_CIPHERS) {
+                    this.out.print("testing [" + cipherName + "] on files ...");
+                    this.out.flush();
+
+                    ICipher cph = Engine.createCipher(cipherName);
+                    byte[] key = new byte[cph.getKeySize()];
+                    cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+                    cph.setupNonce(new byte[cph.getNonceSize()], 0);
+
+                    long start = System.currentTimeMillis();
+                    try (InputStream is = Files.newInputStream(src);
+                         OutputStream os = new CipherOutputStream(
+                                 Files.newOutputStream(dst), cph)) {
+                        int c;
+                        while (-1 != (c = is.read(buf))) {
+                            os.write(buf, 0, c);
+                            if (this.aborted) {
+                                return true;
+                            }
+                        }
+                    }
+                    long tmStream = System.currentTimeMillis() - start;
+
+                    cph.setupNonce(new byte[cph.getNonceSize()], 0);
+                    start = System.currentTimeMillis();
+                    new FilePipeline(-1, -1).process(src, dst, cph);
+                    long tmPipeline = System.currentTimeMillis() - start;
+
+                    MappedFileCipher mfc = new MappedFileCipher(-1, null);
+                    start = System.currentTimeMillis();
+                    mfc.encrypt(src, cipherName, key, 0);
+                    long tmMapped = System.currentTimeMillis() - start;
+                    // (back to plain, for the next round)
+                    mfc.decrypt(src, key, 0);
+
+                    this.out.printf(" OK -- %,d kB per second (streams), " +
+                            "%,d kB per second (pipeline), " +
+                            "%,d kB per second (mapped)%n",
+                            size * 1000 / Math.max(1, tmStream) / 1024,
+                            size * 1000 / Math.max(1, tmPipeline) / 1024,
+                            size * 1000 / Math.max(1, tmMapped) / 1024);
+                }
+            }
+            catch (IOException | ESJException e) {
+                this.out.println(" ERROR (" + e.getMessage() + ")");
+            }
+            finally {
+                try {
+                    if (null != src) {
+                        Files.deleteIfExists(src);
+                    }
+                    if (null != dst) {
+                        Files.deleteIfExists(dst);
+                    }
+                }
+                catch (IOException ioe) {
+                    this.out.println("cannot delete test files");
+                }
+            }
+            this.out.flush();
+
+            return false;
+        }
+
+        /**
+         * Runs a cipher for the configured time, either on arrays or on
+         * (direct) buffers, whatever got passed.
+         * @return throughput in kB per second, -1 if aborted
+         */
+        long measure(
+                ICipher cph,
+                byte[] bufIn,
+                byte[] bufOut,
+                ByteBuffer dbufIn,
+                ByteBuffer dbufOut) throws ESJException {
+            long start, end, trueEnd, tm, rate, total;
+
+            start = System.currentTimeMillis();
+            end =  start + this.testRunSecs * 1000;
+
+            // FIXME: the overhead of the time gathering doesn't make the
+            //         tests 100% fair, since it'll get executed more often
+            //         with fast ciphers (maybe an adaptive solution could
+            //         help?)
+            total = 0;
+            while (end > (trueEnd = System.currentTimeMillis())) {
+                if (null != bufIn) {
+                    cph.process(bufIn, 0, bufOut, 0, bufIn.length);
+                    total += bufIn.length;
+                }
+                else {
+                    dbufIn.clear();
+                    dbufOut.clear();
+                    cph.process(dbufIn, dbufOut);
+                    total += dbufIn.capacity();
+                }
+
+                if (this.aborted) {
+                    return -1;
+                }
+            }
+            tm = trueEnd - start;
+            if (0 == tm) {
+                tm = 1;
+            }
+
+            rate = (total * 1000000L) / tm;
+            rate /= 1000;
+            rate /= 1024;
+            return rate;
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////
 
     /**
      * Command line application entry point.
-     * @param args parameters
+     * @param args parameters, "-file <dir> <MB>" for the file tests only,
+     * "-chunks" for the chunk size tests only
      */
     public static void main(String[] args) {
+        if (1 == args.length && "-chunks".equals(args[0])) {
+            Tester tester = new Tester(System.out, -1, 1);
+            for (String cipher : Engine.getCipherNames()) {
+                if (tester.performChunks(cipher)) {
+                    break;
+                }
+            }
+            return;
+        }
         Tester tester = new Tester(System.out, -1, -1);
+        // (file tests only on demand, they need a lot of disk space)
+        if (3 == args.length && "-file".equals(args[0])) {
+            tester.performFile(Paths.get(args[1]),
+                    Long.parseLong(args[2]) << 20);
+            return;
+        }
         tester.run();
     }
 }
@@ -0,0 +1,116 @@
+package de.org.mchahn.crypto.estreamj;
+
+import de.org.mchahn.crypto.estreamj.framework.AEAD;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sealed data must open again, any modification must be detected and must
+ * not leak plaintext.
+ */
+public class AEADTest {
+    static final int[] LENGTHS = { 0, 1, 4, 31, 64, 1001 };
+
+    @Test
+    public void testRoundTrip() throws ESJException {
+        for (String name : new String[] { "Phelix", "Phelix96" }) {
+            AEAD aead = new AEAD(name);
+            byte[] key = new byte[32];
+            byte[] nonce = new byte[16];
+            byte[] aad = { 1, 2, 3, 4, 5, 6, 7 };
+
+            for (int len : LENGTHS) {
+                key[0] = (byte)len;     // (re-keying every now and then)
+                nonce[1] = (byte)len;
+                byte[] ptxt = new byte[len];
+                Utils.fillPattern123(ptxt, 0, len);
+                byte[] ctxt = new byte[1 + len + aead.getMacSize()];
+
+                assertEquals(len + aead.getMacSize(), aead.seal(
+                        key, 0, nonce, 0, aad, 0, aad.length,
+                        ptxt, 0, len, ctxt, 1));
+
+                byte[] got = new byte[len];
+                assertEquals(len, aead.open(
+                        key, 0, nonce, 0, aad, 0, aad.length,
+                        ctxt, 1, len + aead.getMacSize(), got, 0));
+                assertArrayEquals(name + ":" + len, ptxt, got);
+
+                // in place, with and without AAD
+                aead.seal(key, 0, nonce, 0, null, 0, 0, ptxt, 0, len, ctxt, 0);
+                aead.open(key, 0, nonce, 0, null, 0, 0,
+                        ctxt, 0, len + aead.getMacSize(), ctxt, 0);
+                assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 0, len));
+            }
+            aead.erase();
+        }
+    }
+
+    @Test
+    public void testTampering() throws ESJException {
+        AEAD aead = new AEAD("Phelix");
+        byte[] key = new byte[32];
+        byte[] nonce = new byte[16];
+        byte[] aad = new byte[12];
+        int len = 100;
+        int total = len + aead.getMacSize();
+        byte[] ptxt = new byte[len];
+        Utils.fillPattern123(ptxt, 0, len);
+        byte[] ctxt = new byte[total];
+        aead.seal(key, 0, nonce, 0, aad, 0, aad.length, ptxt, 0, len, ctxt, 0);
+
+        for (int i = 0; i < total + 2; i++) {
+            byte[] ctxt2 = ctxt.clone();
+            byte[] aad2 = aad.clone();
+            if (i < total) {
+                ctxt2[i] ^= 0x40;
+            }
+            else if (i == total) {
+                aad2[3] ^= 1;
+            }
+            else {
+                nonce[15] = 1;
+            }
+            byte[] got = new byte[len];
+            try {
+                aead.open(key, 0, nonce, 0, aad2, 0, aad2.length,
+                        ctxt2, 0, total, got, 0);
+                fail("" + i);
+            }
+            catch (ESJException esje) {
+            }
+            assertArrayEquals(new byte[len], got);
+        }
+
+        try {
+            aead.open(key, 0, nonce, 0, null, 0, 0,
+                    ctxt, 0, aead.getMacSize() - 1, ctxt, 0);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            new AEAD("Salsa20");
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+
+    @Test
+    public void testConstantTimeEquals() {
+        byte[] a = { 1, 2, 3, 4 };
+        byte[] b = { 0, 1, 2, 3, 4 };
+        assertTrue(Utils.constantTimeEquals(a, 0, b, 1, 4));
+        assertTrue(Utils.constantTimeEquals(a, 0, b, 0, 0));
+        b[4] = 5;
+        assertFalse(Utils.constantTimeEquals(a, 0, b, 1, 4));
+    }
+}
@@ -0,0 +1,70 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Once a cipher got keyed, re-keying, nonce setup and processing must not
+ * allocate anymore.
+ */
+public class AllocationTest {
+    static final int LOOPS = 1000;
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        com.sun.management.ThreadMXBean tmx = null;
+        if (ManagementFactory.getThreadMXBean() instanceof
+                com.sun.management.ThreadMXBean) {
+            tmx = (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+        }
+        Assume.assumeTrue(null != tmx && tmx.isThreadAllocatedMemorySupported());
+        tmx.setThreadAllocatedMemoryEnabled(true);
+
+        for (String name : Engine.getCipherNames()) {
+            ICipher cph = Engine.createCipher(name);
+            byte[] key = new byte[cph.getKeySize()];
+            byte[] nonce = new byte[cph.getNonceSize()];
+            byte[] buf = new byte[cph.getWordSize() * 64];
+            ByteBuffer dbuf = ByteBuffer.allocateDirect(buf.length);
+
+            // (the first round may allocate, e.g. buffers created lazily)
+            run(cph, key, nonce, buf, dbuf, 1);
+
+            // a few stray bytes might come from the JIT or alike, but
+            // anything per call would add up to at least 16 bytes each
+            long before = tmx.getCurrentThreadAllocatedBytes();
+            run(cph, key, nonce, buf, dbuf, LOOPS);
+            long allocated = tmx.getCurrentThreadAllocatedBytes() - before;
+            assertTrue(name + " allocated " + allocated + " bytes",
+                    allocated < LOOPS);
+        }
+    }
+
+    static void run(
+            ICipher cph,
+            byte[] key,
+            byte[] nonce,
+            byte[] buf,
+            ByteBuffer dbuf,
+            int loops) throws ESJException {
+        for (int i = 0; i < loops; i++) {
+            key[0] = (byte)i;
+            cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+            nonce[0] = (byte)i;
+            cph.setupNonce(nonce, 0);
+            cph.process(buf, 0, buf, 0, buf.length);
+            cph.reset();
+            dbuf.clear();
+            cph.process(dbuf, dbuf);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.nio.ByteBuffer;
+
+import de.org.mchahn.crypto.estreamj.framework.AnyLengthAdapter;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Odd-sized calls, either through the adapter or natively, must produce the
+ * same output as one single call.
+ */
+public class AnyLengthTest {
+    static final int DATA_LEN = 2003;
+    static final int[] SIZES = { 1, 3, 7, 13, 64, 80, 81, 5, 129, 2, 200 };
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            if (!KeystreamTest.isXorCipher(name)) {
+                continue;
+            }
+            byte[] exp = new byte[DATA_LEN];
+            Utils.fillPattern123(exp, 0, exp.length);
+            ByteBufferTest.setup(name).process(exp, 0, exp, 0, exp.length);
+
+            ICipher cph = AnyLengthAdapter.wrap(ByteBufferTest.setup(name));
+            assertTrue(name, cph.acceptsAnyLength());
+
+            byte[] got = new byte[DATA_LEN];
+            byte[] ks = new byte[DATA_LEN];
+            ByteBuffer dbuf = ByteBuffer.allocateDirect(DATA_LEN);
+            Utils.fillPattern123(got, 0, got.length);
+            for (int ofs = 0, c, i = 0; ofs < DATA_LEN; ofs += c, i++) {
+                c = Math.min(SIZES[i % SIZES.length], DATA_LEN - ofs);
+                switch (i % 3) {
+                    case 0: {
+                        cph.process(got, ofs, got, ofs, c);
+                        break;
+                    }
+                    case 1: {
+                        cph.generateKeystream(ks, 0, c);
+                        for (int j = 0; j < c; j++) {
+                            got[ofs + j] ^= ks[j];
+                        }
+                        break;
+                    }
+                    default: {
+                        dbuf.clear();
+                        dbuf.put(got, ofs, c).flip();
+                        cph.process(dbuf, dbuf);
+                        dbuf.flip();
+                        dbuf.get(got, ofs, c);
+                        break;
+                    }
+                }
+            }
+            assertArrayEquals(name, exp, got);
+
+            // a new nonce must drop whatever is left over
+            cph.setupNonce(new byte[cph.getNonceSize()], 0);
+            cph.process(got, 0, got, 0, 1);
+            byte[] nonce = new byte[cph.getNonceSize()];
+            nonce[0] = 2;
+            cph.setupNonce(nonce, 0);
+            Utils.fillPattern123(got, 0, got.length);
+            cph.process(got, 0, got, 0, got.length);
+            assertArrayEquals(name, exp, got);
+        }
+    }
+
+    @Test
+    public void testWrap() throws ESJException {
+        for (String name : new String[] { "Salsa20", "SOSEMANUK",
+                "AESCTR128_mean", "RC4" }) {
+            ICipher cph = Engine.createCipher(name);
+            assertSame(name, cph, AnyLengthAdapter.wrap(cph));
+        }
+        ICipher cph = Engine.createCipher("HC-256");
+        ICipher wrapped = AnyLengthAdapter.wrap(cph);
+        assertTrue(wrapped instanceof AnyLengthAdapter);
+        assertSame(cph, ((AnyLengthAdapter)wrapped).getCipher());
+    }
+}
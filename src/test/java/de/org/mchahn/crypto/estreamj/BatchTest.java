@@ -0,0 +1,107 @@
+package de.org.mchahn.crypto.estreamj;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Batches must produce exactly what single message processing does, for any
+ * mix of message sizes.
+ */
+public class BatchTest {
+    static final int[] LENGTHS = {
+        64, 512, 0, 1, 63, 65, 511, 300, 128, 4, 3, 1000, 77
+    };
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            int count = LENGTHS.length;
+            ICipher cph = ByteBufferTest.setup(name);
+            byte[][] nonces = new byte[count][cph.getNonceSize()];
+            byte[][] inputs = new byte[count][];
+            byte[][] outputs = new byte[count][];
+            byte[][] exp = new byte[count][];
+
+            for (int i = 0; i < count; i++) {
+                nonces[i][0] = (byte)i;
+                nonces[i][nonces[i].length - 1] = (byte)(i * 7);
+                inputs[i] = new byte[LENGTHS[i]];
+                Utils.fillPattern123(inputs[i], 0, LENGTHS[i]);
+
+                exp[i] = new byte[LENGTHS[i]];
+                cph.setupNonce(nonces[i], 0);
+                cph.process(inputs[i], 0, exp[i], 0, LENGTHS[i]);
+
+                // every third message in place, some with larger buffers
+                if (0 == i % 3) {
+                    outputs[i] = inputs[i].clone();
+                }
+                else {
+                    outputs[i] = new byte[LENGTHS[i] + (i & 1)];
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (0 == i % 3) {
+                    inputs[i] = outputs[i];
+                }
+            }
+
+            // odd and even number of messages
+            ICipher bcph = ByteBufferTest.setup(name);
+            bcph.processBatch(nonces, inputs, outputs, LENGTHS);
+            for (int i = 0; i < count; i++) {
+                byte[] got = new byte[LENGTHS[i]];
+                System.arraycopy(outputs[i], 0, got, 0, got.length);
+                assertArrayEquals(name + ":" + i, exp[i], got);
+            }
+
+            byte[][] nonces2 = { nonces[1], nonces[3] };
+            byte[][] inputs2 = { new byte[512], new byte[512] };
+            byte[][] outputs2 = { new byte[512], new byte[512] };
+            Utils.fillPattern123(inputs2[0], 0, 512);
+            Utils.fillPattern123(inputs2[1], 0, 512);
+            bcph.processBatch(nonces2, inputs2, outputs2, new int[] { 512, 1 });
+            assertArrayEquals(name, exp[1], outputs2[0]);
+            assertArrayEquals(name, new byte[] { exp[3][0] },
+                    new byte[] { outputs2[1][0] });
+
+            // regular processing must be possible afterwards
+            byte[] data = new byte[LENGTHS[1]];
+            Utils.fillPattern123(data, 0, data.length);
+            bcph.setupNonce(nonces[1], 0);
+            bcph.process(data, 0, data, 0, data.length);
+            assertArrayEquals(name, exp[1], data);
+        }
+    }
+
+    @Test
+    public void testErrors() throws ESJException {
+        ICipher cph = ByteBufferTest.setup("Salsa20");
+        byte[][] bufs = { new byte[8], new byte[8] };
+        try {
+            cph.processBatch(bufs, bufs, bufs, new int[] { 8 });
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            cph.processBatch(bufs, bufs, bufs, new int[] { 8, 9 });
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            cph.processBatch(new byte[][] { new byte[7], new byte[8] },
+                    bufs, bufs, new int[] { 8, 8 });
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+}
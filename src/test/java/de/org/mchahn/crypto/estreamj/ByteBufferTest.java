@@ -0,0 +1,125 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.nio.ByteBuffer;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the NIO path of every registered cipher produces exactly the
+ * same output as the array based one, no matter the buffer type or how the
+ * data gets chunked.
+ */
+public class ByteBufferTest {
+    static final int DATA_LEN = 1001;
+
+    static ICipher setup(String name) throws ESJException {
+        ICipher result = Engine.createCipher(name);
+        byte[] key = new byte[result.getKeySize()];
+        byte[] nonce = new byte[result.getNonceSize()];
+        key[0] = 1;
+        nonce[0] = 2;
+        result.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+        result.setupNonce(nonce, 0);
+        return result;
+    }
+
+    static byte[] expected(String name) throws ESJException {
+        byte[] result = new byte[DATA_LEN];
+        Utils.fillPattern123(result, 0, result.length);
+        setup(name).process(result, 0, result, 0, result.length);
+        return result;
+    }
+
+    static ByteBuffer pattern(boolean direct) {
+        ByteBuffer result = direct ? ByteBuffer.allocateDirect(DATA_LEN + 2) :
+                                     ByteBuffer.allocate(DATA_LEN + 2);
+        for (int i = 0; i < DATA_LEN; i++) {
+            result.put(1 + i, (byte)i);
+        }
+        result.position(1).limit(1 + DATA_LEN);
+        return result;
+    }
+
+    static byte[] drain(ByteBuffer buf, int pos) {
+        byte[] result = new byte[DATA_LEN];
+        buf.get(pos, result);
+        return result;
+    }
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            byte[] exp = expected(name);
+
+            for (int type = 0; type < 4; type++) {
+                ByteBuffer in = pattern(0 != (type & 1));
+                ByteBuffer out = 0 != (type & 2) ?
+                    ByteBuffer.allocateDirect(DATA_LEN + 3) :
+                    ByteBuffer.allocate(DATA_LEN + 3);
+                out.position(2);
+
+                setup(name).process(in, out);
+                assertEquals(name, 1 + DATA_LEN, in.position());
+                assertEquals(name, 2 + DATA_LEN, out.position());
+                assertEquals(name, 0, out.get(0));
+                assertEquals(name, 0, out.get(DATA_LEN + 2));
+                assertArrayEquals(name, exp, drain(out, 2));
+            }
+
+            // in-place, chunked to the word size
+            ByteBuffer buf = pattern(true);
+            ICipher cph = setup(name);
+            int wsz = cph.getWordSize();
+            while (buf.hasRemaining()) {
+                ByteBuffer chunk = buf.duplicate();
+                chunk.limit(Math.min(buf.limit(), buf.position() + wsz * 3));
+                cph.process(chunk, chunk);
+                buf.position(chunk.position());
+            }
+            assertArrayEquals(name, exp, drain(buf, 1));
+        }
+    }
+
+    @Test
+    public void testChunkedArrays() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            byte[] exp = expected(name);
+            byte[] data = new byte[DATA_LEN];
+            Utils.fillPattern123(data, 0, data.length);
+
+            ICipher cph = setup(name);
+            int wsz = cph.getWordSize();
+            for (int ofs = 0; ofs < data.length; ofs += wsz) {
+                cph.process(data, ofs, data, ofs,
+                        Math.min(wsz, data.length - ofs));
+            }
+            assertArrayEquals(name, exp, data);
+        }
+    }
+
+    @Test
+    public void testBadOutput() throws ESJException {
+        ICipher cph = setup("Salsa20");
+        try {
+            cph.process(pattern(true), ByteBuffer.allocateDirect(DATA_LEN - 1));
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            cph.process(pattern(true),
+                    ByteBuffer.allocate(DATA_LEN).asReadOnlyBuffer());
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+}
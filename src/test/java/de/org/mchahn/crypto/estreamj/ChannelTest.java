@@ -0,0 +1,202 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherReadableChannel;
+import de.org.mchahn.crypto.estreamj.framework.CipherSeekableChannel;
+import de.org.mchahn.crypto.estreamj.framework.CipherWritableChannel;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ICipherMAC;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Channels must produce exactly what the ciphers do natively, for any buffer
+ * type and transfer size, and also when the underlying channel only takes
+ * parts of the data or gets accessed randomly.
+ */
+public class ChannelTest {
+    static final int[] CHUNKS = { 1, 7, 64, 3, 130, 0, 4, 333 };
+
+    static ByteBuffer chunk(byte[] data, int ofs, int len, boolean direct) {
+        ByteBuffer result = direct ? ByteBuffer.allocateDirect(len) :
+                                     ByteBuffer.allocate(len);
+        return result.put(data, ofs, len).flip();
+    }
+
+    static byte[] data() {
+        byte[] result = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(result, 0, result.length);
+        return result;
+    }
+
+    // takes only a few bytes per call, and none at all every third time
+    static class ThrottledChannel implements WritableByteChannel {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        int calls;
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+
+        public int write(ByteBuffer src) {
+            int c = 0 == this.calls++ % 3 ? 0 : Math.min(src.remaining(), 50);
+            for (int i = 0; i < c; i++) {
+                this.bout.write(src.get());
+            }
+            return c;
+        }
+    }
+
+    @Test
+    public void testAllCiphers() throws Exception {
+        byte[] data = data();
+        for (String name : Engine.getCipherNames()) {
+            if (Engine.createCipher(name) instanceof ICipherMAC) {
+                continue;
+            }
+            byte[] exp = ByteBufferTest.expected(name);
+            for (boolean direct : new boolean[] { false, true }) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                WritableByteChannel wch = new CipherWritableChannel(
+                        Channels.newChannel(bout), ByteBufferTest.setup(name));
+                int ofs = 0;
+                for (int i = 0; ofs < data.length; i++) {
+                    int c = Math.min(CHUNKS[i % CHUNKS.length],
+                                     data.length - ofs);
+                    ByteBuffer src = chunk(data, ofs, c, direct);
+                    assertEquals(name, c, wch.write(src));
+                    assertEquals(name, c, src.position());
+                    assertEquals(name, c, src.limit());
+                    ofs += c;
+                }
+                wch.close();
+                assertArrayEquals(name, exp, bout.toByteArray());
+
+                CipherReadableChannel rch = new CipherReadableChannel(
+                        Channels.newChannel(new ByteArrayInputStream(exp)),
+                        StreamTest.setup(name, ICipher.MODE_DECRYPT));
+                ByteBuffer dst = direct ? ByteBuffer.allocateDirect(2000) :
+                                          ByteBuffer.allocate(2000);
+                dst.position(1);
+                for (int i = 0;; i++) {
+                    dst.limit(Math.min(dst.position() +
+                            CHUNKS[i % CHUNKS.length] + 1, dst.capacity()));
+                    if (-1 == rch.read(dst)) {
+                        break;
+                    }
+                }
+                rch.close();
+                assertEquals(name, 1 + data.length, dst.position());
+                byte[] got = new byte[data.length];
+                dst.get(1, got);
+                assertArrayEquals(name, data, got);
+            }
+        }
+    }
+
+    @Test
+    public void testNonBlocking() throws Exception {
+        byte[] data = data();
+        ThrottledChannel tch = new ThrottledChannel();
+        CipherWritableChannel wch = new CipherWritableChannel(
+                tch, ByteBufferTest.setup("HC-256"));
+        ByteBuffer src = chunk(data, 0, data.length, true);
+        while (src.hasRemaining()) {
+            wch.write(src);
+        }
+        while (!wch.flush()) {
+        }
+        assertArrayEquals(ByteBufferTest.expected("HC-256"),
+                tch.bout.toByteArray());
+        wch.close();
+        try {
+            wch.write(src);
+            fail();
+        }
+        catch (ClosedChannelException cce) {
+        }
+        assertFalse(wch.isOpen());
+    }
+
+    @Test
+    public void testSeekable() throws Exception {
+        byte[] data = data();
+        Path tmp = Files.createTempFile("estreamj", ".tmp");
+        try {
+            for (String name : new String[] { "Salsa20", "AESCTR128_lean" }) {
+                byte[] exp = ByteBufferTest.expected(name);
+                try (CipherSeekableChannel sch = new CipherSeekableChannel(
+                        FileChannel.open(tmp, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                        ByteBufferTest.setup(name))) {
+                    // (written backwards, so every write needs a seek)
+                    for (int ofs = data.length; 0 < ofs;) {
+                        int c = Math.min(ofs, 77);
+                        ofs -= c;
+                        sch.position(ofs);
+                        sch.write(chunk(data, ofs, c, false));
+                    }
+                    assertEquals(name, data.length, sch.size());
+
+                    int[] positions = { 500, 3, 64, 999, 0, 127, 128 };
+                    for (int pos : positions) {
+                        ByteBuffer dst = ByteBuffer.allocateDirect(
+                                Math.min(100, data.length - pos));
+                        sch.position(pos);
+                        while (dst.hasRemaining()) {
+                            sch.read(dst);
+                        }
+                        byte[] got = new byte[dst.capacity()];
+                        dst.flip().get(got);
+                        assertTrue(name, Utils.arraysEquals(
+                                data, pos, got, 0, got.length));
+                    }
+                }
+                assertArrayEquals(name, exp, Files.readAllBytes(tmp));
+            }
+        }
+        finally {
+            Files.delete(tmp);
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        WritableByteChannel sink = Channels.newChannel(
+                new ByteArrayOutputStream());
+        try {
+            new CipherWritableChannel(sink, ByteBufferTest.setup("Phelix"));
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            new CipherSeekableChannel(null, ByteBufferTest.setup("HC-256"));
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+}
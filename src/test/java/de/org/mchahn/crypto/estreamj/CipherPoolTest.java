@@ -0,0 +1,117 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CipherPoolTest {
+    static byte[] run(ICipher cph) throws ESJException {
+        byte[] key = new byte[cph.getKeySize()];
+        byte[] nonce = new byte[cph.getNonceSize()];
+        key[0] = 3;
+        nonce[0] = 4;
+        cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+        cph.setupNonce(nonce, 0);
+        byte[] result = new byte[257];
+        cph.process(result, 0, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void testReuse() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            byte[] exp = run(Engine.createCipher(name));
+
+            ICipher cph = Engine.acquireCipher(name);
+            assertArrayEquals(name, exp, run(cph));
+            Engine.releaseCipher(name, cph);
+
+            // same thread, so it must come right back out of the local cache
+            ICipher cph2 = Engine.acquireCipher(name);
+            assertSame(name, cph, cph2);
+            assertArrayEquals(name, exp, run(cph2));
+            Engine.releaseCipher(name, cph2);
+        }
+    }
+
+    @Test
+    public void testSharedAndBounds() throws Exception {
+        final String name = "HC-256";
+        List<ICipher> cphs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            cphs.add(Engine.acquireCipher(name));
+        }
+        assertNotSame(cphs.get(0), cphs.get(1));
+        for (ICipher cph : cphs) {
+            Engine.releaseCipher(name, cph);
+        }
+
+        // other threads get what went beyond the local cache
+        final ICipher[] got = new ICipher[1];
+        final Exception[] err = new Exception[1];
+        Thread thrd = new Thread(() -> {
+            try {
+                got[0] = Engine.acquireCipher(name);
+                run(got[0]);
+            }
+            catch (Exception e) {
+                err[0] = e;
+            }
+        });
+        thrd.start();
+        thrd.join();
+        if (null != err[0]) {
+            throw err[0];
+        }
+        if (!cphs.contains(got[0])) {
+            fail("no instance from the shared queue");
+        }
+    }
+
+    @Test
+    public void testMisuse() throws ESJException {
+        // (wrong pool)
+        Engine.releaseCipher("Salsa20", Engine.acquireCipher("Salsa20"));
+        Engine.releaseCipher("Salsa20", Engine.createCipher("HC-256"));
+        Class<?> cls = Engine.createCipher("Salsa20").getClass();
+        List<ICipher> cphs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ICipher cph = Engine.acquireCipher("Salsa20");
+            assertSame(cls, cph.getClass());
+            cphs.add(cph);
+        }
+        for (ICipher cph : cphs) {
+            Engine.releaseCipher("Salsa20", cph);
+        }
+
+        // (released twice)
+        ICipher cph = Engine.acquireCipher("Salsa20");
+        Engine.releaseCipher("Salsa20", cph);
+        Engine.releaseCipher("Salsa20", cph);
+        ICipher cph2 = Engine.acquireCipher("Salsa20");
+        ICipher cph3 = Engine.acquireCipher("Salsa20");
+        assertNotSame(cph2, cph3);
+        assertArrayEquals(run(Engine.createCipher("Salsa20")), run(cph2));
+        Engine.releaseCipher("Salsa20", cph2);
+        Engine.releaseCipher("Salsa20", cph3);
+    }
+
+    @Test
+    public void testUnknown() {
+        try {
+            Engine.acquireCipher("nonexisting");
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.org.mchahn.crypto.estreamj.framework.AEAD;
+import de.org.mchahn.crypto.estreamj.framework.ESJProvider;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ICipherMAC;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Ciphers used through javax.crypto.Cipher must produce exactly what they do
+ * natively, no matter how the data gets passed; MAC ciphers must behave like
+ * AEAD ones.
+ */
+public class CipherSpiTest {
+    static final ESJProvider PROVIDER = new ESJProvider();
+
+    static final int[] CHUNKS = { 1, 7, 64, 3, 130, 0, 4, 333 };
+
+    static Cipher init(String name, int opmode) throws Exception {
+        ICipher cph = Engine.createCipher(name);
+        byte[] key = new byte[cph.getKeySize()];
+        byte[] nonce = new byte[cph.getNonceSize()];
+        key[0] = 1;
+        nonce[0] = 2;
+        Cipher result = Cipher.getInstance(name, PROVIDER);
+        result.init(opmode, new SecretKeySpec(key, name),
+                new IvParameterSpec(nonce));
+        return result;
+    }
+
+    static byte[] expected(String name) throws Exception {
+        if (!(Engine.createCipher(name) instanceof ICipherMAC)) {
+            return ByteBufferTest.expected(name);
+        }
+        AEAD aead = new AEAD(name);
+        ICipher cph = Engine.createCipher(name);
+        byte[] key = new byte[cph.getKeySize()];
+        byte[] nonce = new byte[cph.getNonceSize()];
+        key[0] = 1;
+        nonce[0] = 2;
+        byte[] data = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(data, 0, data.length);
+        byte[] result = new byte[data.length + aead.getMacSize()];
+        aead.seal(key, 0, nonce, 0, null, 0, 0,
+                data, 0, data.length, result, 0);
+        return result;
+    }
+
+    // feeds the data in chunks of different sizes
+    static byte[] run(Cipher cph, byte[] data, boolean direct)
+        throws GeneralSecurityException {
+        ByteBuffer out = direct ?
+                ByteBuffer.allocateDirect(cph.getOutputSize(data.length)) :
+                ByteBuffer.allocate(cph.getOutputSize(data.length));
+        int ofs = 0;
+        for (int i = 0; ofs < data.length; i++) {
+            int c = Math.min(CHUNKS[i % CHUNKS.length], data.length - ofs);
+            if (direct) {
+                ByteBuffer in = ByteBuffer.allocateDirect(c);
+                in.put(data, ofs, c).flip();
+                cph.update(in, out);
+            }
+            else {
+                byte[] got = cph.update(data, ofs, c);
+                if (null != got) {
+                    out.put(got);
+                }
+            }
+            ofs += c;
+        }
+        if (direct) {
+            cph.doFinal(ByteBuffer.allocateDirect(0), out);
+        }
+        else {
+            out.put(cph.doFinal());
+        }
+        byte[] result = new byte[out.position()];
+        out.flip().get(result);
+        return result;
+    }
+
+    @Test
+    public void testAllCiphers() throws Exception {
+        for (String name : Engine.getCipherNames()) {
+            byte[] exp = expected(name);
+            byte[] data = new byte[ByteBufferTest.DATA_LEN];
+            Utils.fillPattern123(data, 0, data.length);
+
+            assertArrayEquals(name, exp,
+                    init(name, Cipher.ENCRYPT_MODE).doFinal(data));
+            for (boolean direct : new boolean[] { false, true }) {
+                assertArrayEquals(name, exp,
+                        run(init(name, Cipher.ENCRYPT_MODE), data, direct));
+
+                Cipher dec = init(name, Cipher.DECRYPT_MODE);
+                assertArrayEquals(name, data, run(dec, exp, direct));
+                // (decryption can be repeated right away)
+                assertArrayEquals(name, data, dec.doFinal(exp));
+            }
+        }
+    }
+
+    @Test
+    public void testAEAD() throws Exception {
+        Cipher enc = init("Phelix", Cipher.ENCRYPT_MODE);
+        byte[] aad = { 1, 2, 3, 4, 5 };
+        enc.updateAAD(aad, 0, 2);
+        enc.updateAAD(aad, 2, 3);
+        byte[] ct = enc.doFinal(new byte[] { 9, 8, 7 });
+        assertEquals(3 + 16, ct.length);
+
+        Cipher dec = init("Phelix", Cipher.DECRYPT_MODE);
+        dec.updateAAD(aad);
+        assertArrayEquals(new byte[] { 9, 8, 7 }, dec.doFinal(ct));
+
+        dec.updateAAD(aad);
+        ct[1]++;
+        try {
+            dec.doFinal(ct);
+            fail();
+        }
+        catch (AEADBadTagException abte) {
+        }
+        ct[1]--;
+        try {
+            // (no AAD this time)
+            dec.doFinal(ct);
+            fail();
+        }
+        catch (AEADBadTagException abte) {
+        }
+        try {
+            dec.doFinal(ct, 0, 15);
+            fail();
+        }
+        catch (AEADBadTagException abte) {
+        }
+
+        byte[] key = new byte[32];
+        key[0] = 1;
+        byte[] nonce = new byte[16];
+        nonce[0] = 2;
+        dec.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "Phelix"),
+                new GCMParameterSpec(128, nonce));
+        dec.updateAAD(aad);
+        assertArrayEquals(new byte[] { 9, 8, 7 }, dec.doFinal(ct));
+    }
+
+    @Test
+    public void testInPlace() throws Exception {
+        byte[] data = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(data, 0, data.length);
+        for (String name : new String[] { "Phelix", "HC-256" }) {
+            byte[] exp = expected(name);
+            // (output either right where the input is, i.e. ahead of it
+            // whenever words are pending, or a bit before it)
+            for (boolean same : new boolean[] { true, false }) {
+                byte[] buf = new byte[3 + exp.length + 8];
+                System.arraycopy(data, 0, buf, 3, data.length);
+                byte[] got = new byte[exp.length];
+                Cipher enc = init(name, Cipher.ENCRYPT_MODE);
+                int ofs = 0, out = 0, at, n;
+                for (int i = 0; ofs < data.length; i++) {
+                    int c = Math.min(CHUNKS[i % CHUNKS.length] + 5,
+                                     data.length - ofs);
+                    at = same ? 3 + ofs : out;
+                    n = enc.update(buf, 3 + ofs, c, buf, at);
+                    System.arraycopy(buf, at, got, out, n);
+                    out += n;
+                    ofs += c;
+                    // (the output may run into the next input)
+                    System.arraycopy(data, ofs, buf, 3 + ofs,
+                                     data.length - ofs);
+                }
+                at = same ? 3 + ofs : out;
+                n = enc.doFinal(buf, 3 + ofs, 0, buf, at);
+                System.arraycopy(buf, at, got, out, n);
+                assertEquals(name, exp.length, out + n);
+                assertArrayEquals(name, exp, got);
+            }
+
+            // (buffers on the same array, output ahead or behind)
+            for (int shift : new int[] { 8, -3 }) {
+                byte[] arr = new byte[16 + exp.length];
+                System.arraycopy(data, 0, arr, 8, data.length);
+                ByteBuffer in = ByteBuffer.wrap(arr, 8, data.length);
+                ByteBuffer out = ByteBuffer.wrap(arr, 8 + shift, exp.length);
+                Cipher enc = init(name, Cipher.ENCRYPT_MODE);
+                // (an output ahead would run into input not passed yet)
+                if (0 > shift) {
+                    in.limit(8 + 5);
+                    enc.update(in, out);
+                    in.limit(8 + data.length);
+                }
+                enc.doFinal(in, out);
+                assertEquals(name, 8 + shift + exp.length, out.position());
+                assertArrayEquals(name, exp, Arrays.copyOfRange(
+                        arr, 8 + shift, 8 + shift + exp.length));
+            }
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        Cipher enc = init("Salsa20", Cipher.ENCRYPT_MODE);
+        enc.doFinal(new byte[10]);
+        try {
+            enc.update(new byte[10]);
+            fail();
+        }
+        catch (IllegalStateException ise) {
+        }
+
+        byte[] key = new byte[32];
+        key[0] = 1;
+        byte[] nonce = new byte[8];
+        nonce[0] = 2;
+        try {
+            enc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Salsa20"),
+                    new IvParameterSpec(nonce));
+            fail();
+        }
+        catch (InvalidKeyException ike) {
+        }
+        nonce[0] = 3;
+        enc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Salsa20"),
+                new IvParameterSpec(nonce));
+
+        // made up nonce, needed for decryption then
+        enc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Salsa20"));
+        nonce = enc.getIV();
+        assertNotNull(nonce);
+        byte[] ct = enc.doFinal(new byte[] { 1, 2, 3 });
+        Cipher dec = Cipher.getInstance("Salsa20/NONE/NoPadding", PROVIDER);
+        try {
+            dec.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "Salsa20"));
+            fail();
+        }
+        catch (InvalidKeyException ike) {
+        }
+        dec.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "Salsa20"),
+                new IvParameterSpec(nonce));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, dec.doFinal(ct));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        String[] transformations = { "Salsa20/CBC/NoPadding",
+                "Salsa20/NONE/PKCS5Padding", "unknown" };
+        for (String transformation : transformations) {
+            try {
+                Cipher.getInstance(transformation, PROVIDER);
+                fail(transformation);
+            }
+            catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            }
+        }
+
+        Cipher cph = Cipher.getInstance("Salsa20", PROVIDER);
+        try {
+            cph.init(Cipher.ENCRYPT_MODE,
+                    new SecretKeySpec(new byte[31], "Salsa20"));
+            fail();
+        }
+        catch (InvalidKeyException ike) {
+        }
+        try {
+            cph.init(Cipher.ENCRYPT_MODE,
+                    new SecretKeySpec(new byte[32], "Salsa20"),
+                    new IvParameterSpec(new byte[7]));
+            fail();
+        }
+        catch (InvalidAlgorithmParameterException iape) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.org.mchahn.crypto.estreamj.ciphers.salsa20.Salsa20;
+import de.org.mchahn.crypto.estreamj.framework.CipherInfo;
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ICipherMaker;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EngineTest {
+    /**
+     * Extension cipher, discovered through META-INF/services.
+     */
+    public static class ExtMaker implements ICipherMaker {
+        public ICipher create() throws ESJException {
+            return new Salsa20();
+        }
+
+        public String getName() {
+            return "Salsa20-ext";
+        }
+    }
+
+    static final String[] BUILTINS = {
+        "AESCTR128_lean", "AESCTR128_mean", "Dragon-128", "Dragon-256",
+        "Grain-128-noopt", "Grain-noopt", "HC-256", "Hermes8-128", "Hermes8-80",
+        "LEX-128", "MICKEY", "MICKEY128", "Nil", "Phelix", "Phelix96", "RC4",
+        "SOSEMANUK", "Salsa20", "Spritz", "Trivium"
+    };
+
+    @Test
+    public void testNames() throws ESJException {
+        List<String> names = Arrays.asList(Engine.getCipherNames());
+        for (String name : BUILTINS) {
+            assertTrue(name, names.contains(name));
+        }
+        assertTrue(names.contains("Salsa20-ext"));
+        assertEquals(BUILTINS.length + 1, names.size());
+
+        for (int i = 1; i < names.size(); i++) {
+            assertTrue(0 > names.get(i - 1).compareTo(names.get(i)));
+        }
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        assertTrue(Engine.createCipher("Salsa20-ext") instanceof Salsa20);
+
+        try {
+            Engine.createCipher("nonexisting");
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+
+        // all at once from many threads, nobody must fail or block forever
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futs = new Future<?>[BUILTINS.length * 4];
+            for (int i = 0; i < futs.length; i++) {
+                final String name = BUILTINS[i % BUILTINS.length];
+                futs[i] = exec.submit(() -> Engine.createCipher(name));
+            }
+            for (Future<?> fut : futs) {
+                assertNotNull(fut.get());
+            }
+        }
+        finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test
+    public void testInfo() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            CipherInfo info = Engine.getCipherInfo(name);
+            assertSame(name, info, Engine.getCipherInfo(name));
+
+            // what the factory says must match what the instance says
+            CipherInfo exp = CipherInfo.of(Engine.createCipher(name));
+            assertEquals(name, exp.getKeySize(), info.getKeySize());
+            assertEquals(name, exp.getNonceSize(), info.getNonceSize());
+            assertEquals(name, exp.getWordSize(), info.getWordSize());
+            assertEquals(name, exp.getMacSize(), info.getMacSize());
+            assertEquals(name, exp.hasMac(), info.hasMac());
+            assertEquals(name, exp.isSeekable(), info.isSeekable());
+            assertEquals(name, exp.acceptsAnyLength(), info.acceptsAnyLength());
+
+            int chunk = info.getPreferredChunkSize();
+            assertTrue(name, 0 < chunk);
+            assertEquals(name, 0, chunk % info.getWordSize());
+            if (!name.endsWith("-ext")) {
+                // (the state size is what actually gets kept, before and
+                // after processing)
+                ICipher cph = ByteBufferTest.setup(name);
+                assertEquals(name, info.getStateSize(),
+                        CipherState.export(cph).length);
+                byte[] data = new byte[100 * info.getWordSize()];
+                cph.process(data, 0, data, 0, data.length);
+                assertEquals(name, info.getStateSize(),
+                        CipherState.export(cph).length);
+            }
+        }
+        assertEquals(-1, Engine.getCipherInfo("Salsa20-ext").getStateSize());
+        assertEquals(960, Engine.getCipherInfo("SOSEMANUK")
+                .getPreferredChunkSize());
+        try {
+            Engine.getCipherInfo("nonexisting");
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.FilePipeline;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Whatever the buffer setup, the pipeline must produce exactly what the
+ * cipher does natively.
+ */
+public class FilePipelineTest {
+    static void check(String name, int size, int bufSize, int bufCount)
+        throws Exception {
+        byte[] data = new byte[size];
+        Utils.fillPattern123(data, 0, data.length);
+        byte[] exp = data.clone();
+        StreamTest.setup(name, ICipher.MODE_ENCRYPT)
+                  .process(exp, 0, exp, 0, exp.length);
+
+        Path src = Files.createTempFile("estreamj", ".tmp");
+        Path dst = Files.createTempFile("estreamj", ".tmp");
+        try {
+            Files.write(src, data);
+            FilePipeline fp = new FilePipeline(bufSize, bufCount);
+            assertEquals(name, size, fp.process(src, dst,
+                    StreamTest.setup(name, ICipher.MODE_ENCRYPT)));
+            assertArrayEquals(name, exp, Files.readAllBytes(dst));
+
+            // (and back again, over the existing file)
+            assertEquals(name, size, fp.process(dst, src,
+                    StreamTest.setup(name, ICipher.MODE_DECRYPT)));
+            assertArrayEquals(name, data, Files.readAllBytes(src));
+        }
+        finally {
+            Files.delete(src);
+            Files.delete(dst);
+        }
+    }
+
+    @Test
+    public void testCiphers() throws Exception {
+        String[] names = { "Salsa20", "HC-256", "LEX-128", "Spritz" };
+        for (String name : names) {
+            for (int bufCount : new int[] { 2, 3, 5 }) {
+                check(name, 10077, 1000, bufCount);
+            }
+            check(name, 0, 1000, 2);
+            check(name, 999, 1000, 2);
+            // (buffers smaller than a word)
+            check(name, 1001, 16, 3);
+        }
+        check("Salsa20", (5 << 19) + 3, -1, -1);
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        try {
+            new FilePipeline(-1, 1);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        Path tmp = Files.createTempFile("estreamj", ".tmp");
+        try {
+            new FilePipeline(-1, -1).process(tmp, tmp,
+                    Engine.createCipher("Phelix"));
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        finally {
+            Files.delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.org.mchahn.crypto.estreamj;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that copied cipher states behave exactly like the original, both
+ * right after the key setup and in the middle of a stream.
+ */
+public class ForkTest {
+    static final int DATA_LEN = 333;
+
+    static byte[] encrypt(ICipher cph, byte[] nonce) throws ESJException {
+        cph.setupNonce(nonce, 0);
+        byte[] result = new byte[DATA_LEN];
+        Utils.fillPattern123(result, 0, result.length);
+        cph.process(result, 0, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            ICipher cph = Engine.createCipher(name);
+            byte[] key = new byte[cph.getKeySize()];
+            key[0] = 9;
+            cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+
+            ICipher template = cph.fork();
+            assertNotSame(name, cph, template);
+            ICipher target = Engine.createCipher(name);
+
+            for (int n = 0; n < 3; n++) {
+                byte[] nonce = new byte[cph.getNonceSize()];
+                nonce[nonce.length - 1] = (byte)n;
+
+                ICipher ref = Engine.createCipher(name);
+                ref.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+                byte[] exp = encrypt(ref, nonce);
+
+                target.copyStateFrom(template);
+                assertArrayEquals(name, exp, encrypt(target, nonce));
+                assertArrayEquals(name, exp, encrypt(template.fork(), nonce));
+            }
+
+            // mid-stream: both must continue in lockstep
+            cph.setupNonce(new byte[cph.getNonceSize()], 0);
+            int wsz = cph.getWordSize();
+            byte[] a = new byte[wsz * 3];
+            cph.process(a, 0, a, 0, a.length);
+            ICipher cph2 = cph.fork();
+            a = new byte[wsz * 2 + 1];
+            byte[] b = new byte[a.length];
+            cph.process(a, 0, a, 0, a.length);
+            cph2.process(b, 0, b, 0, b.length);
+            assertArrayEquals(name, a, b);
+        }
+    }
+
+    @Test
+    public void testIncompatible() throws ESJException {
+        String[][] pairs = {
+            { "Salsa20", "HC-256" },
+            { "AESCTR128_lean", "AESCTR128_mean" },
+            { "Dragon-128", "Dragon-256" },
+            { "Phelix", "Phelix96" },
+            { "MICKEY", "MICKEY128" }
+        };
+        for (String[] pair : pairs) {
+            try {
+                Engine.createCipher(pair[0]).copyStateFrom(
+                        Engine.createCipher(pair[1]));
+                fail(pair[0]);
+            }
+            catch (ESJException esje) {
+            }
+        }
+    }
+}
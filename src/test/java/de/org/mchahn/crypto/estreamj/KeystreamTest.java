@@ -0,0 +1,82 @@
+package de.org.mchahn.crypto.estreamj;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Makes sure that raw keystream is exactly what gets XORed into the data, no
+ * matter in which portions it gets pulled.
+ */
+public class KeystreamTest {
+    static final int DATA_LEN = 1001;
+
+    static boolean isXorCipher(String name) {
+        return !name.startsWith("Phelix") && !name.equals("Spritz");
+    }
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            if (!isXorCipher(name)) {
+                continue;
+            }
+            byte[] exp = new byte[DATA_LEN];
+            Utils.fillPattern123(exp, 0, exp.length);
+            ByteBufferTest.setup(name).process(exp, 0, exp, 0, exp.length);
+
+            // one-shot, with an offset
+            byte[] ks = new byte[DATA_LEN + 2];
+            ks[0] = ks[DATA_LEN + 1] = (byte)0xcc;
+            ByteBufferTest.setup(name).generateKeystream(ks, 1, DATA_LEN);
+            assertEquals(name, (byte)0xcc, ks[0]);
+            assertEquals(name, (byte)0xcc, ks[DATA_LEN + 1]);
+            byte[] got = new byte[DATA_LEN];
+            Utils.fillPattern123(got, 0, got.length);
+            for (int i = 0; i < DATA_LEN; i++) {
+                got[i] ^= ks[1 + i];
+            }
+            assertArrayEquals(name, exp, got);
+
+            // chunked to the word size, mixed with regular processing
+            ICipher cph = ByteBufferTest.setup(name);
+            int wsz = cph.getWordSize();
+            Utils.fillPattern123(got, 0, got.length);
+            for (int ofs = 0, c, i = 0; ofs < DATA_LEN; ofs += c, i++) {
+                c = Math.min(wsz, DATA_LEN - ofs);
+                if (0 == (i & 1)) {
+                    cph.process(got, ofs, got, ofs, c);
+                }
+                else {
+                    cph.generateKeystream(ks, 0, c);
+                    for (int j = 0; j < c; j++) {
+                        got[ofs + j] ^= ks[j];
+                    }
+                }
+            }
+            assertArrayEquals(name, exp, got);
+        }
+    }
+
+    @Test
+    public void testNonXorCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            if (isXorCipher(name)) {
+                continue;
+            }
+            try {
+                ByteBufferTest.setup(name).generateKeystream(
+                        new byte[DATA_LEN], 0, DATA_LEN);
+                fail(name);
+            }
+            catch (ESJException esje) {
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.MappedFileCipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Files encrypted in place must contain exactly what the cipher produces
+ * natively, followed by the trailer, and must decrypt to the original.
+ */
+public class MappedFileTest {
+    static final int DATA_LEN = 300007;
+
+    @Test
+    public void testRoundtrip() throws Exception {
+        byte[] data = new byte[DATA_LEN];
+        Utils.fillPattern123(data, 0, data.length);
+        Path tmp = Files.createTempFile("estreamj", ".tmp");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // (sequential ones, and LEX with a word size which isn't a power
+            // of two, so the windows need proper alignment)
+            String[] names = { "Salsa20", "AESCTR128_mean", "HC-256", "LEX-128",
+                               "Spritz" };
+            for (String name : names) {
+                Files.write(tmp, data);
+                ICipher cph = Engine.createCipher(name);
+                byte[] key = new byte[cph.getKeySize()];
+                key[0] = 1;
+
+                MappedFileCipher mfc = new MappedFileCipher(10000, pool);
+                mfc.encrypt(tmp, name, key, 0);
+
+                // cipher name and nonce sit right after magic and version
+                byte[] enc = Files.readAllBytes(tmp);
+                ByteBuffer tr = ByteBuffer.wrap(enc, DATA_LEN + 5,
+                                                enc.length - DATA_LEN - 5);
+                byte[] nm = new byte[tr.get()];
+                tr.get(nm);
+                assertEquals(name, new String(nm, "UTF-8"));
+                byte[] nonce = new byte[tr.get()];
+                tr.get(nonce);
+                assertEquals(name, DATA_LEN, tr.getLong());
+                assertEquals(name, enc.length - DATA_LEN, tr.getInt());
+
+                byte[] exp = data.clone();
+                cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+                cph.setupNonce(nonce, 0);
+                cph.process(exp, 0, exp, 0, exp.length);
+                assertArrayEquals(name, exp, Arrays.copyOf(enc, DATA_LEN));
+
+                assertEquals(name, mfc.decrypt(tmp, key, 0));
+                assertArrayEquals(name, data, Files.readAllBytes(tmp));
+            }
+        }
+        finally {
+            pool.shutdown();
+            Files.delete(tmp);
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        Path tmp = Files.createTempFile("estreamj", ".tmp");
+        try {
+            MappedFileCipher mfc = new MappedFileCipher(-1, null);
+            byte[] key = new byte[32];
+            for (int size : new int[] { 0, 3, 100 }) {
+                Files.write(tmp, new byte[size]);
+                try {
+                    mfc.decrypt(tmp, key, 0);
+                    fail();
+                }
+                catch (ESJException esje) {
+                }
+                assertEquals(size, Files.size(tmp));
+            }
+            try {
+                mfc.encrypt(tmp, "Phelix", key, 0);
+                fail();
+            }
+            catch (ESJException esje) {
+            }
+
+            // empty files work too
+            Files.write(tmp, new byte[0]);
+            mfc.encrypt(tmp, "Salsa20", key, 0);
+            assertEquals("Salsa20", mfc.decrypt(tmp, key, 0));
+            assertEquals(0, Files.size(tmp));
+        }
+        finally {
+            Files.delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherMetrics;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ICipherMAC;
+import de.org.mchahn.crypto.estreamj.framework.ISeekableCipher;
+import de.org.mchahn.crypto.estreamj.framework.InstrumentedCipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented ciphers must behave like the plain ones and account what they
+ * do, visible through JMX.
+ */
+public class MetricsTest {
+    @Test
+    public void testCounting() throws Exception {
+        CipherMetrics m = Engine.getMetrics("Salsa20");
+        assertSame(m, Engine.getMetrics("Salsa20"));
+        m.reset();
+
+        ICipher cph = Engine.createInstrumentedCipher("Salsa20");
+        assertTrue(cph instanceof ISeekableCipher);
+        assertFalse(cph instanceof ICipherMAC);
+
+        byte[] key = new byte[cph.getKeySize()];
+        byte[] nonce = new byte[cph.getNonceSize()];
+        key[0] = 1;
+        nonce[0] = 2;
+        cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+        cph.setupNonce(nonce, 0);
+        byte[] got = new byte[1000];
+        Utils.fillPattern123(got, 0, got.length);
+        cph.process(got, 0, got, 0, 640);
+        ByteBuffer buf = ByteBuffer.wrap(got, 640, 360);
+        cph.process(buf, buf);
+
+        byte[] exp = new byte[1000];
+        Utils.fillPattern123(exp, 0, exp.length);
+        ByteBufferTest.setup("Salsa20").process(exp, 0, exp, 0, exp.length);
+        assertArrayEquals(exp, got);
+
+        // (counts get collected in the instance first)
+        assertEquals(1, m.getKeySetups());
+        assertEquals(0, m.getProcessCalls());
+        ((InstrumentedCipher)cph).flush();
+        assertEquals(1, m.getNonceSetups());
+        assertEquals(2, m.getProcessCalls());
+        assertEquals(1000, m.getProcessedBytes());
+
+        // only some of the calls get timed, but these then for all of them
+        for (int i = 0; i < InstrumentedCipher.SAMPLE_RATE; i++) {
+            cph.process(got, 0, got, 0, 64);
+        }
+        cph.erase();
+        assertEquals(2 + InstrumentedCipher.SAMPLE_RATE, m.getProcessCalls());
+        assertEquals(0, m.getProcessNanos() % InstrumentedCipher.SAMPLE_RATE);
+        assertTrue(0 < m.getProcessNanos());
+
+        // forks account into the same metrics, flushing happens by itself
+        m.reset();
+        cph.setupNonce(nonce, 0);
+        ICipher cph2 = cph.fork();
+        assertTrue(cph2 instanceof InstrumentedCipher);
+        for (int i = 0; i < InstrumentedCipher.FLUSH_OPS; i++) {
+            cph2.generateKeystream(got, 0, 64);
+        }
+        assertTrue(0 < m.getProcessCalls());
+        ((InstrumentedCipher)cph2).flush();
+        assertEquals(InstrumentedCipher.FLUSH_OPS, m.getProcessCalls());
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName(Engine.METRICS_DOMAIN +
+                ":type=CipherMetrics,name=" + ObjectName.quote("Salsa20"));
+        assertEquals(64L * InstrumentedCipher.FLUSH_OPS,
+                mbs.getAttribute(on, "ProcessedBytes"));
+        mbs.invoke(on, "reset", null, null);
+        assertEquals(0, m.getProcessedBytes());
+    }
+
+    @Test
+    public void testMAC() throws ESJException {
+        CipherMetrics m = Engine.getMetrics("Phelix");
+        m.reset();
+        ICipher cph = Engine.createInstrumentedCipher("Phelix");
+        assertTrue(cph instanceof ICipherMAC);
+        ICipherMAC mac = (ICipherMAC)cph;
+
+        cph.setupKey(ICipher.MODE_ENCRYPT, new byte[cph.getKeySize()], 0);
+        cph.setupNonce(new byte[cph.getNonceSize()], 0);
+        mac.processAAD(new byte[10], 0, 10);
+        cph.process(new byte[8], 0, new byte[8], 0, 8);
+        mac.finalize(new byte[mac.getMacSize()], 0);
+        cph.erase();
+
+        assertEquals(10, m.getAADBytes());
+        assertEquals(8, m.getProcessedBytes());
+        assertEquals(1, m.getNonceSetups());
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        String[] types = { "KeySetup", "NonceSetup", "Process", "Finalize" };
+        List<RecordedEvent> evs;
+        Path file = Files.createTempFile("estreamj", ".jfr");
+        try (Recording rec = new Recording()) {
+            for (String type : types) {
+                rec.enable(Engine.METRICS_DOMAIN + "." + type)
+                   .withThreshold(Duration.ZERO);
+            }
+            rec.start();
+
+            ICipher cph = Engine.createInstrumentedCipher("Phelix");
+            cph.setupKey(ICipher.MODE_ENCRYPT, new byte[cph.getKeySize()], 0);
+            cph.setupNonce(new byte[cph.getNonceSize()], 0);
+            ((ICipherMAC)cph).processAAD(new byte[3], 0, 3);
+            cph.process(new byte[100], 0, new byte[100], 0, 100);
+            ((ICipherMAC)cph).finalize(new byte[16], 0);
+
+            rec.stop();
+            rec.dump(file);
+            evs = RecordingFile.readAllEvents(file);
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+
+        HashMap<String, Long> bytes = new HashMap<>();
+        for (RecordedEvent ev : evs) {
+            String type = ev.getEventType().getName();
+            type = type.substring(type.lastIndexOf('.') + 1);
+            assertEquals("Phelix", ev.getString("cipherName"));
+            bytes.merge(type, ev.getLong("bytes"), Long::sum);
+        }
+        assertEquals(types.length, bytes.size());
+        assertEquals(Long.valueOf(103), bytes.get("Process"));
+        assertEquals(Long.valueOf(0), bytes.get("KeySetup"));
+    }
+}
@@ -0,0 +1,106 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ISeekableCipher;
+import de.org.mchahn.crypto.estreamj.framework.ParallelProcessor;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ParallelProcessorTest {
+    static final int DATA_LEN = 100003;
+
+    @Test
+    public void testSeekableCiphers() throws ESJException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String name : Engine.getCipherNames()) {
+                if (!(Engine.createCipher(name) instanceof ISeekableCipher)) {
+                    continue;
+                }
+                ICipher cph = Engine.createCipher(name);
+                byte[] key = new byte[cph.getKeySize()];
+                byte[] nonce = new byte[cph.getNonceSize()];
+                key[1] = 11;
+                nonce[1] = 22;
+
+                byte[] exp = new byte[DATA_LEN + 3];
+                Utils.fillPattern123(exp, 0, exp.length);
+                cph.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+                cph.setupNonce(nonce, 0);
+                cph.process(exp, 0, exp, 0, exp.length);
+
+                for (int chunkSize : new int[] { 1, 1000, 4096, -1 }) {
+                    ParallelProcessor pp = new ParallelProcessor(
+                            name, ICipher.MODE_ENCRYPT, key, 0, nonce, 0,
+                            chunkSize, pool);
+
+                    // out of place, with offsets
+                    byte[] data = new byte[DATA_LEN + 3];
+                    Utils.fillPattern123(data, 0, data.length);
+                    byte[] out = new byte[DATA_LEN + 5];
+                    pp.process(data, 0, out, 2, data.length);
+                    byte[] got = new byte[data.length];
+                    System.arraycopy(out, 2, got, 0, got.length);
+                    assertArrayEquals(name, exp, got);
+
+                    // in place, somewhere in the middle of the stream
+                    int wsz = cph.getWordSize();
+                    int ofs = wsz * 7;
+                    Utils.fillPattern123(data, 0, data.length);
+                    pp.process(ofs, data, ofs, data, ofs, data.length - ofs);
+                    pp.process(0, data, 0, data, 0, ofs);
+                    assertArrayEquals(name, exp, data);
+
+                    // direct buffer, in place
+                    ByteBuffer dbuf = ByteBuffer.allocateDirect(data.length);
+                    Utils.fillPattern123(data, 0, data.length);
+                    dbuf.put(data).flip();
+                    pp.process(0, dbuf, dbuf);
+                    assertEquals(name, data.length, dbuf.position());
+                    dbuf.flip().get(data);
+                    assertArrayEquals(name, exp, data);
+
+                    pp.erase();
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrors() throws ESJException {
+        byte[] buf = new byte[64];
+        try {
+            new ParallelProcessor("RC4", ICipher.MODE_ENCRYPT,
+                    buf, 0, buf, 0, -1, null);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        ParallelProcessor pp = new ParallelProcessor("Salsa20",
+                ICipher.MODE_ENCRYPT, buf, 0, buf, 0, -1, null);
+        try {
+            pp.process(3, buf, 0, buf, 0, buf.length);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            pp.process(0, buf, 1, buf, 0, buf.length);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherProcessor;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.ICipherMAC;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The processor must produce exactly what the ciphers do natively, coalesce
+ * small items and never hand out more than got requested.
+ */
+public class ProcessorTest {
+    static final int[] CHUNKS = { 1, 7, 64, 3, 130, 0, 4, 333 };
+
+    // collects everything, requesting a few items at a time only
+    static class Collector implements Flow.Subscriber<ByteBuffer> {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Flow.Subscription sub;
+        int items;
+        long requested;
+        boolean overrun;
+        Throwable error;
+        CountDownLatch done = new CountDownLatch(1);
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.sub = subscription;
+            this.requested = 2;
+            subscription.request(2);
+        }
+
+        public void onNext(ByteBuffer item) {
+            if (++this.items > this.requested) {
+                this.overrun = true;
+            }
+            byte[] buf = new byte[item.remaining()];
+            item.get(buf);
+            this.data.writeBytes(buf);
+            if (this.items == this.requested) {
+                this.requested += 3;
+                this.sub.request(3);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.done.countDown();
+        }
+
+        public void onComplete() {
+            this.done.countDown();
+        }
+    }
+
+    static Collector run(ICipher cph, byte[] data, int batchSize,
+            boolean tiny) throws Exception {
+        return run(cph, data, batchSize, tiny, new Collector());
+    }
+
+    static Collector run(ICipher cph, byte[] data, int batchSize,
+            boolean tiny, Collector coll) throws Exception {
+        CipherProcessor proc = new CipherProcessor(cph, batchSize);
+        proc.subscribe(coll);
+        try (SubmissionPublisher<ByteBuffer> pub =
+                new SubmissionPublisher<>()) {
+            pub.subscribe(proc);
+            int ofs = 0;
+            for (int i = 0; ofs < data.length; i++) {
+                int c = tiny ? 1 : CHUNKS[i % CHUNKS.length];
+                c = Math.min(c, data.length - ofs);
+                pub.submit(ByteBuffer.wrap(data, ofs, c));
+                ofs += c;
+            }
+        }
+        assertTrue(coll.done.await(10, TimeUnit.SECONDS));
+        return coll;
+    }
+
+    @Test
+    public void testAllCiphers() throws Exception {
+        byte[] data = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(data, 0, data.length);
+        for (String name : Engine.getCipherNames()) {
+            if (Engine.createCipher(name) instanceof ICipherMAC) {
+                continue;
+            }
+            byte[] exp = ByteBufferTest.expected(name);
+            for (int batchSize : new int[] { 1, 200, -1 }) {
+                if (-1 == batchSize) {
+                    batchSize = CipherProcessor.DEF_BATCH_SIZE;
+                }
+                Collector coll = run(ByteBufferTest.setup(name), data,
+                        batchSize, false);
+                assertNull(name, coll.error);
+                assertFalse(name, coll.overrun);
+                assertArrayEquals(name, exp, coll.data.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        byte[] data = new byte[10000];
+        Utils.fillPattern123(data, 0, data.length);
+        byte[] exp = data.clone();
+        ByteBufferTest.setup("Salsa20").process(exp, 0, exp, 0, exp.length);
+
+        Collector coll = run(ByteBufferTest.setup("Salsa20"), data,
+                1024, true);
+        assertFalse(coll.overrun);
+        assertArrayEquals(exp, coll.data.toByteArray());
+        // (one item per byte coming in, one per round of requests out)
+        int rounds = (data.length + CipherProcessor.PREFETCH - 1) /
+                     CipherProcessor.PREFETCH;
+        assertTrue(String.valueOf(coll.items), rounds >= coll.items);
+    }
+
+    @Test
+    public void testWiping() throws Exception {
+        byte[] data = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(data, 0, data.length);
+        // (misbehaving subscriber, holding on to the batches)
+        List<ByteBuffer> kept = new ArrayList<>();
+        Collector coll = run(ByteBufferTest.setup("LEX-128"), data, 200, true,
+            new Collector() {
+                public void onNext(ByteBuffer item) {
+                    kept.add(item);
+                    super.onNext(item.duplicate());
+                }
+            });
+        assertNull(coll.error);
+        assertArrayEquals(ByteBufferTest.expected("LEX-128"),
+                coll.data.toByteArray());
+        // (byte-sized items leave unaligned tails, moved on to the next batch)
+        assertTrue(1 < kept.size());
+        for (ByteBuffer buf : kept) {
+            for (int i = 0; i < buf.capacity(); i++) {
+                assertEquals(0, buf.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        try {
+            new CipherProcessor(ByteBufferTest.setup("Phelix"));
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+
+        CipherProcessor proc = new CipherProcessor(
+                ByteBufferTest.setup("Salsa20"));
+        proc.subscribe(new Collector());
+        Collector second = new Collector();
+        proc.subscribe(second);
+        assertEquals(0, second.done.getCount());
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+}
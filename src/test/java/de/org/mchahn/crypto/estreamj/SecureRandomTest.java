@@ -0,0 +1,143 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.org.mchahn.crypto.estreamj.framework.ESJProvider;
+import de.org.mchahn.crypto.estreamj.framework.ESJSecureRandom;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The keystream based random generators must be reachable through the
+ * provider and produce distinct, plausible data in any request size.
+ */
+public class SecureRandomTest {
+    static boolean allZero(byte[] buf) {
+        for (byte b : buf) {
+            if (0 != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testProvider() throws NoSuchAlgorithmException {
+        ESJProvider prov = new ESJProvider();
+        for (String name : ESJProvider.DEF_RANDOM_CIPHERS) {
+            SecureRandom rnd = SecureRandom.getInstance(name, prov);
+            assertEquals(name, rnd.getAlgorithm());
+            assertEquals("true", prov.getProperty(
+                    "SecureRandom." + name + " ThreadSafe"));
+
+            HashSet<String> seen = new HashSet<>();
+            int[] sizes = { 0, 1, 12, 1000, 1025, 3, 100000, 7 };
+            for (int size : sizes) {
+                byte[] buf = new byte[size];
+                rnd.nextBytes(buf);
+                assertTrue(name, 8 > size || !allZero(buf));
+                assertTrue(name, seen.add(Arrays.toString(buf)) || 0 == size);
+            }
+
+            // (two generators must never agree)
+            byte[] a = new byte[32];
+            byte[] b = new byte[32];
+            rnd.nextBytes(a);
+            SecureRandom.getInstance(name, prov).nextBytes(b);
+            assertFalse(name, Arrays.equals(a, b));
+
+            rnd.setSeed(new byte[] { 1, 2, 3 });
+            rnd.setSeed(4L);
+            rnd.nextBytes(a);
+            assertFalse(name, allZero(a));
+            assertEquals(16, rnd.generateSeed(16).length);
+        }
+    }
+
+    @Test
+    public void testCustom() throws NoSuchAlgorithmException {
+        ESJProvider prov = new ESJProvider("Trivium", "Phelix", "unknown");
+        SecureRandom rnd = SecureRandom.getInstance("Trivium", prov);
+        byte[] buf = new byte[101];
+        rnd.nextBytes(buf);
+        assertFalse(allZero(buf));
+
+        // (no keystream without data, or no cipher at all)
+        for (String name : new String[] { "Phelix", "unknown" }) {
+            try {
+                SecureRandom.getInstance(name, prov);
+                fail(name);
+            }
+            catch (NoSuchAlgorithmException nsae) {
+            }
+        }
+        try {
+            SecureRandom.getInstance("Salsa20", prov);
+            fail();
+        }
+        catch (NoSuchAlgorithmException nsae) {
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        SecureRandom rnd = SecureRandom.getInstance("Salsa20",
+                new ESJProvider());
+        byte[] a = new byte[32];
+        rnd.nextBytes(a);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (ObjectOutputStream oout = new ObjectOutputStream(bout)) {
+            oout.writeObject(rnd);
+        }
+        SecureRandom rnd2;
+        try (ObjectInputStream oin = new ObjectInputStream(
+                new ByteArrayInputStream(bout.toByteArray()))) {
+            rnd2 = (SecureRandom)oin.readObject();
+        }
+        byte[] b = new byte[32];
+        rnd2.nextBytes(b);
+        assertFalse(allZero(b));
+        assertFalse(Arrays.equals(a, b));
+        rnd2.setSeed(5L);
+        rnd2.nextBytes(b);
+        assertFalse(allZero(b));
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        SecureRandom rnd = SecureRandom.getInstance("Salsa20",
+                new ESJProvider());
+        ConcurrentHashMap<String, Boolean> seen = new ConcurrentHashMap<>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                byte[] buf = new byte[16];
+                long total = 0;
+                while (total <= ESJSecureRandom.RESEED_BYTES) {
+                    rnd.nextBytes(buf);
+                    seen.put(Arrays.toString(buf), Boolean.TRUE);
+                    total += 4096;
+                    rnd.nextBytes(new byte[4096]);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int perThread = (int)(ESJSecureRandom.RESEED_BYTES / 4096) + 1;
+        assertEquals(threads.length * perThread, seen.size());
+    }
+}
@@ -0,0 +1,83 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.util.Arrays;
+
+import de.org.mchahn.crypto.estreamj.framework.AnyLengthAdapter;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Skipping parts of the stream must land exactly where processing the same
+ * amount of data would.
+ */
+public class SkipTest {
+    static byte[] skipped(ICipher cph, int[] skips) throws ESJException {
+        byte[] result = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(result, 0, result.length);
+        int ofs = 0;
+        for (int i = 0; i < skips.length; i += 2) {
+            cph.skip(skips[i]);
+            ofs += skips[i];
+            cph.process(result, ofs, result, ofs, skips[i + 1]);
+            ofs += skips[i + 1];
+        }
+        return result;
+    }
+
+    static void check(String name, byte[] exp, byte[] got, int[] skips) {
+        int ofs = 0;
+        for (int i = 0; i < skips.length; i += 2) {
+            ofs += skips[i];
+            int end = ofs + skips[i + 1];
+            assertArrayEquals(name + " @" + ofs,
+                    Arrays.copyOfRange(exp, ofs, end),
+                    Arrays.copyOfRange(got, ofs, end));
+            ofs = end;
+        }
+    }
+
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            ICipher cph = ByteBufferTest.setup(name);
+            if ("Phelix".equals(name) || "Phelix96".equals(name)) {
+                // (the keystream depends on the data)
+                try {
+                    cph.skip(16);
+                    fail(name);
+                }
+                catch (ESJException esje) {
+                }
+                continue;
+            }
+            byte[] exp = ByteBufferTest.expected(name);
+
+            int wsz = cph.getWordSize();
+            int half = exp.length / wsz / 2;
+            int[] skips = cph.acceptsAnyLength() ?
+                new int[] { 0, 3, 5, 61, 130, 1, 0, 7, 333, 461 } :
+                new int[] { 0, wsz, wsz, wsz, wsz * (half - 3), 0,
+                            wsz, 0, 0, exp.length - wsz * (half + 1) };
+            check(name, exp, skipped(cph, skips), skips);
+
+            if (!cph.acceptsAnyLength()) {
+                skips = new int[] { 3, 5, 61, 130, 1, 0, 7, 333, 461, 0 };
+                cph = new AnyLengthAdapter(ByteBufferTest.setup(name));
+                check(name, exp, skipped(cph, skips), skips);
+            }
+
+            try {
+                cph.skip(-1);
+                fail(name);
+            }
+            catch (ESJException esje) {
+            }
+        }
+    }
+}
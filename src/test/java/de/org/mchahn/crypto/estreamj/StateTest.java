@@ -0,0 +1,126 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.util.Arrays;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherState;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Exported cipher states, restored into fresh instances, must continue the
+ * stream exactly where the original was.
+ */
+public class StateTest {
+    @Test
+    public void testAllCiphers() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            byte[] exp = ByteBufferTest.expected(name);
+
+            ICipher cph = ByteBufferTest.setup(name);
+            int wsz = cph.getWordSize();
+            int split = cph.acceptsAnyLength() ? 333 : wsz * 7;
+
+            byte[] got = new byte[exp.length];
+            Utils.fillPattern123(got, 0, got.length);
+            cph.process(got, 0, got, 0, split);
+            byte[] state = CipherState.export(cph);
+            cph.erase();
+            byte[] mid = got.clone();
+
+            ICipher cph2 = Engine.createCipher(name);
+            CipherState.restore(cph2, state, 0, state.length);
+            cph2.process(got, split, got, split, got.length - split);
+            assertArrayEquals(name, exp, got);
+
+            // twice from the same state, with an offset
+            byte[] state2 = new byte[state.length + 3];
+            System.arraycopy(state, 0, state2, 3, state.length);
+            got = mid;
+            ICipher cph3 = Engine.createCipher(name);
+            CipherState.restore(cph3, state2, 3, state.length);
+            cph3.process(got, split, got, split, got.length - split);
+            assertArrayEquals(name, exp, got);
+        }
+    }
+
+    @Test
+    public void testUnkeyed() throws ESJException {
+        for (String name : Engine.getCipherNames()) {
+            byte[] state = CipherState.export(Engine.createCipher(name));
+            CipherState.restore(Engine.createCipher(name),
+                    state, 0, state.length);
+        }
+    }
+
+    @Test
+    public void testInvalid() throws ESJException {
+        byte[] state = CipherState.export(ByteBufferTest.setup("Salsa20"));
+
+        try {
+            CipherState.restore(Engine.createCipher("HC-256"),
+                    state, 0, state.length);
+            fail("HC-256");
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            CipherState.restore(Engine.createCipher("Salsa20"),
+                    state, 0, state.length - 1);
+            fail("truncated");
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            byte[] state2 = Arrays.copyOf(state, state.length + 1);
+            CipherState.restore(Engine.createCipher("Salsa20"),
+                    state2, 0, state2.length);
+            fail("trailing");
+        }
+        catch (ESJException esje) {
+        }
+        try {
+            state[0]++;
+            CipherState.restore(Engine.createCipher("Salsa20"),
+                    state, 0, state.length);
+            fail("version");
+        }
+        catch (ESJException esje) {
+        }
+
+        // (corrupt array lengths, which must not get allocated or overflow)
+        state = CipherState.export(ByteBufferTest.setup("HC-256"));
+        for (int len : new int[] { 0x40000001, 0x80000001, -2 }) {
+            byte[] state2 = state.clone();
+            Utils.writeInt32LE(len, state2, 5);
+            try {
+                CipherState.restore(Engine.createCipher("HC-256"),
+                        state2, 0, state2.length);
+                fail("length " + len);
+            }
+            catch (ESJException esje) {
+            }
+        }
+
+        String[][] pairs = {
+            { "AESCTR128_lean", "AESCTR128_mean" },
+            { "Dragon-128", "Dragon-256" },
+            { "Phelix", "Phelix96" }
+        };
+        for (String[] pair : pairs) {
+            state = CipherState.export(ByteBufferTest.setup(pair[0]));
+            try {
+                CipherState.restore(Engine.createCipher(pair[1]),
+                        state, 0, state.length);
+                fail(pair[0]);
+            }
+            catch (ESJException esje) {
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.org.mchahn.crypto.estreamj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.org.mchahn.crypto.estreamj.framework.CipherInputStream;
+import de.org.mchahn.crypto.estreamj.framework.CipherOutputStream;
+import de.org.mchahn.crypto.estreamj.framework.ESJException;
+import de.org.mchahn.crypto.estreamj.framework.Engine;
+import de.org.mchahn.crypto.estreamj.framework.ICipher;
+import de.org.mchahn.crypto.estreamj.framework.Utils;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Streams must produce exactly what the ciphers do natively, no matter how
+ * the data gets written or read; tags of MAC ciphers must be appended and
+ * checked.
+ */
+public class StreamTest {
+    static final int[] CHUNKS = { 1, 7, 64, 3, 130, 0, 4, 333 };
+
+    static ICipher setup(String name, int mode) throws ESJException {
+        ICipher result = Engine.createCipher(name);
+        byte[] key = new byte[result.getKeySize()];
+        byte[] nonce = new byte[result.getNonceSize()];
+        key[0] = 1;
+        nonce[0] = 2;
+        result.setupKey(mode, key, 0);
+        result.setupNonce(nonce, 0);
+        return result;
+    }
+
+    static byte[] write(String name, byte[] data, int bufSize)
+        throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        CipherOutputStream cout = new CipherOutputStream(bout,
+                setup(name, ICipher.MODE_ENCRYPT), bufSize);
+        int ofs = 0;
+        for (int i = 0; ofs < data.length; i++) {
+            int c = Math.min(CHUNKS[i % CHUNKS.length], data.length - ofs);
+            if (1 == c) {
+                cout.write(data[ofs]);
+            }
+            else {
+                cout.write(data, ofs, c);
+            }
+            ofs += c;
+            if (3 == i) {
+                cout.flush();
+            }
+        }
+        cout.close();
+        return bout.toByteArray();
+    }
+
+    static byte[] read(String name, byte[] data, int bufSize)
+        throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream cin = new CipherInputStream(
+                new TrickleInputStream(data),
+                setup(name, ICipher.MODE_DECRYPT), bufSize)) {
+            byte[] buf = new byte[333];
+            for (int i = 0;; i++) {
+                int c = CHUNKS[i % CHUNKS.length];
+                if (1 == c) {
+                    int b = cin.read();
+                    if (-1 == b) {
+                        break;
+                    }
+                    result.write(b);
+                    continue;
+                }
+                c = cin.read(buf, 0, c);
+                if (-1 == c) {
+                    break;
+                }
+                result.write(buf, 0, c);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    // hands out data in odd portions, like a socket would
+    static class TrickleInputStream extends ByteArrayInputStream {
+        int calls;
+
+        TrickleInputStream(byte[] data) {
+            super(data);
+        }
+
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + (this.calls++ % 97)));
+        }
+    }
+
+    @Test
+    public void testAllCiphers() throws Exception {
+        byte[] data = new byte[ByteBufferTest.DATA_LEN];
+        Utils.fillPattern123(data, 0, data.length);
+        for (String name : Engine.getCipherNames()) {
+            byte[] exp = CipherSpiTest.expected(name);
+            for (int bufSize : new int[] { 1, 100, 4096 }) {
+                assertArrayEquals(name, exp, write(name, data, bufSize));
+                assertArrayEquals(name, data, read(name, exp, bufSize));
+            }
+        }
+    }
+
+    @Test
+    public void testMAC() throws Exception {
+        byte[] data = new byte[100];
+        byte[] ct = write("Phelix", data, 64);
+        assertEquals(data.length + 16, ct.length);
+        assertArrayEquals(data, read("Phelix", ct, 64));
+
+        ct[ct.length - 1]++;
+        try {
+            read("Phelix", ct, 64);
+            fail();
+        }
+        catch (IOException ioe) {
+        }
+
+        // (closing early must still check the tag)
+        InputStream cin = new CipherInputStream(new ByteArrayInputStream(ct),
+                setup("Phelix", ICipher.MODE_DECRYPT));
+        cin.read();
+        try {
+            cin.close();
+            fail();
+        }
+        catch (IOException ioe) {
+        }
+
+        try {
+            read("Phelix", new byte[15], 64);
+            fail();
+        }
+        catch (IOException ioe) {
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        CipherOutputStream cout = new CipherOutputStream(
+                new ByteArrayOutputStream(), setup("Salsa20",
+                ICipher.MODE_ENCRYPT));
+        cout.close();
+        cout.close();
+        try {
+            cout.write(1);
+            fail();
+        }
+        catch (IOException ioe) {
+        }
+        CipherInputStream cin = new CipherInputStream(
+                new ByteArrayInputStream(new byte[1]), setup("Salsa20",
+                ICipher.MODE_DECRYPT));
+        cin.close();
+        try {
+            cin.read();
+            fail();
+        }
+        catch (IOException ioe) {
+        }
+    }
+}
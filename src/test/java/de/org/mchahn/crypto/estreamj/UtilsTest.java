@@ -1,10 +1,13 @@
 package de.org.mchahn.crypto.estreamj;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import de.org.mchahn.crypto.estreamj.framework.Utils;
 
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -78,6 +81,94 @@ public class UtilsTest {
         assertEquals(0xca, (buf[5] & 0x0ff));
     }
 
+    @Test
+    public void testInt64LE() {
+        byte[] buf = new byte[10];
+        Utils.writeInt64LE(0x0123456789abcdefL, buf, 1);
+        assertEquals(0, buf[0]);
+        assertEquals((byte)0xef, buf[1]);
+        assertEquals(1, buf[8]);
+        assertEquals(0, buf[9]);
+        assertEquals(0x0123456789abcdefL, Utils.readInt64LE(buf, 1));
+        assertEquals(0x89abcdef, Utils.readInt32LE(buf, 1));
+    }
+
+    @Test
+    public void testArrayXor() {
+        byte[] ks = new byte[43];
+        byte[] data = new byte[50];
+        for (int i = 0; i < ks.length; i++) {
+            ks[i] = (byte)(i * 7 + 1);
+        }
+        Utils.fillPattern123(data, 0, data.length);
+
+        // all the odd offsets and lengths, the tail must be correct as well
+        for (int len = 0; len < ks.length - 2; len++) {
+            byte[] out = new byte[data.length];
+            Utils.xor(data, 3, ks, 2, out, 1, len);
+            assertEquals(0, out[0]);
+            for (int i = 0; i < len; i++) {
+                assertEquals((byte)(data[3 + i] ^ ks[2 + i]), out[1 + i]);
+            }
+            assertEquals(0, out[1 + len]);
+        }
+
+        // in place
+        byte[] copy = data.clone();
+        Utils.xor(copy, 0, ks, 0, copy, 0, ks.length);
+        Utils.xor(copy, 0, ks, 0, copy, 0, ks.length);
+        assertArrayEquals(data, copy);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testBufferConvertors() {
+        ByteBuffer bb = ByteBuffer.allocateDirect(8);
+        Utils.writeInt32LE(0xcaffbabe, bb, 1);
+        assertEquals((byte)0xbe, bb.get(1));
+        assertEquals((byte)0xca, bb.get(4));
+        assertEquals(0xcaffbabe, Utils.readInt32LE(bb, 1));
+        assertEquals(0xbebaffca, Utils.readInt32BE(bb, 1));
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0xcaffbabe, Utils.readInt32LE(bb, 1));
+        Utils.writeInt32BE(0x01020304, bb, 4);
+        assertEquals(1, bb.get(4));
+        assertEquals(4, bb.get(7));
+        assertEquals(0x01020304, Utils.readInt32BE(bb, 4));
+    }
+
+    @Test
+    public void testBufferXor() {
+        byte[] ks = new byte[37];
+        byte[] data = new byte[ks.length];
+        byte[] exp = new byte[ks.length];
+        for (int i = 0; i < ks.length; i++) {
+            ks[i] = (byte)(i * 7 + 1);
+            data[i] = (byte)(i * 13);
+            exp[i] = (byte)(ks[i] ^ data[i]);
+        }
+        ByteOrder[] orders = { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+        for (ByteOrder orderIn : orders) {
+            for (ByteOrder orderOut : orders) {
+                ByteBuffer in = ByteBuffer.allocateDirect(40).order(orderIn);
+                ByteBuffer out = ByteBuffer.allocateDirect(41).order(orderOut);
+                in.put(3, data);
+                Utils.xor(in, 3, ks, 0, out, 4, ks.length);
+                byte[] got = new byte[ks.length];
+                out.get(4, got);
+                assertArrayEquals(exp, got);
+                assertEquals(0, out.get(3));
+                try {
+                    Utils.xor(in, 4, ks, 0, out, 0, ks.length);
+                    fail();
+                }
+                catch (IndexOutOfBoundsException ioobe) {
+                }
+            }
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     @Test
@@ -13,6 +13,7 @@ import de.org.mchahn.crypto.estreamj.framework.Utils;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AESTest {
     static final String[] VECTOR_CORE_KEY128_1 = {
@@ -180,4 +181,60 @@ public class AESTest {
             assertTrue(Utils.arraysEquals(ptxt, 131008, ctxt, 192, 64));
         }
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testSeek() throws ESJException {
+        byte[] key, iv, ctxt, ptxt;
+
+        for (int lean = 0; lean < 2; lean++) {
+            AESCTR aes = new AESCTR(1 == lean);
+
+            try {
+                aes.seek(0);
+                fail();
+            }
+            catch (ESJException esje) {
+            }
+
+            key  = Utils.hexStrToBytes(VECTOR2[0]);
+            iv   = Utils.hexStrToBytes(VECTOR2[1]);
+            ctxt = Utils.hexStrToBytes(VECTOR2[2]);
+
+            aes.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+            aes.setupNonce(iv, 0);
+
+            ptxt = new byte[128];
+
+            aes.seek(131008);
+            aes.process(ptxt, 0, ptxt, 0, 64);
+            assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 192, 64));
+
+            Arrays.fill(ptxt, (byte)0);
+            aes.seek(65472);
+            aes.process(ptxt, 0, ptxt, 0, 128);
+            assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 64, 128));
+
+            Arrays.fill(ptxt, (byte)0);
+            aes.seek(0);
+            aes.process(ptxt, 0, ptxt, 0, 64);
+            assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 0, 64));
+
+            try {
+                aes.seek(8);
+                fail();
+            }
+            catch (ESJException esje) {
+            }
+
+            aes.erase();
+            try {
+                aes.seek(0);
+                fail();
+            }
+            catch (ESJException esje) {
+            }
+        }
+    }
 }
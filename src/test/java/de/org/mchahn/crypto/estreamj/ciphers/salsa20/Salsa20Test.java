@@ -10,6 +10,7 @@ import de.org.mchahn.crypto.estreamj.framework.Utils;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class Salsa20Test {
     static final String[] VECTOR1 = new String[] {
@@ -124,4 +125,67 @@ public class Salsa20Test {
         assertTrue(Utils.arraysEquals(ptxt,  65536, ctxt, 128, 64));
         assertTrue(Utils.arraysEquals(ptxt, 131008, ctxt, 192, 64));
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testSeek() throws ESJException {
+        byte[] key, iv, ctxt, ptxt;
+        Salsa20 sat = new Salsa20();
+
+        try {
+            sat.seek(0);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+
+        key  = Utils.hexStrToBytes(VECTOR2[0]);
+        iv   = Utils.hexStrToBytes(VECTOR2[1]);
+        ctxt = Utils.hexStrToBytes(VECTOR2[2]);
+
+        sat.setupKey(ICipher.MODE_ENCRYPT, key, 0);
+        sat.setupNonce(iv, 0);
+
+        ptxt = new byte[128];
+
+        sat.seek(131008);
+        sat.process(ptxt, 0, ptxt, 0, 64);
+        assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 192, 64));
+
+        Arrays.fill(ptxt, (byte)0);
+        sat.seek(65472);
+        sat.process(ptxt, 0, ptxt, 0, 128);
+        assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 64, 128));
+
+        Arrays.fill(ptxt, (byte)0);
+        sat.seek(0);
+        sat.process(ptxt, 0, ptxt, 0, 64);
+        assertTrue(Utils.arraysEquals(ptxt, 0, ctxt, 0, 64));
+
+        // beyond the lower counter word, must match sequential processing
+        byte[] exp = new byte[128];
+        sat.seek((1L << 38) - 64);
+        sat.process(exp, 0, exp, 0, 128);
+        Arrays.fill(ptxt, (byte)0);
+        sat.seek(1L << 38);
+        sat.process(ptxt, 0, ptxt, 0, 64);
+        assertTrue(Utils.arraysEquals(ptxt, 0, exp, 64, 64));
+
+        try {
+            sat.seek(65);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+
+        // (erased instances, e.g. pooled ones, must not seek either)
+        sat.erase();
+        try {
+            sat.seek(0);
+            fail();
+        }
+        catch (ESJException esje) {
+        }
+    }
 }